@@ -0,0 +1,91 @@
+package org.matsim.contrib.josm.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.preferences.JosmBaseDirectories;
+import org.openstreetmap.josm.data.preferences.JosmUrls;
+import org.openstreetmap.josm.data.projection.ProjectionRegistry;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.io.IllegalDataException;
+import org.openstreetmap.josm.io.OsmReader;
+import org.openstreetmap.josm.spi.preferences.Config;
+
+/**
+ * Sets up JOSM like the unit tests do and provides the data the benchmarks run
+ * on: either one of the OSM files of the tests, or a synthetic street grid.
+ */
+final class BenchmarkFixture {
+
+	private BenchmarkFixture() {
+	}
+
+	/**
+	 * Same setup as <code>new JOSMTestRules().preferences().projection()</code>.
+	 */
+	static void init() {
+		Config.setPreferencesInstance(Preferences.main());
+		Config.setBaseDirectoriesProvider(JosmBaseDirectories.getInstance());
+		Config.setUrlsProvider(JosmUrls.getInstance());
+		Preferences.main().resetToInitialState();
+		Preferences.main().enableSaveOnPut(false);
+		ProjectionRegistry.setProjection(Projections.getProjectionByCode("EPSG:3857"));
+		// measure the conversion, not the notification timer
+		Config.getPref().putInt("matsim_notificationDelay", 0);
+	}
+
+	/**
+	 * @param fixture
+	 *            either <code>grid_&lt;size&gt;</code> or the name of an OSM
+	 *            file in <code>test-input/OSMData</code>, without extension
+	 */
+	static DataSet load(String fixture) {
+		if (fixture.startsWith("grid_")) {
+			return grid(Integer.parseInt(fixture.substring("grid_".length())));
+		}
+		try (InputStream stream = BenchmarkFixture.class.getResourceAsStream("/test-input/OSMData/" + fixture + ".osm")) {
+			return OsmReader.parseDataSet(stream, null);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (IllegalDataException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * A grid of size x size nodes, about 100 m apart, connected by one way per
+	 * row and column. Every tenth way is a primary road, the others are
+	 * residential.
+	 */
+	static DataSet grid(int size) {
+		DataSet data = new DataSet();
+		Node[][] nodes = new Node[size][size];
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < size; j++) {
+				nodes[i][j] = new Node(new LatLon(52.5 + i * 0.001, 13.4 + j * 0.0015));
+				data.addPrimitive(nodes[i][j]);
+			}
+		}
+		for (int i = 0; i < size; i++) {
+			Way row = new Way();
+			Way column = new Way();
+			for (int j = 0; j < size; j++) {
+				row.addNode(nodes[i][j]);
+				column.addNode(nodes[j][i]);
+			}
+			String highway = i % 10 == 0 ? "primary" : "residential";
+			row.put("highway", highway);
+			column.put("highway", highway);
+			data.addPrimitive(row);
+			data.addPrimitive(column);
+		}
+		return data;
+	}
+
+}
@@ -0,0 +1,63 @@
+package org.matsim.contrib.josm.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.contrib.josm.model.NetworkModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openstreetmap.josm.data.osm.DataSet;
+
+/**
+ * Conversion of a complete data set, as done when a layer is converted or a
+ * preference affecting all ways changes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ConversionBenchmark {
+
+	@Param({ "grid_30", "grid_100", "grid_300", "unter_den_linden" })
+	public String fixture;
+
+	private NetworkModel networkModel;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		BenchmarkFixture.init();
+		DataSet data = BenchmarkFixture.load(fixture);
+		// Converting again replaces everything, so one model serves all invocations.
+		networkModel = NetworkModel.createNetworkModel(data);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		networkModel.release();
+	}
+
+	@Benchmark
+	public NetworkModel visitAll() {
+		networkModel.visitAll();
+		return networkModel;
+	}
+
+	@Benchmark
+	public NetworkModel visitAllParallel() {
+		networkModel.visitAllParallel();
+		return networkModel;
+	}
+
+}
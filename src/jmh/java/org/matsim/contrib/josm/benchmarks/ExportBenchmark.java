@@ -0,0 +1,55 @@
+package org.matsim.contrib.josm.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.contrib.josm.model.Export;
+import org.matsim.contrib.josm.model.NetworkModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Creation of a MATSim scenario from a converted network model.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ExportBenchmark {
+
+	@Param({ "grid_30", "grid_100", "grid_300", "unter_den_linden" })
+	public String fixture;
+
+	private NetworkModel networkModel;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		BenchmarkFixture.init();
+		networkModel = NetworkModel.createNetworkModel(BenchmarkFixture.load(fixture));
+		networkModel.visitAll();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		networkModel.release();
+	}
+
+	@Benchmark
+	public Scenario toScenario() {
+		return Export.toScenario(networkModel);
+	}
+
+}
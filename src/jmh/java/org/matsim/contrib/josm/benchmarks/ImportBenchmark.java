@@ -0,0 +1,66 @@
+package org.matsim.contrib.josm.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.contrib.josm.model.Importer;
+import org.matsim.contrib.josm.model.MATSimLayer;
+import org.matsim.contrib.josm.model.NetworkModel;
+import org.matsim.contrib.josm.model.StreamingNetworkWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Import of a MATSim network file into a new layer. The files are written from
+ * the converted fixtures before the benchmark starts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ImportBenchmark {
+
+	@Param({ "grid_30", "grid_100", "grid_300", "unter_den_linden" })
+	public String fixture;
+
+	private File network;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		BenchmarkFixture.init();
+		NetworkModel networkModel = NetworkModel.createNetworkModel(BenchmarkFixture.load(fixture));
+		networkModel.visitAll();
+		network = File.createTempFile(fixture, ".xml.gz");
+		new StreamingNetworkWriter(networkModel).write(network, "v2");
+		networkModel.release();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		network.delete();
+	}
+
+	@Benchmark
+	public void createMatsimLayer(Blackhole blackhole) {
+		MATSimLayer layer = new Importer(network, null).createMatsimLayer();
+		blackhole.consume(layer);
+		// otherwise every imported model would stay registered as listener
+		layer.getNetworkModel().release();
+	}
+
+}
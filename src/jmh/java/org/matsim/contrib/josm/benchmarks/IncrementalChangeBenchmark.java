@@ -0,0 +1,77 @@
+package org.matsim.contrib.josm.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.contrib.josm.model.NetworkModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+
+/**
+ * Handling of single edits by the listener of the network model: changing a
+ * tag of a way and moving a node.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class IncrementalChangeBenchmark {
+
+	@Param({ "grid_30", "grid_100", "grid_300", "unter_den_linden" })
+	public String fixture;
+
+	private NetworkModel networkModel;
+	private List<Way> ways;
+	private List<Node> nodes;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		BenchmarkFixture.init();
+		DataSet data = BenchmarkFixture.load(fixture);
+		networkModel = NetworkModel.createNetworkModel(data);
+		networkModel.visitAll();
+		ways = new ArrayList<>(networkModel.getWay2Links().keySet());
+		nodes = new ArrayList<>(networkModel.nodes().keySet());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		networkModel.release();
+	}
+
+	@Benchmark
+	public NetworkModel tagsChanged() {
+		Way way = ways.get(next++ % ways.size());
+		way.put("maxspeed", way.hasTag("maxspeed", "30") ? "50" : "30");
+		return networkModel;
+	}
+
+	@Benchmark
+	public NetworkModel nodeMoved() {
+		Node node = nodes.get(next++ % nodes.size());
+		// moves back and forth by about a meter
+		double offset = (next / nodes.size()) % 2 == 0 ? 0.00001 : -0.00001;
+		node.setCoor(new LatLon(node.lat() + offset, node.lon()));
+		return networkModel;
+	}
+
+}
@@ -0,0 +1,68 @@
+package org.matsim.contrib.josm.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.contrib.josm.actions.NetworkTest;
+import org.matsim.contrib.josm.model.LayerConverter;
+import org.matsim.contrib.josm.model.MATSimLayer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openstreetmap.josm.data.validation.TestError;
+import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+
+/**
+ * Validation of a converted MATSim layer by {@link NetworkTest}, as done
+ * before every network export.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ValidationBenchmark {
+
+	@Param({ "grid_30", "grid_100", "grid_300", "unter_den_linden" })
+	public String fixture;
+
+	private MATSimLayer layer;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		BenchmarkFixture.init();
+		layer = LayerConverter.convertWithFullTransit(new OsmDataLayer(BenchmarkFixture.load(fixture), fixture, null));
+		// the test validates the network model of the active layer
+		MainApplication.getLayerManager().addLayer(layer);
+		MainApplication.getLayerManager().setActiveLayer(layer);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		MainApplication.getLayerManager().removeLayer(layer);
+		layer.getNetworkModel().release();
+	}
+
+	@Benchmark
+	public List<TestError> networkTest() {
+		NetworkTest test = new NetworkTest();
+		test.startTest(NullProgressMonitor.INSTANCE);
+		test.visit(layer.data.allPrimitives());
+		test.endTest();
+		return test.getErrors();
+	}
+
+}
@@ -0,0 +1,359 @@
+package org.matsim.contrib.josm;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.index.quadtree.Quadtree;
+import org.matsim.contrib.josm.model.MLink;
+import org.matsim.contrib.josm.model.NetworkChange;
+import org.openstreetmap.josm.data.ProjectionBounds;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.gui.NavigatableComponent;
+
+import javax.swing.SwingUtilities;
+import java.awt.*;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Pre-rendered tiles of the links which the {@link MapRenderer} draws at a
+ * reduced level of detail, so that panning only copies images. Tiles are
+ * keyed by zoom level and tile index, rendered on background threads, and
+ * dropped when links within their bounds change or when they are the least
+ * recently used ones beyond the memory budget.
+ *
+ * Used on the EDT, except for the rendering of the tiles, which reads the
+ * geometries collected here rather than the data set.
+ */
+class LinkTileCache {
+
+    static final int TILE_SIZE = 256;
+    private static final long TILE_BYTES = TILE_SIZE * TILE_SIZE * 4;
+    // ways spanning more tiles are drawn directly
+    private static final int MAX_COVERING_TILES = 64;
+
+    private final Map<TileKey, BufferedImage> tiles = new LinkedHashMap<>(16, 0.75f, true);
+    // tiles being rendered, with a token which is dropped when the tile becomes outdated
+    private final Map<TileKey, Object> pending = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), runnable -> {
+        Thread thread = new Thread(runnable, "MATSim tile renderer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    // the geometries of the link ways, read by the renderers
+    private final Object lock = new Object();
+    private Quadtree index = new Quadtree();
+    private final Map<Way, LinkGeometry> geometries = new HashMap<>();
+    private Map<Way, List<MLink>> way2Links;
+    private boolean indexed = false;
+    private DataSet dataSet;
+
+    /**
+     * Drops all tiles. The geometries are collected again from the given
+     * links when tiles are needed next.
+     */
+    void reset(Map<Way, List<MLink>> way2Links) {
+        this.way2Links = way2Links;
+        tiles.clear();
+        pending.clear();
+        synchronized (lock) {
+            geometries.clear();
+            index = new Quadtree();
+        }
+        indexed = false;
+        dataSet = null;
+    }
+
+    /**
+     * Updates the geometries of the ways whose links changed and drops the
+     * tiles within the changed bounds.
+     */
+    void update(Map<Way, List<MLink>> way2Links, NetworkChange change) {
+        if (change.isEverythingChanged()) {
+            reset(way2Links);
+            return;
+        }
+        this.way2Links = way2Links;
+        if (indexed) {
+            Set<Way> ways = new HashSet<>();
+            for (MLink link : change.getRemovedLinks()) {
+                ways.add(link.getWay());
+            }
+            for (MLink link : change.getAddedLinks()) {
+                ways.add(link.getWay());
+            }
+            ways.remove(null);
+            synchronized (lock) {
+                ways.forEach(this::index);
+            }
+        }
+        for (ProjectionBounds bounds : change.getChangedBounds()) {
+            Envelope envelope = new Envelope(bounds.minEast, bounds.maxEast, bounds.minNorth, bounds.maxNorth);
+            tiles.keySet().removeIf(key -> key.getEnvelope().intersects(envelope));
+            pending.keySet().removeIf(key -> key.getEnvelope().intersects(envelope));
+        }
+    }
+
+    /**
+     * Whether tiles are drawn for the given data set at all.
+     */
+    boolean isFor(DataSet data) {
+        ensureIndexed();
+        return dataSet != null && dataSet == data;
+    }
+
+    /**
+     * Requests the tiles of the viewport which are not rendered yet, and stops
+     * rendering those which left it.
+     */
+    void prepare(NavigatableComponent nc, int maxHierarchy) {
+        ensureIndexed();
+        int zoom = zoom(nc);
+        Set<TileKey> visible = new HashSet<>(getTiles(envelope(nc.getProjectionBounds()), zoom, maxHierarchy));
+        pending.keySet().retainAll(visible);
+        for (TileKey key : visible) {
+            if (!tiles.containsKey(key) && !pending.containsKey(key)) {
+                Object token = new Object();
+                pending.put(key, token);
+                executor.execute(() -> {
+                    if (pending.get(key) != token) {
+                        return;
+                    }
+                    BufferedImage image = render(key);
+                    SwingUtilities.invokeLater(() -> {
+                        if (pending.remove(key, token)) {
+                            put(key, image);
+                            if (MainApplication.getMap() != null) {
+                                MainApplication.getMap().repaint();
+                            }
+                        }
+                    });
+                });
+            }
+        }
+    }
+
+    /**
+     * Whether everything within the bounds is drawn by rendered tiles.
+     */
+    boolean isCovered(Envelope bounds, NavigatableComponent nc, int maxHierarchy) {
+        List<TileKey> keys = getTiles(bounds, zoom(nc), maxHierarchy);
+        if (keys.size() > MAX_COVERING_TILES) {
+            return false;
+        }
+        for (TileKey key : keys) {
+            if (!tiles.containsKey(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Draws the rendered tiles of the viewport.
+     */
+    void paint(Graphics2D g, NavigatableComponent nc, int maxHierarchy) {
+        Object interpolation = g.getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        for (TileKey key : getTiles(envelope(nc.getProjectionBounds()), zoom(nc), maxHierarchy)) {
+            BufferedImage image = tiles.get(key);
+            if (image != null) {
+                Envelope envelope = key.getEnvelope();
+                Point2D topLeft = nc.getPoint2D(new EastNorth(envelope.getMinX(), envelope.getMaxY()));
+                Point2D bottomRight = nc.getPoint2D(new EastNorth(envelope.getMaxX(), envelope.getMinY()));
+                int x = (int) Math.round(topLeft.getX());
+                int y = (int) Math.round(topLeft.getY());
+                g.drawImage(image, x, y, (int) Math.round(bottomRight.getX()) - x, (int) Math.round(bottomRight.getY()) - y, null);
+            }
+        }
+        if (interpolation != null) {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+        }
+    }
+
+    private void put(TileKey key, BufferedImage image) {
+        tiles.put(key, image);
+        long budget = MapRenderer.Properties.TILE_CACHE_SIZE.get() * 1024L * 1024L;
+        Iterator<TileKey> leastRecentlyUsed = tiles.keySet().iterator();
+        while (tiles.size() * TILE_BYTES > budget && leastRecentlyUsed.hasNext()) {
+            leastRecentlyUsed.next();
+            leastRecentlyUsed.remove();
+        }
+    }
+
+    private void ensureIndexed() {
+        if (!indexed && way2Links != null) {
+            synchronized (lock) {
+                way2Links.keySet().forEach(this::index);
+            }
+            indexed = true;
+        }
+    }
+
+    // Must hold the lock.
+    private void index(Way way) {
+        LinkGeometry old = geometries.remove(way);
+        if (old != null) {
+            index.remove(old.envelope, old);
+        }
+        List<MLink> links = way2Links.get(way);
+        if (links != null && !links.isEmpty() && !way.isDeleted()) {
+            LinkGeometry geometry = new LinkGeometry(way, links);
+            if (!geometry.envelope.isNull()) {
+                geometries.put(way, geometry);
+                index.insert(geometry.envelope, geometry);
+            }
+            if (dataSet == null) {
+                dataSet = way.getDataSet();
+            }
+        }
+    }
+
+    private BufferedImage render(TileKey key) {
+        double unit = key.getUnit();
+        Envelope envelope = key.getEnvelope();
+        // lines may reach into the tile from outside of it
+        Envelope query = new Envelope(envelope);
+        query.expandBy(MapRenderer.SIMPLIFIED_STROKE.getLineWidth() * unit);
+        List<LinkGeometry> candidates = new ArrayList<>();
+        synchronized (lock) {
+            for (Object item : index.query(query)) {
+                LinkGeometry geometry = (LinkGeometry) item;
+                if (geometry.hierarchy <= key.maxHierarchy && geometry.envelope.intersects(query)) {
+                    candidates.add(geometry);
+                }
+            }
+        }
+        BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setColor(MapRenderer.Properties.MATSIMCOLOR);
+        g.setStroke(MapRenderer.SIMPLIFIED_STROKE);
+        for (LinkGeometry geometry : candidates) {
+            Path2D.Double path = new Path2D.Double();
+            List<EastNorth> points = MapRenderer.simplify(geometry.points, unit);
+            for (int i = 0; i < points.size(); i++) {
+                double x = (points.get(i).getX() - envelope.getMinX()) / unit;
+                double y = (envelope.getMaxY() - points.get(i).getY()) / unit;
+                if (i == 0) {
+                    path.moveTo(x, y);
+                } else {
+                    path.lineTo(x, y);
+                }
+            }
+            g.draw(path);
+        }
+        g.dispose();
+        return image;
+    }
+
+    // Tiles have a power of two of projected units per pixel, not more than
+    // the view, so that they are only ever scaled down.
+    private static int zoom(NavigatableComponent nc) {
+        return (int) Math.floor(Math.log(nc.getScale()) / Math.log(2));
+    }
+
+    private static List<TileKey> getTiles(Envelope bounds, int zoom, int maxHierarchy) {
+        List<TileKey> keys = new ArrayList<>();
+        double size = TILE_SIZE * Math.pow(2, zoom);
+        long minX = (long) Math.floor(bounds.getMinX() / size);
+        long maxX = (long) Math.floor(bounds.getMaxX() / size);
+        long minY = (long) Math.floor(bounds.getMinY() / size);
+        long maxY = (long) Math.floor(bounds.getMaxY() / size);
+        if ((maxX - minX + 1) * (maxY - minY + 1) > MAX_COVERING_TILES * MAX_COVERING_TILES) {
+            return keys;
+        }
+        for (long x = minX; x <= maxX; x++) {
+            for (long y = minY; y <= maxY; y++) {
+                keys.add(new TileKey(zoom, x, y, maxHierarchy));
+            }
+        }
+        return keys;
+    }
+
+    private static Envelope envelope(ProjectionBounds bounds) {
+        return new Envelope(bounds.minEast, bounds.maxEast, bounds.minNorth, bounds.maxNorth);
+    }
+
+    /**
+     * The projected geometry of a link way, taken on the EDT.
+     */
+    private static class LinkGeometry {
+
+        final List<EastNorth> points = new ArrayList<>();
+        final Envelope envelope = new Envelope();
+        final int hierarchy;
+
+        LinkGeometry(Way way, List<MLink> links) {
+            for (Node node : way.getNodes()) {
+                if (node.isLatLonKnown()) {
+                    EastNorth point = node.getEastNorth();
+                    points.add(point);
+                    envelope.expandToInclude(point.getX(), point.getY());
+                }
+            }
+            hierarchy = MapRenderer.hierarchy(way, links);
+        }
+    }
+
+    private static class TileKey {
+
+        final int zoom;
+        final long x;
+        final long y;
+        // tiles of the same zoom level show fewer road classes farther out
+        final int maxHierarchy;
+
+        TileKey(int zoom, long x, long y, int maxHierarchy) {
+            this.zoom = zoom;
+            this.x = x;
+            this.y = y;
+            this.maxHierarchy = maxHierarchy;
+        }
+
+        // projected units per pixel
+        double getUnit() {
+            return Math.pow(2, zoom);
+        }
+
+        Envelope getEnvelope() {
+            double size = TILE_SIZE * getUnit();
+            return new Envelope(x * size, (x + 1) * size, y * size, (y + 1) * size);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TileKey)) {
+                return false;
+            }
+            TileKey other = (TileKey) o;
+            return zoom == other.zoom && x == other.x && y == other.y && maxHierarchy == other.maxHierarchy;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(zoom, x, y, maxHierarchy);
+        }
+    }
+
+}
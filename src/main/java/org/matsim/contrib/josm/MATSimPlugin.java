@@ -57,6 +57,9 @@ public class MATSimPlugin extends Plugin implements PreferenceChangedListener {
 
 		// add xml exporter for matsim data
 		ExtensionFileFilter.addExporterFirst(new NetworkExporter());
+		// and importers for saved MATSim layers and filtered PBF extracts
+		ExtensionFileFilter.addImporter(new LayerSnapshotImporter());
+		ExtensionFileFilter.addImporter(new PbfImporter());
 
 		MainMenu menu = MainApplication.getMenu();
 
@@ -69,6 +72,7 @@ public class MATSimPlugin extends Plugin implements PreferenceChangedListener {
 		JMenu jMenu2 = menu.addMenu(tr("MATSim"), tr("MATSim"), KeyEvent.VK_DIVIDE, menu.getDefaultMenuPos(), "MATSim Tools");
 		jMenu2.add(new ImportAction());
 		jMenu2.add(new NewNetworkAction());
+		jMenu2.add(new SaveSnapshotAction());
 		jMenu2.add(new ConvertAction());
         jMenu2.add(new ShapeExporter());
         jMenu2.add(new JSeparator());
@@ -1,15 +1,19 @@
 package org.matsim.contrib.josm;
 
+import org.locationtech.jts.geom.Envelope;
 import org.matsim.api.core.v01.TransportMode;
 import org.matsim.contrib.josm.model.MATSimLayer;
 import org.matsim.contrib.josm.model.MLink;
-import org.matsim.contrib.josm.model.OsmConvertDefaults;
+import org.matsim.contrib.josm.model.NetworkChange;
+import org.matsim.contrib.josm.model.WayProfile;
 import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.EastNorth;
 import org.openstreetmap.josm.data.osm.*;
 import org.openstreetmap.josm.data.osm.visitor.paint.MapRendererFactory;
 import org.openstreetmap.josm.data.osm.visitor.paint.StyledMapRenderer;
 import org.openstreetmap.josm.data.preferences.BooleanProperty;
 import org.openstreetmap.josm.data.preferences.DoubleProperty;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
 import org.openstreetmap.josm.gui.MainApplication;
 import org.openstreetmap.josm.gui.NavigatableComponent;
 import org.openstreetmap.josm.gui.mappaint.styleelement.LabelCompositionStrategy;
@@ -19,25 +23,45 @@ import org.openstreetmap.josm.tools.ImageProvider;
 import org.openstreetmap.josm.tools.RotationAngle;
 
 import java.awt.*;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
 import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static org.matsim.contrib.josm.MapRenderer.Properties.FONT;
 
 /**
  * The MATSim MapRenderer. Draws ways that correspond to existing MATSim link(s)
  * in a MATSim-blue color. Also offers offset for overlapping links as well as
- * the option to show MATSim ids on ways
+ * the option to show MATSim ids on ways. Zoomed out beyond
+ * {@link Properties#LOD_SCALE}, links are drawn as simplified lines without
+ * ids, and fewer road classes are drawn each time the scale doubles. These
+ * lines come from pre-rendered tiles, see {@link LinkTileCache}.
  *
  * @author Nico
  */
 public class MapRenderer extends StyledMapRenderer {
 
     public final static Properties PROPERTIES = new Properties();
+    private static final BasicStroke TRAIN_DASHES = new BasicStroke(2, 0, 1, 10.f, new float[]{9.f}, 9.f);
+    static final BasicStroke SIMPLIFIED_STROKE = new BasicStroke(2, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+    private static final LinkTileCache tileCache = new LinkTileCache();
     private final BufferedImage image;
+    // the ways drawn by this renderer, i.e. those in the viewport
+    private final Set<Way> drawn = new HashSet<>();
+    // level of detail of the current render pass
+    private boolean detailed = true;
+    private int maxHierarchy = Integer.MAX_VALUE;
+    private double tolerance;
+    private boolean tiled = false;
 
     /**
      * Creates a new MapRenderer. Initialized by
@@ -61,20 +85,74 @@ public class MapRenderer extends StyledMapRenderer {
      */
     private static Map<Way, List<MLink>> way2Links = new HashMap<>();
 
+    /**
+     * Caches what drawing a way needs to know about its links. Computed when
+     * a way is first drawn after the links have changed, and only kept for
+     * the ways in the viewport. Only used on the EDT.
+     */
+    private static Map<Way, RenderInfo> renderInfos = new HashMap<>();
+
     public static void setWay2Links(Map<Way, List<MLink>> way2LinksTmp) {
         way2Links = way2LinksTmp;
         MainApplication.getMap().repaint();
     }
 
+    /**
+     * Forgets what was cached about the ways whose links changed, or about all
+     * ways if the change is not known, e.g. because another layer became
+     * active. Has to be called before the new links are set.
+     */
+    public static void networkChanged(Map<Way, List<MLink>> way2LinksTmp, NetworkChange change) {
+        if (change == null || change.isEverythingChanged()) {
+            renderInfos = new HashMap<>();
+            tileCache.reset(way2LinksTmp);
+        } else {
+            for (MLink link : change.getRemovedLinks()) {
+                renderInfos.remove(link.getWay());
+            }
+            for (MLink link : change.getAddedLinks()) {
+                renderInfos.remove(link.getWay());
+            }
+            tileCache.update(way2LinksTmp, change);
+        }
+    }
+
 
     @Override
     public void render(OsmData<?, ?, ?, ?> data, boolean renderVirtualNodes, Bounds bounds) {
+        drawn.clear();
+        updateLevelOfDetail();
+        tiled = !detailed && Properties.TILE_CACHE_SIZE.get() > 0 && data instanceof DataSet && tileCache.isFor((DataSet) data);
+        if (tiled) {
+            tileCache.prepare(nc, maxHierarchy);
+        }
         super.render(data, renderVirtualNodes, bounds);
+        if (tiled) {
+            tileCache.paint(g, nc, maxHierarchy);
+        }
+        // forget the ways of this data set which have left the viewport
+        renderInfos.keySet().removeIf(way -> way.getDataSet() == data && !drawn.contains(way));
         if(MainApplication.getLayerManager().getEditLayer() instanceof MATSimLayer) {
             this.g.drawImage(image, (int) (this.mapState.getViewWidth() - 160), 10, null);
         }
     }
 
+    private void updateLevelOfDetail() {
+        double scale = Properties.LOD_SCALE.get();
+        double dist100Pixel = nc.getDist100Pixel();
+        detailed = !Properties.LOD.get() || !(scale > 0) || dist100Pixel <= scale;
+        if (detailed) {
+            maxHierarchy = Integer.MAX_VALUE;
+        } else {
+            // one road class less per doubling of the scale, but always the highest one
+            int doublings = (int) (Math.log(dist100Pixel / scale) / Math.log(2));
+            maxHierarchy = Math.max(1, LOWEST_HIERARCHY - doublings);
+            // a power of two, so the simplified geometries can be reused
+            // while zooming within a factor of two
+            tolerance = Math.pow(2, Math.ceil(Math.log(nc.getScale()) / Math.log(2)));
+        }
+    }
+
     /**
      * Draws a <code>way</code>. Ways that are mapped in <code>way2Links</code>
      * and represent MATSim links are drawn in a blue color. If "show Ids" is
@@ -92,34 +170,32 @@ public class MapRenderer extends StyledMapRenderer {
     public void drawWay(IWay<?> way, Color color, BasicStroke line, BasicStroke dashes, Color dashedColor, float offset, boolean showOrientation,
                         boolean showHeadArrowOnly, boolean showOneway, boolean onewayReversed) {
 
-        if (way2Links != null && way2Links.containsKey(way) && !way2Links.get(way).isEmpty()) {
-            if (!way.isSelected()) {
+        RenderInfo info = way instanceof Way ? getRenderInfo((Way) way) : RenderInfo.NONE;
+        if (info != RenderInfo.NONE) {
+            if (!detailed && !way.isSelected()) {
+                // ways whose tiles are not rendered yet are drawn directly
+                if (info.hierarchy <= maxHierarchy && !(tiled && tileCache.isCovered(info.bounds, nc, maxHierarchy))) {
+                    drawSimplified(info);
+                }
+                return;
+            } else if (!way.isSelected()) {
                 if (Properties.SHOW_IDS.get()) { // draw id on path
-                    TextLabel label = new MATSimTextLabel(PROPERTIES, FONT, Properties.MATSIMCOLOR, 0.f, new Color(0, 145, 190));
-                    drawText(way, label, new OnLineStrategy(textOffset(way)));
+                    drawText(way, info.getLabel(), info.getPlacement());
                 }
-                if (way.hasTag("modes", TransportMode.pt)) { // draw
-                    // dashed
-                    // lines
-                    // for
-                    // pt
-                    // links
-                    float[] dashPhase = {9.f};
-                    BasicStroke trainDashes = new BasicStroke(2, 0, 1, 10.f, dashPhase, 9.f);
-                    super.drawWay(way, Properties.MATSIMCOLOR, line, trainDashes, Color.white, Properties.WAY_OFFSET.get().floatValue() * -1, showOrientation,
-                            showHeadArrowOnly, !way.hasTag("highway", OsmConvertDefaults.getWayDefaults().keySet()), onewayReversed);
+                if (info.pt) { // draw dashed lines for pt links
+                    super.drawWay(way, Properties.MATSIMCOLOR, line, TRAIN_DASHES, Color.white, Properties.WAY_OFFSET.get().floatValue() * -1, showOrientation,
+                            showHeadArrowOnly, info.showDirection, onewayReversed);
                 } else { // draw simple blue lines for other links, if
                     // way is not converted by highway tag, draw
                     // direction arrow for directed edge
                     super.drawWay(way, Properties.MATSIMCOLOR, line, dashes, dashedColor, Properties.WAY_OFFSET.get().floatValue() * -1, showOrientation,
-                            showHeadArrowOnly, !way.hasTag("highway", OsmConvertDefaults.getWayDefaults().keySet()), onewayReversed);
+                            showHeadArrowOnly, info.showDirection, onewayReversed);
                 }
                 return;
             } else {
-                if (Properties.SHOW_IDS.get()) { // draw ids on selected ways
+                if (Properties.SHOW_IDS.get() && detailed) { // draw ids on selected ways
                     // also
-                    TextLabel label = new MATSimTextLabel(PROPERTIES, FONT, selectedColor, 0.f, selectedColor);
-                    drawText(way, label, new OnLineStrategy(textOffset(way)));
+                    drawText(way, info.getSelectedLabel(selectedColor), info.getPlacement());
                 }
             }
         }
@@ -127,6 +203,33 @@ public class MapRenderer extends StyledMapRenderer {
                 onewayReversed);
     }
 
+    private void drawSimplified(RenderInfo info) {
+        Path2D.Double path = new Path2D.Double();
+        List<EastNorth> points = info.getSimplifiedGeometry(tolerance);
+        for (int i = 0; i < points.size(); i++) {
+            Point2D point = nc.getPoint2D(points.get(i));
+            if (i == 0) {
+                path.moveTo(point.getX(), point.getY());
+            } else {
+                path.lineTo(point.getX(), point.getY());
+            }
+        }
+        g.setColor(Properties.MATSIMCOLOR);
+        g.setStroke(SIMPLIFIED_STROKE);
+        g.draw(path);
+    }
+
+    private RenderInfo getRenderInfo(Way way) {
+        drawn.add(way);
+        RenderInfo info = renderInfos.get(way);
+        if (info == null) {
+            List<MLink> links = way2Links != null ? way2Links.get(way) : null;
+            info = links == null || links.isEmpty() ? RenderInfo.NONE : new RenderInfo(way, links);
+            renderInfos.put(way, info);
+        }
+        return info;
+    }
+
     /**
      * Returns the text <code>offset</code> for the given <code>way</code>.
      * <strong>Positive</strong>, if the <code>id</code> of the <code>way</code>
@@ -136,7 +239,7 @@ public class MapRenderer extends StyledMapRenderer {
      * @param way The way which offset is to be calculated
      * @return The text offset for the given <code>way</code>
      */
-    private int textOffset(IWay<?> way) {
+    private static int textOffset(IWay<?> way) {
         int offset = -15;
 
         if (way.firstNode().getUniqueId() < way.lastNode().getUniqueId()) {
@@ -157,6 +260,11 @@ public class MapRenderer extends StyledMapRenderer {
         final static Color MATSIMCOLOR = new Color(80, 145, 190);
         final static BooleanProperty SHOW_IDS = new BooleanProperty("matsim_showIds", false);
         final static DoubleProperty WAY_OFFSET = new DoubleProperty("matsim_wayOffset", 0);
+        final static BooleanProperty LOD = new BooleanProperty("matsim_levelOfDetail", true);
+        // meters per 100 pixels beyond which the level of detail is reduced
+        final static DoubleProperty LOD_SCALE = new DoubleProperty("matsim_levelOfDetailScale", 1000);
+        // megabytes of tiles of simplified links, none are rendered if 0
+        final static IntegerProperty TILE_CACHE_SIZE = new IntegerProperty("matsim_tileCacheSize", 64);
 
         /**
          * Composes the MATSim Id text for the OsmPrimitive <code>prim</code>.
@@ -173,16 +281,183 @@ public class MapRenderer extends StyledMapRenderer {
          */
         @Override
         public String compose(IPrimitive prim) {
+            List<MLink> links = way2Links.get(prim);
+            return links != null ? compose(links) : "";
+        }
+
+        static String compose(List<MLink> links) {
             StringBuilder sB = new StringBuilder();
-            if (way2Links.containsKey(prim)) {
-                for (MLink link : way2Links.get(prim)) {
-                    sB.append(" [").append(link.getOrigId()).append("] ");
-                }
+            for (MLink link : links) {
+                sB.append(" [").append(link.getOrigId()).append("] ");
             }
             return sB.toString();
         }
     }
 
+    /**
+     * How to draw a way which represents links. The labels are only created
+     * once ids are shown.
+     */
+    private static class RenderInfo {
+
+        // for ways which represent no links
+        static final RenderInfo NONE = new RenderInfo();
+
+        final boolean pt;
+        final boolean showDirection;
+        final String ids;
+        final int textOffset;
+        final int hierarchy;
+        final Envelope bounds;
+        private final List<EastNorth> geometry;
+        private List<EastNorth> simplifiedGeometry;
+        private double simplifiedTolerance;
+        private OnLineStrategy placement;
+        private TextLabel label;
+        private TextLabel selectedLabel;
+
+        private RenderInfo() {
+            pt = false;
+            showDirection = false;
+            ids = null;
+            textOffset = 0;
+            hierarchy = LOWEST_HIERARCHY;
+            bounds = null;
+            geometry = null;
+        }
+
+        RenderInfo(Way way, List<MLink> links) {
+            pt = way.hasTag("modes", TransportMode.pt);
+            // ways converted by their highway tag get no direction arrows
+            showDirection = !WayProfile.of(way).hasDefaults();
+            ids = Properties.compose(links);
+            textOffset = textOffset(way);
+            hierarchy = hierarchy(way, links);
+            bounds = new Envelope();
+            geometry = new ArrayList<>(way.getNodesCount());
+            for (Node node : way.getNodes()) {
+                if (node.isLatLonKnown()) {
+                    geometry.add(node.getEastNorth());
+                    bounds.expandToInclude(node.getEastNorth().getX(), node.getEastNorth().getY());
+                }
+            }
+        }
+
+        List<EastNorth> getSimplifiedGeometry(double tolerance) {
+            if (simplifiedGeometry == null || simplifiedTolerance != tolerance) {
+                simplifiedGeometry = simplify(geometry, tolerance);
+                simplifiedTolerance = tolerance;
+            }
+            return simplifiedGeometry;
+        }
+
+        OnLineStrategy getPlacement() {
+            if (placement == null) {
+                placement = new OnLineStrategy(textOffset);
+            }
+            return placement;
+        }
+
+        TextLabel getLabel() {
+            if (label == null) {
+                label = new MATSimTextLabel(prim -> ids, FONT, Properties.MATSIMCOLOR, 0.f, new Color(0, 145, 190));
+            }
+            return label;
+        }
+
+        TextLabel getSelectedLabel(Color selectedColor) {
+            if (selectedLabel == null) {
+                selectedLabel = new MATSimTextLabel(prim -> ids, FONT, selectedColor, 0.f, selectedColor);
+            }
+            return selectedLabel;
+        }
+    }
+
+    // the road class of the lowest hierarchy of the conversion defaults
+    private static final int LOWEST_HIERARCHY = 6;
+
+    /**
+     * The road class of a way: the hierarchy of its conversion defaults, or
+     * for ways without defaults, by the highest capacity of their links.
+     */
+    static int hierarchy(Way way, List<MLink> links) {
+        WayProfile profile = WayProfile.of(way);
+        if (profile.hasDefaults()) {
+            return profile.getDefaults().hierarchy;
+        }
+        double capacity = 0;
+        for (MLink link : links) {
+            Double linkCapacity = link.getCapacity();
+            if (linkCapacity != null) {
+                capacity = Math.max(capacity, linkCapacity);
+            }
+        }
+        if (capacity >= 4000) {
+            return 1;
+        } else if (capacity >= 2000) {
+            return 2;
+        } else if (capacity >= 1500) {
+            return 3;
+        } else if (capacity >= 1000) {
+            return 4;
+        } else if (capacity > 600) {
+            return 5;
+        }
+        return LOWEST_HIERARCHY;
+    }
+
+    /**
+     * Simplifies a polyline with the Douglas-Peucker algorithm, keeping the
+     * points which are farther than <code>tolerance</code> from the
+     * simplified line.
+     */
+    static List<EastNorth> simplify(List<EastNorth> points, double tolerance) {
+        if (points.size() <= 2) {
+            return points;
+        }
+        boolean[] keep = new boolean[points.size()];
+        keep[0] = true;
+        keep[points.size() - 1] = true;
+        Deque<int[]> ranges = new ArrayDeque<>();
+        ranges.push(new int[]{0, points.size() - 1});
+        while (!ranges.isEmpty()) {
+            int[] range = ranges.pop();
+            EastNorth a = points.get(range[0]);
+            EastNorth b = points.get(range[1]);
+            double maxDistance = -1;
+            int farthest = -1;
+            for (int i = range[0] + 1; i < range[1]; i++) {
+                double distance = distance(points.get(i), a, b);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    farthest = i;
+                }
+            }
+            if (farthest != -1 && maxDistance > tolerance) {
+                keep[farthest] = true;
+                ranges.push(new int[]{range[0], farthest});
+                ranges.push(new int[]{farthest, range[1]});
+            }
+        }
+        List<EastNorth> simplified = new ArrayList<>();
+        for (int i = 0; i < points.size(); i++) {
+            if (keep[i]) {
+                simplified.add(points.get(i));
+            }
+        }
+        return simplified;
+    }
+
+    // distance of a point to the line segment between a and b
+    private static double distance(EastNorth point, EastNorth a, EastNorth b) {
+        double dx = b.getX() - a.getX();
+        double dy = b.getY() - a.getY();
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : ((point.getX() - a.getX()) * dx + (point.getY() - a.getY()) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        return Math.hypot(point.getX() - (a.getX() + t * dx), point.getY() - (a.getY() + t * dy));
+    }
+
     static class MATSimTextLabel extends TextLabel {
 
         protected MATSimTextLabel(LabelCompositionStrategy labelCompositionStrategy, Font font, Color color, Float aFloat, Color color1) {
@@ -0,0 +1,68 @@
+package org.matsim.contrib.josm.actions;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import org.matsim.contrib.josm.model.MATSimLayer;
+import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.gui.PleaseWaitRunnable;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.gui.util.GuiHelper;
+import org.openstreetmap.josm.io.OsmTransferException;
+
+/**
+ * Downloads into a new {@link MATSimLayer}, whose network is converted tile by
+ * tile as the tiles arrive, while the others are still downloading. The layer
+ * is shown right away and fills in, and its network is usable about as soon as
+ * the download is finished. If the download is cancelled or fails, the layer
+ * is removed again.
+ */
+public class ConvertingDownloadTask extends PleaseWaitRunnable {
+
+	private final TiledOverpassDownloader downloader;
+
+	public ConvertingDownloadTask(TiledOverpassDownloader downloader) {
+		super(tr("Downloading and converting to MATSim network"));
+		this.downloader = downloader;
+	}
+
+	@Override
+	protected void cancel() {
+		downloader.cancel();
+	}
+
+	@Override
+	protected void realRun() throws OsmTransferException {
+		if (downloader.isEmpty()) {
+			return;
+		}
+		MATSimLayer layer = NewNetworkAction.createMatsimLayer();
+		GuiHelper.runInEDTAndWait(() -> {
+			MainApplication.getLayerManager().addLayer(layer);
+			if (MainApplication.getMap() != null) {
+				MainApplication.getMap().mapView.zoomTo(downloader.getArea());
+			}
+		});
+		// merged on the EDT like any other download; the network model of the
+		// layer converts what each tile added
+		boolean complete = false;
+		try {
+			complete = downloader.download(getProgressMonitor().createSubTaskMonitor(ProgressMonitor.ALL_TICKS, false),
+					tile -> GuiHelper.runInEDTAndWait(() -> layer.mergeFrom(tile)));
+		} finally {
+			// a layer missing some of the tiles looks complete, but is not;
+			// the error of a failed download is shown by the caller
+			if (!complete) {
+				GuiHelper.runInEDTAndWait(() -> {
+					if (MainApplication.getLayerManager().containsLayer(layer)) {
+						MainApplication.getLayerManager().removeLayer(layer);
+					}
+				});
+			}
+		}
+	}
+
+	@Override
+	protected void finish() {
+	}
+
+}
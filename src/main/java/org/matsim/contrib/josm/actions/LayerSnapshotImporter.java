@@ -0,0 +1,43 @@
+package org.matsim.contrib.josm.actions;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.matsim.contrib.josm.model.LayerSnapshot;
+import org.matsim.contrib.josm.model.MATSimLayer;
+import org.openstreetmap.josm.actions.ExtensionFileFilter;
+import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.gui.io.importexport.FileImporter;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.gui.util.GuiHelper;
+
+/**
+ * The FileImporter that opens files written by {@link SaveSnapshotAction} as
+ * {@link MATSimLayer}.
+ */
+public final class LayerSnapshotImporter extends FileImporter {
+
+	static final ExtensionFileFilter FILE_FILTER = new ExtensionFileFilter(LayerSnapshot.EXTENSION, LayerSnapshot.EXTENSION,
+			tr("MATSim Snapshot Files") + " (*." + LayerSnapshot.EXTENSION + ")");
+
+	public LayerSnapshotImporter() {
+		super(FILE_FILTER);
+	}
+
+	@Override
+	public void importData(File file, ProgressMonitor progressMonitor) throws IOException {
+		progressMonitor.beginTask(tr("Opening MATSim snapshot"));
+		try {
+			MATSimLayer layer = LayerSnapshot.read(file);
+			GuiHelper.runInEDT(() -> {
+				MainApplication.getLayerManager().addLayer(layer);
+				MainApplication.getLayerManager().setActiveLayer(layer);
+			});
+		} finally {
+			progressMonitor.finishTask();
+		}
+	}
+
+}
@@ -2,10 +2,14 @@ package org.matsim.contrib.josm.actions;
 
 import static org.openstreetmap.josm.tools.I18n.tr;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 
+import org.matsim.contrib.josm.gui.Preferences;
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.io.OsmApiException;
 import org.openstreetmap.josm.io.OsmReader;
 import org.openstreetmap.josm.io.OsmServerReader;
 import org.openstreetmap.josm.io.OsmTransferException;
@@ -14,7 +18,6 @@ import org.openstreetmap.josm.tools.Utils;
 
 public final class MyOverpassDownloader extends OsmServerReader {
 	public static final int TIMEOUT_S = 600;
-	private static final String API = "http://overpass-api.de/api/interpreter?data=";
 
 	private final String query;
 
@@ -28,11 +31,10 @@ public final class MyOverpassDownloader extends OsmServerReader {
 		DataSet ds = null;
 		try {
 			DataSet dsTemp;
-			try (InputStream in = getInputStream(getUrl(), progressMonitor.createSubTaskMonitor(9, false))) {
-				if (in == null)
-					return null;
-				dsTemp = OsmReader.parseDataSet(in, progressMonitor.createSubTaskMonitor(1, false));
-			}
+			byte[] content = getContent(progressMonitor.createSubTaskMonitor(9, false));
+			if (content == null)
+				return null;
+			dsTemp = OsmReader.parseDataSet(new ByteArrayInputStream(content), progressMonitor.createSubTaskMonitor(1, false));
 			dsTemp.mergeFrom(ds);
 			ds = dsTemp;
 		} catch (OsmTransferException e) {
@@ -47,6 +49,35 @@ public final class MyOverpassDownloader extends OsmServerReader {
 		return ds;
 	}
 
+	/**
+	 * Returns the response from the {@link OverpassCache} if it has a recent
+	 * one, otherwise from the server.
+	 */
+	private byte[] getContent(ProgressMonitor progressMonitor) throws OsmTransferException, IOException {
+		OverpassCache cache = OverpassCache.getInstance();
+		byte[] content = cache != null ? cache.get(query, null, false) : null;
+		if (content != null) {
+			return content;
+		}
+		try (InputStream in = getInputStream(getUrl(), progressMonitor)) {
+			if (in == null)
+				return null;
+			content = Utils.readBytesFromStream(in);
+		} catch (OsmApiException e) {
+			throw e;
+		} catch (OsmTransferException | IOException e) {
+			// without a connection, an outdated response is better than none
+			byte[] stale = cache != null ? cache.get(query, null, true) : null;
+			if (stale == null)
+				throw e;
+			return stale;
+		}
+		if (cache != null) {
+			cache.put(query, null, content);
+		}
+		return content;
+	}
+
 	@Override
 	protected void adaptRequest(HttpClient httpClient) {
 		httpClient.setConnectTimeout(TIMEOUT_S * 1000);
@@ -54,7 +85,8 @@ public final class MyOverpassDownloader extends OsmServerReader {
 	}
 
 	private String getUrl() {
-		return API+ Utils.encodeUrl(query);
+		// queries which are not bounded by an area cannot be tiled, so they go to the first endpoint
+		return Preferences.getOverpassEndpoints().get(0) + "?data=" + Utils.encodeUrl(query);
 	}
 
 }
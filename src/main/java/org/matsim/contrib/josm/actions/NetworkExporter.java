@@ -5,10 +5,13 @@ import java.io.IOException;
 
 import javax.swing.JOptionPane;
 
-import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Network;
 import org.matsim.contrib.josm.gui.Preferences;
 import org.matsim.contrib.josm.model.Export;
+import org.matsim.contrib.josm.model.LayerSnapshot;
 import org.matsim.contrib.josm.model.MATSimLayer;
+import org.matsim.contrib.josm.model.NetworkSnapshot;
+import org.matsim.contrib.josm.model.StreamingNetworkWriter;
 import org.matsim.core.network.algorithms.NetworkCleaner;
 import org.matsim.core.network.io.NetworkWriter;
 import org.openstreetmap.josm.actions.ExtensionFileFilter;
@@ -33,10 +36,10 @@ public final class NetworkExporter extends FileExporter {
 
 	/**
 	 * Creates a new {@code MATSimNetworkFileExporter}. <br>
-	 * Extension used is {@code .xml}.
+	 * Extensions used are {@code .xml} and {@code .xml.gz}.
 	 */
 	public NetworkExporter() {
-		super(new ExtensionFileFilter("xml", "xml", "MATSim Network Files (*.xml)"));
+		super(new ExtensionFileFilter("xml,xml.gz", "xml", "MATSim Network Files (*.xml, *.xml.gz)"));
 	}
 
 	/**
@@ -48,11 +51,12 @@ public final class NetworkExporter extends FileExporter {
 	 * @param layer
 	 *            The layer which holds the data
 	 * @return <code>true</code> if the given {@code layer} is a
-	 *         {@link MATSimLayer}. <code>false</code> otherwise
+	 *         {@link MATSimLayer} and the file is no snapshot.
+	 *         <code>false</code> otherwise
 	 */
 	@Override
 	public boolean acceptFile(File pathname, Layer layer) {
-		return layer instanceof MATSimLayer;
+		return layer instanceof MATSimLayer && !LayerSnapshot.isSnapshotFile(pathname);
 	}
 
 	/**
@@ -60,7 +64,10 @@ public final class NetworkExporter extends FileExporter {
 	 * {@code file}. <br>
 	 * <br>
 	 * Before exporting a {@link NetworkTest} is convertWithFullTransit, resulting in a validation
-	 * layer. The export fails if severe errors are found.
+	 * layer. The export fails if severe errors are found. The file is written
+	 * from a snapshot of the network, so the model goes on converting
+	 * meanwhile, but the file is written before this method returns, so that
+	 * the layer is only marked as saved once it is.
 	 *
 	 * @see Export
 	 * @param file
@@ -112,15 +119,30 @@ public final class NetworkExporter extends FileExporter {
 
 		// start export task if not aborted
 		if (okToExport) {
-			Scenario targetScenario = Export.toScenario(((MATSimLayer) layer).getNetworkModel());
-
-			if (Preferences.PROP_CLEAN_NETWORK.get()) {
-				new NetworkCleaner().run(targetScenario.getNetwork());
-			}
-			if(Preferences.getNetworkExportVersion().equals("v1")) {
-				new NetworkWriter(targetScenario.getNetwork()).writeFileV1(file.getPath());
-			} else {
-				new NetworkWriter(targetScenario.getNetwork()).write(file.getPath());
+			// Written from a snapshot of everything edited so far, so the model
+			// is free to convert meanwhile. Saving from the save layers dialog
+			// runs on a worker thread, so editing goes on as well. A failure
+			// has to reach the caller, which marks the layer as saved otherwise.
+			String version = Preferences.getNetworkExportVersion();
+			try (NetworkSnapshot snapshot = ((MATSimLayer) layer).getNetworkModel().takeSnapshot()) {
+				if (Preferences.PROP_CLEAN_NETWORK.get()) {
+					// the network cleaner needs a MATSim network to work on
+					Network network = Export.toNetwork(snapshot);
+					new NetworkCleaner().run(network);
+					if (version.equals("v1")) {
+						new NetworkWriter(network).writeFileV1(file.getPath());
+					} else {
+						new NetworkWriter(network).write(file.getPath());
+					}
+				} else {
+					new StreamingNetworkWriter(snapshot).write(file, version);
+				}
+			} catch (RuntimeException e) {
+				// the MATSim writers wrap their IOExceptions
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw e;
 			}
 		}
 
@@ -15,6 +15,7 @@ import org.matsim.contrib.josm.model.MATSimLayer;
 import org.matsim.contrib.josm.model.MLink;
 import org.matsim.contrib.josm.model.MNode;
 import org.matsim.contrib.josm.model.NetworkModel;
+import org.matsim.contrib.josm.model.NetworkSnapshot;
 import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
 import org.openstreetmap.josm.command.ChangePropertyCommand;
@@ -66,7 +67,7 @@ public class NetworkTest extends Test {
 	 * Integer code for doubtful link attribute(s).
 	 */
 	private final static int DOUBTFUL_LINK_ATTRIBUTE = 3003;
-	private NetworkModel networkModel;
+	private NetworkSnapshot network;
 
 	/**
 	 * Creates a new {@code MATSimTest}.
@@ -84,13 +85,18 @@ public class NetworkTest extends Test {
 		this.nodeIds = new HashMap<>();
 		this.linkIds = new HashMap<>();
 		if (MainApplication.getLayerManager().getActiveLayer() instanceof MATSimLayer) {
-			this.networkModel = ((MATSimLayer) MainApplication.getLayerManager().getActiveLayer()).getNetworkModel();
+			// the layer may be converting in the background while the test
+			// runs, so the attributes of the links are pinned until it ends
+			this.network = ((MATSimLayer) MainApplication.getLayerManager().getActiveLayer()).getNetworkModel().takeSnapshot();
 		} else {
 			Config config = ConfigUtils.createConfig();
 			config.transit().setUseTransit(true);
 			NetworkModel networkModel = NetworkModel.createNetworkModel(MainApplication.getLayerManager().getEditDataSet());
 			networkModel.visitAll();
-			this.networkModel = networkModel;
+			this.network = networkModel.takeSnapshot();
+			// the test only needs the current state, so the model does not
+			// have to follow further edits
+			networkModel.release();
 		}
 		super.startTest(monitor);
 	}
@@ -101,7 +107,7 @@ public class NetworkTest extends Test {
 	 */
 	@Override
 	public void visit(Way w) {
-		List<MLink> mLinks = networkModel.getWay2Links().get(w);
+		List<MLink> mLinks = network.getWay2Links().get(w);
 		if (mLinks != null) {
 			for (MLink link : mLinks) {
 				String origId = link.getOrigId();
@@ -127,7 +133,7 @@ public class NetworkTest extends Test {
 	 */
 	@Override
 	public void visit(Node n) {
-		MNode node = networkModel.nodes().get(n);
+		MNode node = network.getNodes().get(n);
 		if (node != null) {
 			String origId = node.getOrigId();
 			if (!nodeIds.containsKey(origId)) {
@@ -163,7 +169,7 @@ public class NetworkTest extends Test {
 			if (entry.getValue().size() > 1) {
 				List<WaySegment> segments = new ArrayList<>();
 				for (Way way : entry.getValue()) {
-					List<MLink> links = networkModel.getWay2Links().get(way);
+					List<MLink> links = network.getWay2Links().get(way);
 					for (MLink link : links) {
 						if (link.getOrigId().equalsIgnoreCase(entry.getKey())) {
 							segments.addAll(link.getSegments());
@@ -190,6 +196,8 @@ public class NetworkTest extends Test {
 			}
 		}
 		super.endTest();
+		// fixing errors afterwards only looks up primitives, not link attributes
+		network.close();
 		linkIds = null;
 		nodeIds = null;
 	}
@@ -220,7 +228,7 @@ public class NetworkTest extends Test {
 						i++;
 					}
 				} else if (primitive instanceof Node) {
-					MNode node = this.networkModel.nodes().get(primitive);
+					MNode node = network.getNodes().get(primitive);
 					String origId = node.getOrigId();
 					// node.setOrigId(origId + "(" + j + ")");
 					commands.add(new ChangePropertyCommand(primitive, "matsim:id", origId + "(" + j + ")"));
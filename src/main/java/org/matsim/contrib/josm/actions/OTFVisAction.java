@@ -38,6 +38,7 @@ public class OTFVisAction extends JosmAction {
 		NetworkModel networkModel = NetworkModel.createNetworkModel(MainApplication.getLayerManager().getEditDataSet());
 		networkModel.visitAll();
 		Scenario scenario = Export.toScenario(networkModel);
+		networkModel.release();
 
 		long departureId = 0;
 		for (TransitLine transitLine : scenario.getTransitSchedule().getTransitLines().values()) {
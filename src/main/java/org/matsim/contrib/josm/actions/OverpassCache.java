@@ -0,0 +1,284 @@
+package org.matsim.contrib.josm.actions;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.matsim.contrib.josm.gui.Preferences;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.spi.preferences.Config;
+import org.openstreetmap.josm.tools.Logging;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * Keeps Overpass responses on disk, so that an area which was downloaded
+ * before is read from the disk instead of the server, also after a restart
+ * and without a network connection.
+ *
+ * Responses are stored gzipped, keyed by the normalized query and the
+ * bounding box it was run for, together with the time they were downloaded.
+ * A request is also served from a response for the same query and a bounding
+ * box containing the requested one. Responses older than the time to live
+ * are only served if the server cannot be reached. When the cache grows
+ * beyond its size, expired responses are removed first, then the ones which
+ * were used longest ago.
+ *
+ * An empty response records that the server gave up on the query, so that
+ * its bounding box can be split without asking again.
+ *
+ * Responses are written to a temporary file first, which replaces the old
+ * one while no response is read.
+ */
+public final class OverpassCache {
+
+	private static final String EXTENSION = ".osm.gz";
+	private static final int FORMAT_VERSION = 1;
+
+	private static OverpassCache instance;
+
+	private final File directory;
+	private final LongSupplier maxBytes;
+	private final LongSupplier ttlMillis;
+
+	private Map<String, Entry> entries;
+	private long totalBytes;
+
+	public OverpassCache(File directory, long maxBytes, long ttlMillis) {
+		this(directory, () -> maxBytes, () -> ttlMillis);
+	}
+
+	private OverpassCache(File directory, LongSupplier maxBytes, LongSupplier ttlMillis) {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		this.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * Returns the cache in the JOSM cache directory, or null if it is switched
+	 * off. It follows the size and time to live of the preferences as they
+	 * change.
+	 */
+	public static synchronized OverpassCache getInstance() {
+		if (Preferences.getOverpassCacheSize() <= 0) {
+			return null;
+		}
+		if (instance == null) {
+			instance = new OverpassCache(new File(Config.getDirs().getCacheDirectory(true), "matsim-overpass"),
+					() -> Preferences.getOverpassCacheSize() * 1024L * 1024L, () -> TimeUnit.HOURS.toMillis(Preferences.getOverpassCacheTtl()));
+		}
+		return instance;
+	}
+
+	/**
+	 * Removes the time-out and redundant white space from the query, which do
+	 * not change its result.
+	 */
+	static String normalize(String query) {
+		return query.replaceAll("\\[timeout:\\d+\\]\\s*;?", "").replaceAll("\\s+", " ").trim();
+	}
+
+	/**
+	 * Returns the response to the query, or null if there is none.
+	 *
+	 * @param bbox
+	 *            the bounding box the query was run for, or null if it is not
+	 *            bounded by an area
+	 * @param allowStale
+	 *            whether responses beyond their time to live are served
+	 */
+	public synchronized byte[] get(String query, Bounds bbox, boolean allowStale) {
+		Entry entry = find(normalize(query), bbox, allowStale);
+		if (entry == null) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new GZIPInputStream(new FileInputStream(entry.file)))) {
+			readHeader(in, entry.file);
+			byte[] content = Utils.readBytesFromStream(in);
+			entry.lastAccess = System.currentTimeMillis();
+			entry.file.setLastModified(entry.lastAccess);
+			return content;
+		} catch (IOException e) {
+			Logging.warn(e);
+			remove(entry);
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the response to the query, replacing any earlier one for the
+	 * same bounding box.
+	 */
+	public void put(String query, Bounds bbox, byte[] content) {
+		String normalized = normalize(query);
+		long now = System.currentTimeMillis();
+		Entry entry = new Entry(new File(directory, getFileName(normalized, bbox)), normalized, bbox, now, content.length == 0);
+		try {
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Cannot create " + directory);
+			}
+			File temp = File.createTempFile("overpass", ".tmp", directory);
+			try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new FileOutputStream(temp)))) {
+				out.writeInt(FORMAT_VERSION);
+				out.writeUTF(normalized);
+				out.writeBoolean(bbox != null);
+				if (bbox != null) {
+					out.writeDouble(bbox.getMinLat());
+					out.writeDouble(bbox.getMinLon());
+					out.writeDouble(bbox.getMaxLat());
+					out.writeDouble(bbox.getMaxLon());
+				}
+				out.writeLong(now);
+				out.writeBoolean(content.length == 0);
+				out.write(content);
+			}
+			synchronized (this) {
+				Files.move(temp.toPath(), entry.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				entry.bytes = entry.file.length();
+				Entry previous = getEntries().put(entry.file.getName(), entry);
+				if (previous != null) {
+					totalBytes -= previous.bytes;
+				}
+				totalBytes += entry.bytes;
+				evict(now, entry);
+			}
+		} catch (IOException e) {
+			Logging.warn(e);
+		}
+	}
+
+	private synchronized Entry find(String query, Bounds bbox, boolean allowStale) {
+		long now = System.currentTimeMillis();
+		Entry exact = getEntries().get(getFileName(query, bbox));
+		if (exact != null && (allowStale || !exact.isExpired(now))) {
+			return exact;
+		}
+		if (bbox == null) {
+			return null;
+		}
+		// the smallest area containing the requested one has the least data to parse; that the server gave up on a
+		// larger area says nothing about a smaller one
+		Entry best = null;
+		for (Entry entry : getEntries().values()) {
+			if (entry.bbox != null && !entry.empty && entry.query.equals(query) && contains(entry.bbox, bbox) && (allowStale || !entry.isExpired(now))
+					&& (best == null || entry.bbox.getArea() < best.bbox.getArea())) {
+				best = entry;
+			}
+		}
+		return best;
+	}
+
+	private synchronized void remove(Entry entry) {
+		if (getEntries().remove(entry.file.getName()) != null) {
+			totalBytes -= entry.bytes;
+		}
+		entry.file.delete();
+	}
+
+	private void evict(long now, Entry keep) {
+		long max = maxBytes.getAsLong();
+		if (totalBytes <= max) {
+			return;
+		}
+		List<Entry> candidates = new ArrayList<>(entries.values());
+		// the response just stored is about to be used
+		candidates.remove(keep);
+		candidates.sort((a, b) -> {
+			int expired = Boolean.compare(b.isExpired(now), a.isExpired(now));
+			return expired != 0 ? expired : Long.compare(a.lastAccess, b.lastAccess);
+		});
+		for (Entry entry : candidates) {
+			if (totalBytes <= max) {
+				break;
+			}
+			remove(entry);
+		}
+	}
+
+	private Map<String, Entry> getEntries() {
+		if (entries == null) {
+			entries = new HashMap<>();
+			File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+			if (files != null) {
+				for (File file : files) {
+					try (DataInputStream in = new DataInputStream(new GZIPInputStream(new FileInputStream(file)))) {
+						Entry entry = readHeader(in, file);
+						entries.put(file.getName(), entry);
+						totalBytes += entry.bytes;
+					} catch (IOException e) {
+						Logging.warn("Removing unreadable Overpass cache entry " + file);
+						file.delete();
+					}
+				}
+			}
+		}
+		return entries;
+	}
+
+	private Entry readHeader(DataInputStream in, File file) throws IOException {
+		if (in.readInt() != FORMAT_VERSION) {
+			throw new IOException("Unknown format");
+		}
+		String query = in.readUTF();
+		Bounds bbox = in.readBoolean() ? new Bounds(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble()) : null;
+		Entry entry = new Entry(file, query, bbox, in.readLong(), in.readBoolean());
+		entry.bytes = file.length();
+		entry.lastAccess = file.lastModified();
+		return entry;
+	}
+
+	private static boolean contains(Bounds outer, Bounds inner) {
+		return outer.getMinLat() <= inner.getMinLat() && outer.getMinLon() <= inner.getMinLon() && outer.getMaxLat() >= inner.getMaxLat()
+				&& outer.getMaxLon() >= inner.getMaxLon();
+	}
+
+	private static String getFileName(String query, Bounds bbox) {
+		String key = bbox == null ? query : query + '\n' + bbox.encodeAsString(",");
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			return Utils.toHexString(digest.digest(key.getBytes(StandardCharsets.UTF_8))) + EXTENSION;
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private final class Entry {
+
+		final File file;
+		final String query;
+		final Bounds bbox;
+		final long created;
+		final boolean empty;
+		long bytes;
+		volatile long lastAccess;
+
+		Entry(File file, String query, Bounds bbox, long created, boolean empty) {
+			this.file = file;
+			this.query = query;
+			this.bbox = bbox;
+			this.created = created;
+			this.empty = empty;
+			this.lastAccess = created;
+		}
+
+		boolean isExpired(long now) {
+			return now - created > ttlMillis.getAsLong();
+		}
+	}
+
+}
@@ -0,0 +1,41 @@
+package org.matsim.contrib.josm.actions;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.matsim.contrib.josm.gui.DownloadDialog;
+import org.matsim.contrib.josm.model.PbfReader;
+import org.openstreetmap.josm.actions.ExtensionFileFilter;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.gui.io.importexport.FileImporter;
+import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.gui.util.GuiHelper;
+
+/**
+ * The FileImporter that opens OSM PBF extracts, keeping only the highways and
+ * routes selected in the download dialog, ready to be converted.
+ */
+public final class PbfImporter extends FileImporter {
+
+	public PbfImporter() {
+		super(new ExtensionFileFilter("osm.pbf,pbf", "osm.pbf", tr("OSM PBF Files, filtered for MATSim") + " (*.osm.pbf, *.pbf)"));
+	}
+
+	@Override
+	public void importData(File file, ProgressMonitor progressMonitor) throws IOException {
+		DataSet data = new PbfReader(DownloadDialog.getSelectedHighwayTypes(), DownloadDialog.getSelectedRouteTypes()).parseDataSet(file,
+				progressMonitor);
+		if (data != null) {
+			OsmDataLayer layer = new OsmDataLayer(data, file.getName(), null);
+			GuiHelper.runInEDT(() -> {
+				MainApplication.getLayerManager().addLayer(layer);
+				MainApplication.getLayerManager().setActiveLayer(layer);
+			});
+		}
+	}
+
+}
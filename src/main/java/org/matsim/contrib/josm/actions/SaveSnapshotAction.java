@@ -0,0 +1,57 @@
+package org.matsim.contrib.josm.actions;
+
+import static org.openstreetmap.josm.actions.SaveActionBase.createAndOpenSaveFileChooser;
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.awt.event.ActionEvent;
+import java.io.File;
+import java.io.IOException;
+
+import org.matsim.contrib.josm.model.LayerSnapshot;
+import org.matsim.contrib.josm.model.MATSimLayer;
+import org.openstreetmap.josm.actions.DiskAccessAction;
+import org.openstreetmap.josm.gui.PleaseWaitRunnable;
+
+/**
+ * Saves the active {@link MATSimLayer} as {@link LayerSnapshot}, which opens
+ * much faster than a network file, as nothing has to be converted again.
+ */
+@SuppressWarnings("serial")
+public class SaveSnapshotAction extends DiskAccessAction {
+
+	public SaveSnapshotAction() {
+		super(tr("Save MATSim snapshot…"), null, tr("Save the MATSim layer for reopening it quickly"), null);
+	}
+
+	@Override
+	public void actionPerformed(ActionEvent e) {
+		if (!isEnabled()) {
+			return;
+		}
+		MATSimLayer layer = (MATSimLayer) getLayerManager().getEditLayer();
+		File file = createAndOpenSaveFileChooser(tr("Save MATSim snapshot…"), LayerSnapshotImporter.FILE_FILTER);
+		if (file != null) {
+			PleaseWaitRunnable task = new PleaseWaitRunnable(tr("Saving MATSim snapshot")) {
+				@Override
+				protected void cancel() {
+				}
+
+				@Override
+				protected void realRun() throws IOException {
+					LayerSnapshot.write(layer, file);
+				}
+
+				@Override
+				protected void finish() {
+				}
+			};
+			task.run();
+		}
+	}
+
+	@Override
+	protected void updateEnabledState() {
+		setEnabled(getLayerManager().getEditLayer() instanceof MATSimLayer);
+	}
+
+}
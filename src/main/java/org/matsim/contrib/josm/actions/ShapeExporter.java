@@ -1,13 +1,12 @@
 package org.matsim.contrib.josm.actions;
 
 import org.locationtech.jts.geom.Coordinate;
-import org.matsim.api.core.v01.Scenario;
-import org.matsim.api.core.v01.network.Link;
-import org.matsim.api.core.v01.network.Network;
-import org.matsim.api.core.v01.network.Node;
-import org.matsim.contrib.josm.model.Export;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.contrib.josm.gui.Preferences;
 import org.matsim.contrib.josm.model.MATSimLayer;
-import org.matsim.core.network.NetworkUtils;
+import org.matsim.contrib.josm.model.MLink;
+import org.matsim.contrib.josm.model.MNode;
+import org.matsim.contrib.josm.model.NetworkSnapshot;
 import org.matsim.core.utils.geometry.geotools.MGC;
 import org.matsim.core.utils.gis.PointFeatureFactory;
 import org.matsim.core.utils.gis.PolylineFeatureFactory;
@@ -18,12 +17,14 @@ import org.openstreetmap.josm.actions.DiskAccessAction;
 import org.openstreetmap.josm.actions.ExtensionFileFilter;
 import org.openstreetmap.josm.data.projection.ProjectionRegistry;
 import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.gui.PleaseWaitRunnable;
 
 import javax.swing.*;
 import java.awt.event.ActionEvent;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import static org.openstreetmap.josm.actions.SaveActionBase.createAndOpenSaveFileChooser;
 import static org.openstreetmap.josm.tools.I18n.tr;
@@ -41,46 +42,30 @@ public final class ShapeExporter extends DiskAccessAction {
             File file = createAndOpenSaveFileChooser(tr("Export MATSim network to shape file…"), new ExtensionFileFilter("shp", "shp",
                     tr("Shape Files") +" (*.shp)"));
             if (file != null) {
-                Scenario targetScenario = Export.toScenario(((MATSimLayer) MainApplication.getLayerManager().getActiveLayer()).getNetworkModel());
-
-                Network network = targetScenario.getNetwork();
+                // The shape files are written from a snapshot of everything
+                // edited so far, in the background, so editing can go on meanwhile.
+                NetworkSnapshot snapshot = ((MATSimLayer) MainApplication.getLayerManager().getActiveLayer()).getNetworkModel().takeSnapshot();
+                boolean includeRoadType = Preferences.includeRoadType();
                 CoordinateReferenceSystem crs = MGC.getCRS(ProjectionRegistry.getProjection().toCode());
+                PleaseWaitRunnable task = new PleaseWaitRunnable(tr("Exporting MATSim network to shape file")) {
+                    @Override
+                    protected void cancel() {
+                    }
 
-                Collection<SimpleFeature> features = new ArrayList<>();
-                PolylineFeatureFactory linkFactory = new PolylineFeatureFactory.Builder().
-                        setCrs(crs).
-                        setName("link").
-                        addAttribute("ID", String.class).
-                        addAttribute("fromID", String.class).
-                        addAttribute("toID", String.class).
-                        addAttribute("length", Double.class).
-                        addAttribute("type", String.class).
-                        addAttribute("capacity", Double.class).
-                        addAttribute("freespeed", Double.class).
-                        create();
-
-                for (Link link : network.getLinks().values()) {
-                    Coordinate fromNodeCoordinate = new Coordinate(link.getFromNode().getCoord().getX(), link.getFromNode().getCoord().getY());
-                    Coordinate toNodeCoordinate = new Coordinate(link.getToNode().getCoord().getX(), link.getToNode().getCoord().getY());
-                    Coordinate linkCoordinate = new Coordinate(link.getCoord().getX(), link.getCoord().getY());
-                    SimpleFeature ft = linkFactory.createPolyline(new Coordinate [] {fromNodeCoordinate, linkCoordinate, toNodeCoordinate},
-                            new Object [] {link.getId().toString(), link.getFromNode().getId().toString(),link.getToNode().getId().toString(), link.getLength(), NetworkUtils.getType(link), link.getCapacity(), link.getFreespeed()}, null);
-                    features.add(ft);
-                }
-                ShapeFileWriter.writeGeometries(features, file.getAbsolutePath()+"_links.shp");
-
-                features = new ArrayList<>();
-                PointFeatureFactory nodeFactory = new PointFeatureFactory.Builder().
-                        setCrs(crs).
-                        setName("nodes").
-                        addAttribute("ID", String.class).
-                        create();
+                    @Override
+                    protected void realRun() {
+                        try {
+                            write(snapshot, file, includeRoadType, crs);
+                        } finally {
+                            snapshot.close();
+                        }
+                    }
 
-                for (Node node : network.getNodes().values()) {
-                    SimpleFeature ft = nodeFactory.createPoint(node.getCoord(), new Object[] {node.getId().toString()}, null);
-                    features.add(ft);
-                }
-                ShapeFileWriter.writeGeometries(features, file.getAbsolutePath()+"_nodes.shp");
+                    @Override
+                    protected void finish() {
+                    }
+                };
+                task.run();
             }
         } else {
             JOptionPane.showMessageDialog(MainApplication.getMainFrame(), tr("Nothing to export. Get some data first."), tr("Information"),
@@ -88,6 +73,51 @@ public final class ShapeExporter extends DiskAccessAction {
         }
     }
 
+    // The coordinates of the model are already projected, so there is no need
+    // to build a scenario first.
+    private static void write(NetworkSnapshot snapshot, File file, boolean includeRoadType, CoordinateReferenceSystem crs) {
+        Collection<SimpleFeature> features = new ArrayList<>();
+        PolylineFeatureFactory linkFactory = new PolylineFeatureFactory.Builder().
+                setCrs(crs).
+                setName("link").
+                addAttribute("ID", String.class).
+                addAttribute("fromID", String.class).
+                addAttribute("toID", String.class).
+                addAttribute("length", Double.class).
+                addAttribute("type", String.class).
+                addAttribute("capacity", Double.class).
+                addAttribute("freespeed", Double.class).
+                create();
+
+        for (List<MLink> links : snapshot.getWay2Links().values()) {
+            for (MLink link : links) {
+                Coord from = link.getFromNode().getCoord();
+                Coord to = link.getToNode().getCoord();
+                Coordinate fromNodeCoordinate = new Coordinate(from.getX(), from.getY());
+                Coordinate toNodeCoordinate = new Coordinate(to.getX(), to.getY());
+                // the center, as in Link.getCoord()
+                Coordinate linkCoordinate = new Coordinate((from.getX() + to.getX()) / 2, (from.getY() + to.getY()) / 2);
+                SimpleFeature ft = linkFactory.createPolyline(new Coordinate [] {fromNodeCoordinate, linkCoordinate, toNodeCoordinate},
+                        new Object [] {link.getOrigId(), link.getFromNode().getOrigId(), link.getToNode().getOrigId(), link.getLength(), includeRoadType ? link.getType() : null, link.getCapacity(), link.getFreespeed()}, null);
+                features.add(ft);
+            }
+        }
+        ShapeFileWriter.writeGeometries(features, file.getAbsolutePath()+"_links.shp");
+
+        features = new ArrayList<>();
+        PointFeatureFactory nodeFactory = new PointFeatureFactory.Builder().
+                setCrs(crs).
+                setName("nodes").
+                addAttribute("ID", String.class).
+                create();
+
+        for (MNode node : snapshot.getNodes().values()) {
+            SimpleFeature ft = nodeFactory.createPoint(node.getCoord(), new Object[] {node.getOrigId()}, null);
+            features.add(ft);
+        }
+        ShapeFileWriter.writeGeometries(features, file.getAbsolutePath()+"_nodes.shp");
+    }
+
     /**
      * Notifies me when the layer changes, but not when preferences change.
      */
@@ -0,0 +1,454 @@
+package org.matsim.contrib.josm.actions;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.matsim.contrib.josm.gui.Preferences;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.io.IllegalDataException;
+import org.openstreetmap.josm.io.OsmApiException;
+import org.openstreetmap.josm.io.OsmReader;
+import org.openstreetmap.josm.io.OsmServerReader;
+import org.openstreetmap.josm.io.OsmTransferException;
+import org.openstreetmap.josm.tools.HttpClient;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * Downloads an area from Overpass in tiles, so that large areas neither time
+ * out nor are rejected by the server.
+ *
+ * The area is split into tiles of at most the given size before the first
+ * request. The tiles are requested concurrently from all endpoints, with a
+ * bounded number of requests per endpoint. A tile which the server could not
+ * answer in time or memory is split into quarters; other failures are retried
+ * on another endpoint after a growing delay. The tiles are merged into one data
+ * set, so that primitives spanning several tiles are contained once.
+ *
+ * Tiles found in the {@link OverpassCache} are not requested again, and
+ * outdated ones are used if the server cannot be reached.
+ */
+public class TiledOverpassDownloader extends OsmServerReader {
+
+	public static final int TIMEOUT_S = 180;
+	// a tile is split at most this many times, i.e. down to 1/64 of the initial edge length
+	private static final int MAX_SPLITS = 6;
+	private static final int MAX_RETRIES = 4;
+	private static final long BACKOFF_MS = 1000;
+	// Overpass reports timeouts and exhausted memory in a remark, either before or after the data
+	private static final int REMARK_SCAN_BYTES = 4096;
+	// stands for the bounding box in the query the responses are cached for
+	private static final String BBOX_PLACEHOLDER = "{{bbox}}";
+
+	private final Bounds area;
+	private final Function<String, String> query;
+	private final List<String> endpoints;
+	private final int slotsPerEndpoint;
+	private final double tileSize;
+	private final OverpassCache cache;
+
+	private final Set<HttpClient> connections = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Downloads from the endpoints in the preferences, through the cache in the
+	 * preferences.
+	 *
+	 * @param query
+	 *            creates the Overpass QL statements for the bounding box of a
+	 *            tile, given as "(south,west,north,east)". The timeout is
+	 *            prepended.
+	 */
+	public TiledOverpassDownloader(Bounds area, Function<String, String> query) {
+		this(area, query, Preferences.getOverpassEndpoints(), Preferences.getOverpassSlots(), Preferences.getOverpassTileSize(),
+				OverpassCache.getInstance());
+	}
+
+	/**
+	 * @param cache
+	 *            may be null to always ask the server
+	 */
+	public TiledOverpassDownloader(Bounds area, Function<String, String> query, List<String> endpoints, int slotsPerEndpoint,
+			double tileSize, OverpassCache cache) {
+		if (endpoints.isEmpty()) {
+			throw new IllegalArgumentException("At least one Overpass endpoint is needed");
+		}
+		this.area = area;
+		this.query = query;
+		this.endpoints = new ArrayList<>(endpoints);
+		this.slotsPerEndpoint = Math.max(1, slotsPerEndpoint);
+		this.tileSize = tileSize;
+		this.cache = cache;
+	}
+
+	@Override
+	public DataSet parseOsm(ProgressMonitor progressMonitor) throws OsmTransferException {
+		DataSet ds = new DataSet();
+		return download(progressMonitor, ds::mergeFrom) ? ds : null;
+	}
+
+	/**
+	 * Downloads the tiles and hands each of them to the consumer as soon as it
+	 * has arrived, on the calling thread, e.g. to convert them while the others
+	 * are still downloading. Primitives spanning several tiles are contained in
+	 * each of them.
+	 *
+	 * @return false if the download was cancelled
+	 */
+	public boolean download(ProgressMonitor progressMonitor, Consumer<DataSet> consumer) throws OsmTransferException {
+		List<Tile> tiles = getTiles();
+		progressMonitor.beginTask(tr("Downloading {0} tiles from Overpass...", tiles.size()), tiles.size());
+		List<Endpoint> pool = new ArrayList<>();
+		for (String endpoint : endpoints) {
+			pool.add(new Endpoint(endpoint, slotsPerEndpoint));
+		}
+		// one thread per slot, so that a task always finds a free endpoint
+		ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(pool.size() * slotsPerEndpoint, runnable -> {
+			Thread thread = new Thread(runnable, "Overpass tile download");
+			thread.setDaemon(true);
+			return thread;
+		});
+		BlockingQueue<TileResult> results = new LinkedBlockingQueue<>();
+		AtomicInteger next = new AtomicInteger();
+		try {
+			int pending = 0;
+			int done = 0;
+			int total = tiles.size();
+			for (Tile tile : tiles) {
+				executor.execute(() -> results.add(load(tile, pool, null, next)));
+				pending++;
+			}
+			while (pending > 0) {
+				if (cancel || progressMonitor.isCanceled()) {
+					return false;
+				}
+				TileResult result = results.poll(100, TimeUnit.MILLISECONDS);
+				if (result == null) {
+					continue;
+				}
+				pending--;
+				Tile tile = result.tile;
+				if (result.data != null) {
+					consumer.accept(result.data);
+					done++;
+					progressMonitor.worked(1);
+				} else if (isTooDense(result.error) && tile.splits < MAX_SPLITS) {
+					for (Tile quarter : tile.split()) {
+						executor.execute(() -> results.add(load(quarter, pool, null, next)));
+						pending++;
+					}
+					total += 3;
+					progressMonitor.setTicksCount(progressMonitor.getTicksCount() + 3);
+				} else if (isRetryable(result.error) && tile.attempt < MAX_RETRIES) {
+					Tile retry = tile.retry();
+					Endpoint failed = result.endpoint;
+					executor.schedule(() -> results.add(load(retry, pool, failed, next)), BACKOFF_MS << tile.attempt,
+							TimeUnit.MILLISECONDS);
+					pending++;
+				} else if (result.error instanceof OsmTransferException) {
+					throw (OsmTransferException) result.error;
+				} else {
+					throw new OsmTransferException(result.error);
+				}
+				progressMonitor.setCustomText(tr("{0} of {1} tiles", done, total));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OsmTransferException(e);
+		} finally {
+			executor.shutdownNow();
+			disconnectAll();
+			activeConnection = null;
+		}
+		progressMonitor.finishTask();
+		return true;
+	}
+
+	public Bounds getArea() {
+		return area;
+	}
+
+	/**
+	 * Whether there is nothing to download, e.g. because nothing was selected.
+	 * {@link #download(ProgressMonitor, Consumer)} returns false right away
+	 * then.
+	 */
+	public boolean isEmpty() {
+		return false;
+	}
+
+	@Override
+	public void cancel() {
+		super.cancel();
+		disconnectAll();
+	}
+
+	private void disconnectAll() {
+		for (HttpClient connection : connections) {
+			connection.disconnect();
+		}
+	}
+
+	List<Tile> getTiles() {
+		List<Tile> tiles = new ArrayList<>();
+		if (area.crosses180thMeridian()) {
+			// Overpass does not support bounding boxes crossing the 180th meridian
+			addTiles(tiles, area.getMinLat(), area.getMinLon(), area.getMaxLat(), 180.0);
+			addTiles(tiles, area.getMinLat(), -180.0, area.getMaxLat(), area.getMaxLon());
+		} else {
+			addTiles(tiles, area.getMinLat(), area.getMinLon(), area.getMaxLat(), area.getMaxLon());
+		}
+		return tiles;
+	}
+
+	private void addTiles(List<Tile> tiles, double minLat, double minLon, double maxLat, double maxLon) {
+		int rows = Math.max(1, (int) Math.ceil((maxLat - minLat) / tileSize));
+		int columns = Math.max(1, (int) Math.ceil((maxLon - minLon) / tileSize));
+		double height = (maxLat - minLat) / rows;
+		double width = (maxLon - minLon) / columns;
+		for (int row = 0; row < rows; row++) {
+			for (int column = 0; column < columns; column++) {
+				// the outer edges are taken as they are, so that rounding does not lose a strip
+				tiles.add(new Tile(minLat + row * height, minLon + column * width, row == rows - 1 ? maxLat : minLat + (row + 1) * height,
+						column == columns - 1 ? maxLon : minLon + (column + 1) * width, 0, 0));
+			}
+		}
+	}
+
+	private static Endpoint acquire(List<Endpoint> pool, Endpoint avoid, AtomicInteger next) {
+		int start = next.getAndIncrement();
+		for (int pass = 0; pass < 2; pass++) {
+			for (int i = 0; i < pool.size(); i++) {
+				Endpoint endpoint = pool.get(Math.floorMod(start + i, pool.size()));
+				if ((pass == 1 || endpoint != avoid) && endpoint.slots.tryAcquire()) {
+					return endpoint;
+				}
+			}
+		}
+		// there are as many threads as slots, so this only waits for a slot being released
+		Endpoint endpoint = pool.get(Math.floorMod(start, pool.size()));
+		endpoint.slots.acquireUninterruptibly();
+		return endpoint;
+	}
+
+	private TileResult load(Tile tile, List<Endpoint> pool, Endpoint avoid, AtomicInteger next) {
+		String cacheKey = cache != null ? query.apply(BBOX_PLACEHOLDER) : null;
+		Bounds bbox = tile.getBounds();
+		// retries follow a failure of the server, so the cache was asked before
+		byte[] cached = cache != null && tile.attempt == 0 ? cache.get(cacheKey, bbox, false) : null;
+		if (cached != null && (cached.length > 0 || tile.splits < MAX_SPLITS)) {
+			return fromCache(tile, cached);
+		}
+		Endpoint endpoint = acquire(pool, avoid, next);
+		try {
+			byte[] content = fetch(endpoint.url, String.format("[timeout:%d];", TIMEOUT_S) + query.apply(tile.getBbox()));
+			if (cache != null) {
+				cache.put(cacheKey, bbox, content);
+			}
+			return new TileResult(tile, endpoint, parse(content), null);
+		} catch (TooDenseException e) {
+			if (cache != null) {
+				cache.put(cacheKey, bbox, new byte[0]);
+			}
+			return new TileResult(tile, endpoint, null, e);
+		} catch (IOException e) {
+			// without a connection, an outdated response is better than none
+			byte[] stale = cache != null ? cache.get(cacheKey, bbox, true) : null;
+			return stale != null ? fromCache(tile, stale) : new TileResult(tile, endpoint, null, e);
+		} catch (Exception e) {
+			return new TileResult(tile, endpoint, null, e);
+		} finally {
+			endpoint.slots.release();
+		}
+	}
+
+	private static TileResult fromCache(Tile tile, byte[] content) {
+		if (content.length == 0) {
+			return new TileResult(tile, null, null, new TooDenseException("Too dense when downloaded before"));
+		}
+		try {
+			return new TileResult(tile, null, parse(content), null);
+		} catch (IllegalDataException e) {
+			return new TileResult(tile, null, null, e);
+		}
+	}
+
+	/**
+	 * Returns the response of the endpoint to the query.
+	 *
+	 * @throws TooDenseException
+	 *             if the server gave up on the query, or did not answer it
+	 *             within the read timeout
+	 * @throws ConnectException
+	 *             if the endpoint could not be reached, also within the
+	 *             connect timeout
+	 */
+	byte[] fetch(String endpoint, String query) throws IOException, OsmTransferException {
+		HttpClient client = HttpClient.create(new URL(endpoint + "?data=" + Utils.encodeUrl(query)));
+		client.setConnectTimeout(30 * 1000);
+		client.setReadTimeout((TIMEOUT_S + 30) * 1000);
+		connections.add(client);
+		try {
+			HttpClient.Response response = client.connect();
+			int code = response.getResponseCode();
+			if (code == 504) {
+				throw new TooDenseException(response.getResponseMessage());
+			} else if (code != 200) {
+				throw new OsmApiException(code, response.getResponseMessage(), null);
+			}
+			byte[] content;
+			try (InputStream in = response.getContent()) {
+				content = Utils.readBytesFromStream(in);
+			}
+			String error = getRuntimeError(content);
+			if (error != null) {
+				throw new TooDenseException(error);
+			}
+			return content;
+		} catch (SocketTimeoutException e) {
+			// the JDK tells the two timeouts apart by their message only; an endpoint which cannot be reached says
+			// nothing about the tile
+			if (String.valueOf(e.getMessage()).toLowerCase(Locale.ROOT).contains("connect")) {
+				ConnectException connectException = new ConnectException(e.getMessage());
+				connectException.initCause(e);
+				throw connectException;
+			}
+			TooDenseException tooDense = new TooDenseException(e.getMessage());
+			tooDense.initCause(e);
+			throw tooDense;
+		} finally {
+			connections.remove(client);
+			client.disconnect();
+		}
+	}
+
+	static DataSet parse(byte[] content) throws IllegalDataException {
+		return OsmReader.parseDataSet(new ByteArrayInputStream(content), NullProgressMonitor.INSTANCE);
+	}
+
+	private static String getRuntimeError(byte[] content) {
+		String head = new String(content, 0, Math.min(content.length, REMARK_SCAN_BYTES), StandardCharsets.UTF_8);
+		String tail = new String(content, Math.max(0, content.length - REMARK_SCAN_BYTES), Math.min(content.length, REMARK_SCAN_BYTES),
+				StandardCharsets.UTF_8);
+		for (String part : new String[] { head, tail }) {
+			int start = part.indexOf("<remark>");
+			int end = part.indexOf("</remark>", start);
+			if (start >= 0 && end > start && part.indexOf("runtime error", start) >= 0) {
+				return part.substring(start + "<remark>".length(), end).trim();
+			}
+		}
+		return null;
+	}
+
+	private static boolean isTooDense(Exception error) {
+		return error instanceof TooDenseException;
+	}
+
+	private static boolean isRetryable(Exception error) {
+		if (error instanceof OsmApiException) {
+			int code = ((OsmApiException) error).getResponseCode();
+			// too many requests, or a server which is overloaded or restarting
+			return code == 429 || code >= 500;
+		}
+		// parse errors would repeat themselves
+		return error instanceof IOException;
+	}
+
+	/**
+	 * The server gave up on a query, because the tile contained too much data
+	 * for its timeout or memory.
+	 */
+	static final class TooDenseException extends IOException {
+
+		TooDenseException(String message) {
+			super(message);
+		}
+	}
+
+	static final class Tile {
+
+		final double minLat;
+		final double minLon;
+		final double maxLat;
+		final double maxLon;
+		final int splits;
+		final int attempt;
+
+		Tile(double minLat, double minLon, double maxLat, double maxLon, int splits, int attempt) {
+			this.minLat = minLat;
+			this.minLon = minLon;
+			this.maxLat = maxLat;
+			this.maxLon = maxLon;
+			this.splits = splits;
+			this.attempt = attempt;
+		}
+
+		Bounds getBounds() {
+			return new Bounds(minLat, minLon, maxLat, maxLon);
+		}
+
+		String getBbox() {
+			return String.format(Locale.ROOT, "(%.7f,%.7f,%.7f,%.7f)", minLat, minLon, maxLat, maxLon);
+		}
+
+		Tile[] split() {
+			double lat = (minLat + maxLat) / 2;
+			double lon = (minLon + maxLon) / 2;
+			return new Tile[] { new Tile(minLat, minLon, lat, lon, splits + 1, 0), new Tile(minLat, lon, lat, maxLon, splits + 1, 0),
+					new Tile(lat, minLon, maxLat, lon, splits + 1, 0), new Tile(lat, lon, maxLat, maxLon, splits + 1, 0) };
+		}
+
+		Tile retry() {
+			return new Tile(minLat, minLon, maxLat, maxLon, splits, attempt + 1);
+		}
+	}
+
+	private static final class Endpoint {
+
+		final String url;
+		final Semaphore slots;
+
+		Endpoint(String url, int slots) {
+			this.url = url;
+			this.slots = new Semaphore(slots);
+		}
+	}
+
+	private static final class TileResult {
+
+		final Tile tile;
+		final Endpoint endpoint;
+		final DataSet data;
+		final Exception error;
+
+		TileResult(Tile tile, Endpoint endpoint, DataSet data, Exception error) {
+			this.tile = tile;
+			this.endpoint = endpoint;
+			this.data = data;
+			this.error = error;
+		}
+	}
+
+}
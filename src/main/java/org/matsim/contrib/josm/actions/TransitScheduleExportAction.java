@@ -9,10 +9,12 @@ import java.io.File;
 
 import javax.swing.JOptionPane;
 
-import org.matsim.api.core.v01.Scenario;
 import org.matsim.contrib.josm.gui.Preferences;
 import org.matsim.contrib.josm.model.Export;
 import org.matsim.contrib.josm.model.MATSimLayer;
+import org.matsim.contrib.josm.model.NetworkModel;
+import org.matsim.contrib.josm.model.NetworkSnapshot;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
 import org.matsim.pt.transitSchedule.api.TransitScheduleWriter;
 import org.openstreetmap.josm.actions.DiskAccessAction;
 import org.openstreetmap.josm.actions.ExtensionFileFilter;
@@ -20,6 +22,7 @@ import org.openstreetmap.josm.data.validation.OsmValidator;
 import org.openstreetmap.josm.data.validation.Severity;
 import org.openstreetmap.josm.data.validation.TestError;
 import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.gui.PleaseWaitRunnable;
 import org.openstreetmap.josm.gui.progress.swing.PleaseWaitProgressMonitor;
 import org.openstreetmap.josm.spi.preferences.PreferenceChangeEvent;
 import org.openstreetmap.josm.spi.preferences.PreferenceChangedListener;
@@ -34,8 +37,8 @@ public class TransitScheduleExportAction extends DiskAccessAction implements Pre
 	@Override
 	public void actionPerformed(ActionEvent e) {
 		if (isEnabled()) {
-			File file = createAndOpenSaveFileChooser(tr("Export MATSim transit schedule…"), new ExtensionFileFilter("xml", "xml",
-					tr("MATSim Transit Schedule Files") +" (*.xml)"));
+			File file = createAndOpenSaveFileChooser(tr("Export MATSim transit schedule…"), new ExtensionFileFilter("xml,xml.gz", "xml",
+					tr("MATSim Transit Schedule Files") +" (*.xml, *.xml.gz)"));
 			if (file != null) {
 
 				TransitScheduleTest test = new TransitScheduleTest();
@@ -77,8 +80,30 @@ public class TransitScheduleExportAction extends DiskAccessAction implements Pre
 
 				// start export task if not aborted
 				if (okToExport) {
-					Scenario targetScenario = Export.toScenario(((MATSimLayer) MainApplication.getLayerManager().getActiveLayer()).getNetworkModel());
-					new TransitScheduleWriter(targetScenario.getTransitSchedule()).writeFile(file.getPath());
+					// the schedule refers to the links of the model, so no network has to be built
+					NetworkModel networkModel = ((MATSimLayer) MainApplication.getLayerManager().getActiveLayer()).getNetworkModel();
+					TransitSchedule schedule;
+					// Routes and lines are shared with the model, so the schedule is
+					// built here, where no conversion runs. Only writing it happens in
+					// the background.
+					try (NetworkSnapshot snapshot = networkModel.takeSnapshot()) {
+						schedule = Export.toTransitSchedule(snapshot);
+					}
+					PleaseWaitRunnable task = new PleaseWaitRunnable(tr("Exporting MATSim transit schedule")) {
+						@Override
+						protected void cancel() {
+						}
+
+						@Override
+						protected void realRun() {
+							new TransitScheduleWriter(schedule).writeFile(file.getPath());
+						}
+
+						@Override
+						protected void finish() {
+						}
+					};
+					task.run();
 				}
 
 				// set up error layer
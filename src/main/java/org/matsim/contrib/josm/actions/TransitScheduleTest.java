@@ -12,6 +12,7 @@ import org.matsim.api.core.v01.Id;
 import org.matsim.contrib.josm.model.Line;
 import org.matsim.contrib.josm.model.MATSimLayer;
 import org.matsim.contrib.josm.model.NetworkModel;
+import org.matsim.contrib.josm.model.NetworkSnapshot;
 import org.matsim.contrib.josm.model.Route;
 import org.matsim.contrib.josm.model.StopArea;
 import org.matsim.core.config.Config;
@@ -31,7 +32,7 @@ import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 
 public class TransitScheduleTest extends Test {
 
-	private NetworkModel networkModel;
+	private NetworkSnapshot network;
 
 	/**
 	 * Integer code for duplicated id errors
@@ -61,13 +62,18 @@ public class TransitScheduleTest extends Test {
 	@Override
 	public void startTest(ProgressMonitor monitor) {
 		if (MainApplication.getLayerManager().getActiveLayer() instanceof MATSimLayer) {
-			this.networkModel = ((MATSimLayer) MainApplication.getLayerManager().getActiveLayer()).getNetworkModel();
+			// the layer may be converting in the background while the test
+			// runs, so the attributes of the links are pinned until it ends
+			this.network = ((MATSimLayer) MainApplication.getLayerManager().getActiveLayer()).getNetworkModel().takeSnapshot();
 		} else {
 			Config config = ConfigUtils.createConfig();
 			config.transit().setUseTransit(true);
 			NetworkModel networkModel = NetworkModel.createNetworkModel(MainApplication.getLayerManager().getEditDataSet());
 			networkModel.visitAll();
-			this.networkModel = networkModel;
+			this.network = networkModel.takeSnapshot();
+			// the test only needs the current state, so the model does not
+			// have to follow further edits
+			networkModel.release();
 		}
 		super.startTest(monitor);
 	}
@@ -75,7 +81,7 @@ public class TransitScheduleTest extends Test {
 	@Override
 	public void endTest() {
 
-		Map<Id<TransitLine>, List<Line>> lineIds = networkModel.lines().values().stream().collect(Collectors.groupingBy(Line::getMatsimId));
+		Map<Id<TransitLine>, List<Line>> lineIds = network.getLines().values().stream().collect(Collectors.groupingBy(Line::getMatsimId));
 		for (Entry<Id<TransitLine>, List<Line>> entry : lineIds.entrySet()) {
 			if (entry.getValue().size() > 1) {
 				// create warning with message
@@ -86,7 +92,7 @@ public class TransitScheduleTest extends Test {
 			}
 		}
 
-		Map<Id<TransitRoute>, List<Route>> routeIds = networkModel.routes().values().stream().collect(Collectors.groupingBy(route -> Id.create(route.getId(), TransitRoute.class)));
+		Map<Id<TransitRoute>, List<Route>> routeIds = network.getRoutes().values().stream().collect(Collectors.groupingBy(route -> Id.create(route.getId(), TransitRoute.class)));
 		for (Entry<Id<TransitRoute>, List<Route>> entry : routeIds.entrySet()) {
 			if (entry.getValue().size() > 1) {
 
@@ -99,7 +105,7 @@ public class TransitScheduleTest extends Test {
 			}
 		}
 
-		Map<Id<TransitStopFacility>, List<StopArea>> facilityIds = networkModel.stopAreas().values().stream().collect(Collectors.groupingBy(StopArea::getMatsimId));
+		Map<Id<TransitStopFacility>, List<StopArea>> facilityIds = network.getStopAreas().values().stream().collect(Collectors.groupingBy(StopArea::getMatsimId));
 		for (Entry<Id<TransitStopFacility>, List<StopArea>> entry : facilityIds.entrySet()) {
 			if (entry.getValue().size() > 1) {
 
@@ -127,6 +133,8 @@ public class TransitScheduleTest extends Test {
 //			}
 //		}
 		super.endTest();
+		// fixing errors afterwards only looks up primitives, not link attributes
+		network.close();
 	}
 
 	@Override
@@ -144,7 +152,7 @@ public class TransitScheduleTest extends Test {
 		// number
 		if (testError.getCode() == DUPLICATE_LINE_ID) {
 			for (OsmPrimitive primitive : testError.getPrimitives()) {
-				Line line = networkModel.lines().get(primitive);
+				Line line = network.getLines().get(primitive);
 				commands.add(new ChangePropertyCommand(primitive, "ref", (line.getMatsimId().toString() + "(" + j + ")")));
 				j++;
 			}
@@ -152,7 +160,7 @@ public class TransitScheduleTest extends Test {
 
 		if (testError.getCode() == DUPLICATE_ROUTE_ID) {
 			for (OsmPrimitive primitive : testError.getPrimitives()) {
-				Route route = networkModel.routes().get(primitive);
+				Route route = network.getRoutes().get(primitive);
 				commands.add(new ChangePropertyCommand(primitive, "ref", (route.getId() + "(" + j + ")")));
 				j++;
 			}
@@ -160,7 +168,7 @@ public class TransitScheduleTest extends Test {
 
 		if (testError.getCode() == DUPLICATE_FACILITY_ID) {
 			for (OsmPrimitive primitive : testError.getPrimitives()) {
-				StopArea stopArea = networkModel.stopAreas().get(primitive);
+				StopArea stopArea = network.getStopAreas().get(primitive);
 				commands.add(new ChangePropertyCommand(primitive, "ref", (stopArea.getMatsimId().toString() + "(" + j + ")")));
 				j++;
 			}
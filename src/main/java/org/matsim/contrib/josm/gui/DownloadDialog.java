@@ -1,5 +1,7 @@
 package org.matsim.contrib.josm.gui;
 
+import org.matsim.contrib.josm.actions.ConvertingDownloadTask;
+import org.matsim.contrib.josm.actions.TiledOverpassDownloader;
 import org.matsim.contrib.josm.model.OsmConvertDefaults;
 import org.openstreetmap.josm.actions.downloadtasks.DownloadOsmTask;
 import org.openstreetmap.josm.actions.downloadtasks.DownloadParams;
@@ -17,7 +19,9 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
 
 import static org.openstreetmap.josm.tools.I18n.tr;
 
@@ -26,6 +30,8 @@ import static org.openstreetmap.josm.tools.I18n.tr;
  */
 public class DownloadDialog extends org.openstreetmap.josm.gui.download.DownloadDialog {
 
+	private static final BooleanProperty PROP_CONVERT_WHILE_DOWNLOADING = new BooleanProperty("matsim_download_convert", false);
+
 	private static DownloadDialog instance;
 
 	public DownloadDialog(Component comp) {
@@ -35,7 +41,7 @@ public class DownloadDialog extends org.openstreetmap.josm.gui.download.Download
 
 	protected void buildMainPanelAboveDownloadSelections(JPanel pnl) {
 
-		JPanel contentPnl = new JPanel(new GridLayout(2, 1));
+		JPanel contentPnl = new JPanel(new GridLayout(3, 1));
 
 		ActionListener cbListener = e -> {
 			JCheckBox cb = (JCheckBox) e.getSource();
@@ -63,6 +69,12 @@ public class DownloadDialog extends org.openstreetmap.josm.gui.download.Download
 			routesPnl.add(cb, GBC.std());
 		}
 		contentPnl.add(routesPnl);
+
+		JCheckBox convertCb = new JCheckBox(tr("Convert to MATSim layer while downloading"));
+		convertCb.setToolTipText(tr("Select to convert the data into a new MATSim layer as it arrives, instead of into an OSM layer."));
+		convertCb.setSelected(PROP_CONVERT_WHILE_DOWNLOADING.get());
+		convertCb.addActionListener(e -> PROP_CONVERT_WHILE_DOWNLOADING.put(convertCb.isSelected()));
+		contentPnl.add(convertCb);
 		this.btnDownload.setAction(new DownloadAction());
 		pnl.add(contentPnl, GBC.eol());
 	}
@@ -107,6 +119,30 @@ public class DownloadDialog extends org.openstreetmap.josm.gui.download.Download
 		}
 	}
 
+	/**
+	 * Replies the highway types the user selected to download.
+	 */
+	public static List<String> getSelectedHighwayTypes() {
+		return getSelectedTypes(OsmConvertDefaults.highwayTypes);
+	}
+
+	/**
+	 * Replies the route types the user selected to download.
+	 */
+	public static List<String> getSelectedRouteTypes() {
+		return getSelectedTypes(OsmConvertDefaults.routeTypes);
+	}
+
+	private static List<String> getSelectedTypes(List<String> types) {
+		List<String> selected = new ArrayList<>();
+		for (String type : types) {
+			if (new BooleanProperty("matsim_download_" + type, true).get()) {
+				selected.add(type);
+			}
+		}
+		return selected;
+	}
+
 	class DownloadAction extends AbstractAction {
 		DownloadAction() {
 			this.putValue("Name", I18n.tr("Download", new Object[0]));
@@ -118,9 +154,13 @@ public class DownloadDialog extends org.openstreetmap.josm.gui.download.Download
 		public void run() {
 			rememberSettings();
 			Bounds area = getSelectedDownloadArea().get();
-			DownloadOsmTask task = new DownloadOsmTask();
-			MainApplication.worker.submit(new PostDownloadHandler(task, task.download(
-			        new FilteredDownloader(area), new DownloadParams().withNewLayer(false), area, null)));
+			if (PROP_CONVERT_WHILE_DOWNLOADING.get()) {
+				MainApplication.worker.submit(new ConvertingDownloadTask(new FilteredDownloader(area)));
+			} else {
+				DownloadOsmTask task = new DownloadOsmTask();
+				MainApplication.worker.submit(new PostDownloadHandler(task, task.download(
+				        new FilteredDownloader(area), new DownloadParams().withNewLayer(false), area, null)));
+			}
 			dispose();
 		}
 
@@ -130,145 +170,53 @@ public class DownloadDialog extends org.openstreetmap.josm.gui.download.Download
 		}
 	}
 
-	private static class FilteredDownloader extends OsmServerReader {
+	private static class FilteredDownloader extends TiledOverpassDownloader {
 
-		private static final int TIMEOUT_S = 600;
-		/**
-		 * The boundings of the desired map data.
-		 */
-		protected final double lat1;
-		protected final double lon1;
-		protected final double lat2;
-		protected final double lon2;
-		protected final boolean crosses180th;
-		private static final String API = "http://overpass-api.de/api/interpreter?data=";
+		private final String highwayPredicates;
+		private final String routePredicates;
 
 		public FilteredDownloader(Bounds downloadArea) {
-			CheckParameterUtil.ensureParameterNotNull(downloadArea, "downloadArea");
-			this.lat1 = downloadArea.getMinLat();
-			this.lon1 = downloadArea.getMinLon();
-			this.lat2 = downloadArea.getMaxLat();
-			this.lon2 = downloadArea.getMaxLon();
-			this.crosses180th = downloadArea.crosses180thMeridian();
+			this(downloadArea, getHighwayPredicates(), getRoutePredicates());
 		}
 
-		@Override
-		public DataSet parseOsm(ProgressMonitor progressMonitor) throws OsmTransferException {
-			progressMonitor.beginTask(tr("Contacting OSM Server..."), 10);
-			DataSet ds = null;
-			String highwayPredicates = getHighwayPredicates();
-			String routePredicates = getRoutePredicates();
-
-			if (highwayPredicates == null && routePredicates == null) {
-				return null;
-			}
-
-			try {
-				DataSet dsTemp;
-				if (crosses180th) {
-					// API 0.6 does not support requests crossing the 180th
-					// meridian, so make two requests
-					DataSet ds2;
-
-					try (InputStream in = getInputStream(getUrl(highwayPredicates, routePredicates, lon1, lat1, 180.0, lat2),
-							progressMonitor.createSubTaskMonitor(9, false))) {
-						if (in == null) {
-							return null;
-						}
-						dsTemp = OsmReader.parseDataSet(in, progressMonitor.createSubTaskMonitor(1, false));
-					}
-
-					try (InputStream in = getInputStream(getUrl(highwayPredicates, routePredicates, -180.0, lat1, lon2, lat2),
-							progressMonitor.createSubTaskMonitor(9, false))) {
-						if (in == null) {
-							return null;
-						}
-						ds2 = OsmReader.parseDataSet(in, progressMonitor.createSubTaskMonitor(1, false));
-					}
-					if (ds2 == null) {
-						return null;
-					}
-					dsTemp.mergeFrom(ds2);
-
-				} else {
-					// Simple request
-					try (InputStream in = getInputStream(getUrl(highwayPredicates, routePredicates, lon1, lat1, lon2, lat2),
-							progressMonitor.createSubTaskMonitor(9, false))) {
-						if (in == null) {
-							return null;
-						}
-						dsTemp = OsmReader.parseDataSet(in, progressMonitor.createSubTaskMonitor(1, false));
-					}
-				}
-				dsTemp.mergeFrom(ds);
-				ds = dsTemp;
-			} catch (OsmTransferException e) {
-				throw e;
-			} catch (Exception e) {
-				throw new OsmTransferException(e);
-			} finally {
-				activeConnection = null;
-
-			}
-			progressMonitor.finishTask();
-			return ds;
+		private FilteredDownloader(Bounds downloadArea, String highwayPredicates, String routePredicates) {
+			super(downloadArea, bbox -> getQuery(highwayPredicates, routePredicates, bbox));
+			CheckParameterUtil.ensureParameterNotNull(downloadArea, "downloadArea");
+			this.highwayPredicates = highwayPredicates;
+			this.routePredicates = routePredicates;
 		}
 
 		@Override
-		protected void adaptRequest(HttpClient httpClient) {
-			httpClient.setConnectTimeout(TIMEOUT_S * 1000);
-			httpClient.setReadTimeout(TIMEOUT_S * 1000);
+		public boolean isEmpty() {
+			return highwayPredicates == null && routePredicates == null;
 		}
 
-		private String getRoutePredicates() {
-			int counter = 0;
-			StringBuilder routes = new StringBuilder("[\"route\"~\"");
-			for (String route : OsmConvertDefaults.routeTypes) {
-				if (new BooleanProperty("matsim_download_" + route, true).get()) {
-					routes.append(route);
-					routes.append("|");
-					counter++;
-				}
+		@Override
+		public boolean download(ProgressMonitor progressMonitor, Consumer<DataSet> consumer) throws OsmTransferException {
+			if (isEmpty()) {
+				return false;
 			}
+			return super.download(progressMonitor, consumer);
+		}
 
-			if (routes.lastIndexOf("|") != -1) {
-				routes.replace(routes.lastIndexOf("|"), routes.lastIndexOf("|") + 1, "");
-			}
-			routes.append("\"]");
-			if (counter == 0) {
+		private static String getRoutePredicates() {
+			List<String> routes = getSelectedRouteTypes();
+			if (routes.isEmpty()) {
 				return null;
 			}
-			return routes.toString();
+			return "[\"route\"~\"" + String.join("|", routes) + "\"]";
 		}
 
-		private String getHighwayPredicates() {
-			int counter = 0;
-			StringBuilder highways = new StringBuilder("[\"highway\"~\"");
-			for (String highway : OsmConvertDefaults.highwayTypes) {
-				if (new BooleanProperty("matsim_download_" + highway, true).get()) {
-					highways.append(highway);
-					highways.append("|");
-					counter++;
-				}
-			}
-			if (highways.lastIndexOf("|") != -1) {
-				highways.replace(highways.lastIndexOf("|"), highways.lastIndexOf("|") + 1, "");
-			}
-			highways.append("\"]");
-			if (counter == 0) {
+		private static String getHighwayPredicates() {
+			List<String> highways = getSelectedHighwayTypes();
+			if (highways.isEmpty()) {
 				return null;
 			}
-			return highways.toString();
-		}
-
-		private String getUrl(String highwayPredicates, String routePredicates, double lon1, double lat1, double lon2, double lat2) {
-			return API+ Utils.encodeUrl(getQuery(highwayPredicates, routePredicates, lon1, lat1, lon2, lat2));
+			return "[\"highway\"~\"" + String.join("|", highways) + "\"]";
 		}
 
-		private String getQuery(String highwayPredicates, String routePredicates, double lon1, double lat1, double lon2, double lat2) {
+		private static String getQuery(String highwayPredicates, String routePredicates, String bbox) {
 			StringBuilder sb = new StringBuilder();
-			sb.append(String.format("[timeout:%d];", TIMEOUT_S));
-			String bbox = "(" + lat1 + "," + lon1 + "," + lat2 + "," + lon2 + ")";
 			if (highwayPredicates != null) {
 				sb.append(String.format("way %s %s -> .highways;", bbox, highwayPredicates));
 			}
@@ -28,7 +28,9 @@ import org.matsim.contrib.josm.MapRenderer;
 import org.matsim.contrib.josm.actions.NetworkTest;
 import org.matsim.contrib.josm.model.MATSimLayer;
 import org.matsim.contrib.josm.model.MLink;
+import org.matsim.contrib.josm.model.NetworkChange;
 import org.matsim.contrib.josm.model.NetworkModel;
+import org.matsim.contrib.josm.model.NetworkSnapshot;
 import org.openstreetmap.josm.data.osm.DataSelectionListener;
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.OsmDataManager;
@@ -64,6 +66,8 @@ public class LinksToggleDialog extends ToggleDialog implements ActiveLayerChange
 
 	private final JButton networkAttributes = new JButton(new ImageProvider("dialogs", "edit").setWidth(16).get());
 	private NetworkModel networkModel;
+	// whether the model was created for a plain data layer by this dialog
+	private boolean ownsNetworkModel = false;
 
 	private final DataSetListenerAdapter dataSetListenerAdapter = new DataSetListenerAdapter(e -> notifyDataChanged());
 	private final DataSelectionListener selectionListener = e -> notifyDataChanged();
@@ -122,7 +126,11 @@ public class LinksToggleDialog extends ToggleDialog implements ActiveLayerChange
 		OsmDataLayer layer = MainApplication.getLayerManager().getEditLayer();
 		if (networkModel != null) {
 			networkModel.removeListener(this);
+			if (ownsNetworkModel) {
+				networkModel.release();
+			}
 		}
+		ownsNetworkModel = false;
 		if (isShowing() && layer != null) {
 			if (layer instanceof MATSimLayer) {
 				networkModel = ((MATSimLayer) layer).getNetworkModel(); // MATSim
@@ -135,6 +143,7 @@ public class LinksToggleDialog extends ToggleDialog implements ActiveLayerChange
 			} else {
 				networkModel = NetworkModel.createNetworkModel(layer.data);
 				networkModel.visitAll();
+				ownsNetworkModel = true;
 			}
 			table_links.setModel(tableModel_links);
 			this.networkAttributes.setEnabled(true);
@@ -146,17 +155,29 @@ public class LinksToggleDialog extends ToggleDialog implements ActiveLayerChange
 			networkAttributes.setEnabled(false);
 		}
 		if (networkModel != null) {
-			// set converted links that are to be drawn blue by map renderer
-			MapRenderer.setWay2Links(networkModel.getWay2Links());
 			networkModel.addListener(this);
 		}
+		MapRenderer.networkChanged(networkModel != null ? networkModel.getSnapshot().getWay2Links() : null, null);
+		notifyDataChanged();
+	}
+
+	@Override
+	public void notifyDataChanged(NetworkChange change) {
+		if (networkModel != null) {
+			MapRenderer.networkChanged(networkModel.getSnapshot().getWay2Links(), change);
+		}
 		notifyDataChanged();
 	}
 
 	@Override
 	public void notifyDataChanged() {
 		if (networkModel != null) {
-			setTitle(tr("Links: {0} / Nodes: {1}", networkModel.getWay2Links().values().stream().mapToInt(List::size).sum(), networkModel.nodes().size()));
+			// the model may be converting in the background, so only look at
+			// the last finished conversion
+			NetworkSnapshot snapshot = networkModel.getSnapshot();
+			// set converted links that are to be drawn blue by map renderer
+			MapRenderer.setWay2Links(snapshot.getWay2Links());
+			setTitle(tr("Links: {0} / Nodes: {1}", snapshot.getLinkCount(), snapshot.getNodes().size()));
 		} else {
 			setTitle(tr("No MATSim layer active"));
 		}
@@ -278,10 +299,11 @@ public class LinksToggleDialog extends ToggleDialog implements ActiveLayerChange
 				if (currentDataSet != null) {
 					currentDataSet.clearHighlightedWaySegments();
 					int i = 0;
+					Map<Way, List<MLink>> way2Links = networkModel.getSnapshot().getWay2Links();
 					for (OsmPrimitive primitive : OsmDataManager.getInstance().getInProgressSelection()) {
 						if (primitive instanceof Way) {
-							if (networkModel.getWay2Links().containsKey(primitive)) {
-								for (MLink link : networkModel.getWay2Links().get(primitive)) {
+							if (way2Links.containsKey(primitive)) {
+								for (MLink link : way2Links.get(primitive)) {
 									links.put(i, link);
 									i++;
 								}
@@ -66,6 +66,7 @@ public class PTToggleDialog extends ToggleDialog implements ActiveLayerChangeLis
 	private final StringProperty title;
 
 	private FilteredList<Route> selectedRoutes;
+	private NetworkModel networkModel;
 	private final DataSelectionListener selectionListener = e -> {
 		if (MainApplication.getLayerManager().getEditDataSet() != null) {
 			HashSet<OsmPrimitive> selection = new HashSet<>(OsmDataManager.getInstance().getInProgressSelection());
@@ -182,7 +183,10 @@ public class PTToggleDialog extends ToggleDialog implements ActiveLayerChangeLis
 		if (editLayer != null) {
 			HashSet<OsmPrimitive> selection = new HashSet<>(OsmDataManager.getInstance().getInProgressSelection());
 			Platform.runLater(() -> {
-				NetworkModel networkModel = NetworkModel.createNetworkModel(editLayer.data);
+				if (networkModel != null) {
+					networkModel.release();
+				}
+				networkModel = NetworkModel.createNetworkModel(editLayer.data);
 				ObservableList<Line> lineList = FXCollections.observableArrayList();
 				ObservableList<Route> routeList = FXCollections.observableArrayList();
 				networkModel.lines().addListener((MapChangeListener<Relation, Line>) change -> {
@@ -214,6 +218,10 @@ public class PTToggleDialog extends ToggleDialog implements ActiveLayerChangeLis
 			});
 		} else {
 			Platform.runLater(() -> {
+				if (networkModel != null) {
+					networkModel.release();
+					networkModel = null;
+				}
 				ObservableList<Route> routeList = FXCollections.observableArrayList();
 				selectedRoutes = new FilteredList<>(routeList);
 				table_pt.setItems(FXCollections.emptyObservableList());
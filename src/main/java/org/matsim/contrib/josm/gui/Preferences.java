@@ -6,6 +6,8 @@ import java.awt.Component;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.Insets;
+import java.util.Collections;
+import java.util.List;
 
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
@@ -22,7 +24,9 @@ import javax.swing.SwingConstants;
 import javax.swing.WindowConstants;
 
 import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.data.preferences.DoubleProperty;
 import org.openstreetmap.josm.data.preferences.IntegerProperty;
+import org.openstreetmap.josm.data.preferences.ListProperty;
 import org.openstreetmap.josm.data.preferences.StringProperty;
 import org.openstreetmap.josm.gui.MainApplication;
 import org.openstreetmap.josm.gui.preferences.DefaultTabPreferenceSetting;
@@ -50,6 +54,9 @@ public final class Preferences extends DefaultTabPreferenceSetting {
 	private final JSlider wayOffset = new JSlider(0, 100);
 	private final JLabel wayOffsetLabel = new JLabel(tr("Link offset for overlapping links"));
 	private final JCheckBox showInternalIds = new JCheckBox(tr("Show internal Ids in table"));
+	private final JCheckBox levelOfDetail = new JCheckBox(tr("Simplify links when zoomed out"));
+	private final JLabel levelOfDetailLabel = new JLabel(tr("Simplify beyond meters per 100 pixels: "));
+	private final JTextField levelOfDetailScale = new JTextField();
 
 	//Converter
 	private final JCheckBox transitFeature = new JCheckBox(tr("Transit support [alpha]"));
@@ -70,6 +77,21 @@ public final class Preferences extends DefaultTabPreferenceSetting {
 	private static final StringProperty PROP_NETWORK_VERSION = new StringProperty("matsim_networkVersion", "v2");
 	private static final BooleanProperty PROP_SUPPORT_TRANSIT = new BooleanProperty("matsim_supportTransit", false);
 	private static final BooleanProperty PROP_TRANSIT_LITE = new BooleanProperty("matsim_transit_lite", false);
+	// milliseconds during which changes of the network are collected into a single notification
+	private static final IntegerProperty PROP_NOTIFICATION_DELAY = new IntegerProperty("matsim_notificationDelay", 16);
+	// convert edits on a thread of their own instead of the one which made them; applies to layers converted afterwards
+	private static final BooleanProperty PROP_BACKGROUND_CONVERSION = new BooleanProperty("matsim_backgroundConversion", false);
+	// Overpass interpreters the tiles of a download are distributed over, e.g. a local instance next to the public one
+	private static final ListProperty PROP_OVERPASS_ENDPOINTS = new ListProperty("matsim_overpassEndpoints",
+			Collections.singletonList("http://overpass-api.de/api/interpreter"));
+	// concurrent requests per Overpass interpreter; the public ones allow about two per client
+	private static final IntegerProperty PROP_OVERPASS_SLOTS = new IntegerProperty("matsim_overpassSlots", 2);
+	// edge length in degrees of the tiles a download area is split into before the first request
+	private static final DoubleProperty PROP_OVERPASS_TILE_SIZE = new DoubleProperty("matsim_overpassTileSize", 0.25);
+	// megabytes of Overpass responses kept in the JOSM cache directory; 0 switches the cache off
+	private static final IntegerProperty PROP_OVERPASS_CACHE_SIZE = new IntegerProperty("matsim_overpassCacheSize", 256);
+	// hours after which cached Overpass responses are only used if the server cannot be reached
+	private static final IntegerProperty PROP_OVERPASS_CACHE_TTL = new IntegerProperty("matsim_overpassCacheTtl", 24 * 7);
 
 
   public static class Factory implements PreferenceSettingFactory {
@@ -108,6 +130,8 @@ public final class Preferences extends DefaultTabPreferenceSetting {
 		PROP_INCLUDE_ROAD_TYPE.put(includeRoadType.isSelected());
 		PROP_FILTER_HIERARCHY.put(Integer.parseInt(hierarchyLayer.getText()));
 		Config.getPref().putDouble("matsim_wayOffset", ((double) wayOffset.getValue()) * 0.03);
+		Config.getPref().putBoolean("matsim_levelOfDetail", levelOfDetail.isSelected());
+		Config.getPref().putDouble("matsim_levelOfDetailScale", Double.parseDouble(levelOfDetailScale.getText()));
 		return false;
 	}
 
@@ -153,10 +177,14 @@ public final class Preferences extends DefaultTabPreferenceSetting {
 			wayOffset.setEnabled(renderMatsim.isSelected());
 			showIds.setEnabled(renderMatsim.isSelected());
 			wayOffsetLabel.setEnabled(renderMatsim.isSelected());
+			levelOfDetail.setEnabled(renderMatsim.isSelected());
 		});
 		wayOffset.setEnabled(renderMatsim.isSelected());
 		showIds.setEnabled(renderMatsim.isSelected());
 		wayOffsetLabel.setEnabled(renderMatsim.isSelected());
+		levelOfDetail.setSelected(new BooleanProperty("matsim_levelOfDetail", true).get());
+		levelOfDetail.setEnabled(renderMatsim.isSelected());
+		levelOfDetailScale.setText(String.valueOf(Config.getPref().getDouble("matsim_levelOfDetailScale", 1000)));
 		showInternalIds.setSelected(new BooleanProperty("matsim_showInternalIds", false).get());
 		cOptions.anchor = GridBagConstraints.NORTHWEST;
 		cOptions.insets = new Insets(4, 4, 4, 4);
@@ -174,9 +202,18 @@ public final class Preferences extends DefaultTabPreferenceSetting {
 		cOptions.gridx = 1;
 		pnl.add(wayOffset, cOptions);
 		cOptions.weightx = 0;
-		cOptions.weighty = 1;
 		cOptions.gridx = 0;
 		cOptions.gridy = 3;
+		pnl.add(levelOfDetail, cOptions);
+		cOptions.gridy = 4;
+		pnl.add(levelOfDetailLabel, cOptions);
+		cOptions.weightx = 1;
+		cOptions.gridx = 1;
+		pnl.add(levelOfDetailScale, cOptions);
+		cOptions.weightx = 0;
+		cOptions.weighty = 1;
+		cOptions.gridx = 0;
+		cOptions.gridy = 5;
 		pnl.add(showInternalIds, cOptions);
 		return pnl;
 	}
@@ -302,4 +339,32 @@ public final class Preferences extends DefaultTabPreferenceSetting {
 		return PROP_FILTER_HIERARCHY.get();
 	}
 
+	public static int getNotificationDelay() {
+		return PROP_NOTIFICATION_DELAY.get();
+	}
+
+	public static boolean isBackgroundConversion() {
+		return PROP_BACKGROUND_CONVERSION.get();
+	}
+
+	public static List<String> getOverpassEndpoints() {
+		return PROP_OVERPASS_ENDPOINTS.get();
+	}
+
+	public static int getOverpassSlots() {
+		return PROP_OVERPASS_SLOTS.get();
+	}
+
+	public static double getOverpassTileSize() {
+		return PROP_OVERPASS_TILE_SIZE.get();
+	}
+
+	public static int getOverpassCacheSize() {
+		return PROP_OVERPASS_CACHE_SIZE.get();
+	}
+
+	public static int getOverpassCacheTtl() {
+		return PROP_OVERPASS_CACHE_TTL.get();
+	}
+
 }
@@ -28,6 +28,7 @@ public class StopAreasToggleDialog extends ToggleDialog implements MainLayerMana
 
 	private final JFXPanel fxPanel = new JFXPanel();
 	private OsmDataLayer editLayer;
+	private NetworkModel networkModel;
 	private final ListView<StopArea> list = new ListView<>();
 	private final StringProperty title = new SimpleStringProperty("Stop areas");
 
@@ -75,8 +76,12 @@ public class StopAreasToggleDialog extends ToggleDialog implements MainLayerMana
 	public void activeOrEditLayerChanged(MainLayerManager.ActiveLayerChangeEvent activeLayerChangeEvent) {
 		editLayer = MainApplication.getLayerManager().getEditLayer();
 		Platform.runLater(() -> {
+			if (networkModel != null) {
+				networkModel.release();
+				networkModel = null;
+			}
 			if (editLayer != null) {
-				NetworkModel networkModel = NetworkModel.createNetworkModel(editLayer.data);
+				networkModel = NetworkModel.createNetworkModel(editLayer.data);
 				ObservableList<StopArea> stopAreaList = FXCollections.observableArrayList();
 				networkModel.stopAreas().addListener((MapChangeListener<Relation, StopArea>) change -> {
 					Platform.runLater(() -> stopAreaList.remove(change.getValueRemoved()));
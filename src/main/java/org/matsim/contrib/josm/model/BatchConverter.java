@@ -0,0 +1,345 @@
+package org.matsim.contrib.josm.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.core.network.io.NetworkWriter;
+import org.matsim.pt.transitSchedule.api.TransitScheduleWriter;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.preferences.JosmBaseDirectories;
+import org.openstreetmap.josm.data.preferences.JosmUrls;
+import org.openstreetmap.josm.io.Compression;
+import org.openstreetmap.josm.io.IllegalDataException;
+import org.openstreetmap.josm.io.OsmReader;
+import org.openstreetmap.josm.spi.preferences.Config;
+
+/**
+ * Converts OSM files of several regions into MATSim networks and transit
+ * schedules, without the JOSM GUI, e.g. on a build server.
+ *
+ * Each region is read, converted and written on its own, with its own
+ * {@link ConversionSettings}, so regions may be converted at the same time
+ * on a bounded number of threads. A region which fails does not stop the
+ * others. The output of a region goes into a directory of the same name
+ * below the output directory.
+ *
+ * Files ending with <code>.pbf</code> are read with the {@link PbfReader},
+ * keeping the highways and routes of all known types; all others as
+ * (possibly compressed) OSM XML.
+ */
+public final class BatchConverter {
+
+	public static final String NETWORK_FILE = "network.xml.gz";
+	public static final String SCHEDULE_FILE = "transitSchedule.xml.gz";
+
+	private final File outputDirectory;
+	private final int threads;
+
+	public BatchConverter(File outputDirectory, int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is needed");
+		}
+		this.outputDirectory = outputDirectory;
+		this.threads = threads;
+		initHeadless();
+	}
+
+	/**
+	 * An OSM file and the settings to convert it with.
+	 */
+	public static final class Region {
+
+		private final String name;
+		private final File file;
+		private final ConversionSettings settings;
+
+		public Region(File file, ConversionSettings settings) {
+			this(getRegionName(file), file, settings);
+		}
+
+		public Region(String name, File file, ConversionSettings settings) {
+			if (settings == ConversionSettings.PREFERENCES) {
+				throw new IllegalArgumentException("Regions are converted independently of the preferences");
+			}
+			this.name = name;
+			this.file = file;
+			this.settings = settings;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		public ConversionSettings getSettings() {
+			return settings;
+		}
+	}
+
+	/**
+	 * The outcome of the conversion of one region, with the time spent in each
+	 * step.
+	 */
+	public static final class Result {
+
+		private final Region region;
+		private long readMillis;
+		private long convertMillis;
+		private long writeMillis;
+		private int nodes;
+		private int links;
+		private int transitLines;
+		private Exception error;
+
+		Result(Region region) {
+			this.region = region;
+		}
+
+		public Region getRegion() {
+			return region;
+		}
+
+		public long getReadMillis() {
+			return readMillis;
+		}
+
+		public long getConvertMillis() {
+			return convertMillis;
+		}
+
+		public long getWriteMillis() {
+			return writeMillis;
+		}
+
+		public int getNodes() {
+			return nodes;
+		}
+
+		public int getLinks() {
+			return links;
+		}
+
+		public int getTransitLines() {
+			return transitLines;
+		}
+
+		/**
+		 * The exception which stopped the conversion, or null if it succeeded.
+		 */
+		public Exception getError() {
+			return error;
+		}
+
+		public boolean isSuccessful() {
+			return error == null;
+		}
+
+		@Override
+		public String toString() {
+			if (error != null) {
+				return String.format("%s: failed after %d ms: %s", region.getName(), readMillis + convertMillis + writeMillis, error);
+			}
+			return String.format("%s: read %d ms, convert %d ms, write %d ms, %d nodes, %d links, %d transit lines", region.getName(),
+					readMillis, convertMillis, writeMillis, nodes, links, transitLines);
+		}
+	}
+
+	/**
+	 * Converts all regions and waits until they are done. The results are in
+	 * the order of the regions.
+	 */
+	public List<Result> convert(List<Region> regions) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, regions.size())), runnable -> {
+			Thread thread = new Thread(runnable, "MATSim batch conversion");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			List<Future<Result>> futures = new ArrayList<>();
+			for (Region region : regions) {
+				futures.add(executor.submit(() -> convert(region)));
+			}
+			List<Result> results = new ArrayList<>();
+			for (Future<Result> future : futures) {
+				try {
+					results.add(future.get());
+				} catch (ExecutionException e) {
+					// convert(Region) reports its own failures
+					throw new IllegalStateException(e.getCause());
+				}
+			}
+			return results;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Converts one region on the calling thread.
+	 */
+	public Result convert(Region region) {
+		Result result = new Result(region);
+		long start = System.nanoTime();
+		int step = 0;
+		try {
+			DataSet data = read(region.getFile());
+			result.readMillis = millisSince(start);
+
+			step++;
+			start = System.nanoTime();
+			Scenario scenario = LayerConverter.toScenario(data, region.getSettings());
+			result.nodes = scenario.getNetwork().getNodes().size();
+			result.links = scenario.getNetwork().getLinks().size();
+			result.transitLines = scenario.getTransitSchedule().getTransitLines().size();
+			result.convertMillis = millisSince(start);
+
+			step++;
+			start = System.nanoTime();
+			File directory = new File(outputDirectory, region.getName());
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Cannot create " + directory);
+			}
+			new NetworkWriter(scenario.getNetwork()).write(new File(directory, NETWORK_FILE).getPath());
+			if (region.getSettings().isSupportTransit()) {
+				new TransitScheduleWriter(scenario.getTransitSchedule()).writeFile(new File(directory, SCHEDULE_FILE).getPath());
+			}
+			result.writeMillis = millisSince(start);
+		} catch (Exception e) {
+			result.error = e;
+			// attributed to the step which failed
+			if (step == 0) {
+				result.readMillis = millisSince(start);
+			} else if (step == 1) {
+				result.convertMillis = millisSince(start);
+			} else {
+				result.writeMillis = millisSince(start);
+			}
+		}
+		return result;
+	}
+
+	private static DataSet read(File file) throws IOException, IllegalDataException {
+		if (file.getName().endsWith(".pbf")) {
+			return new PbfReader(OsmConvertDefaults.highwayTypes, OsmConvertDefaults.routeTypes).parseDataSet(file, null);
+		}
+		try (InputStream in = Compression.getUncompressedFileInputStream(file)) {
+			return OsmReader.parseDataSet(in, null);
+		}
+	}
+
+	private static long millisSince(long start) {
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	static String getRegionName(File file) {
+		String name = file.getName();
+		for (String extension : new String[] { ".pbf", ".gz", ".bz2", ".xz", ".zip", ".xml", ".osm" }) {
+			if (name.endsWith(extension)) {
+				name = name.substring(0, name.length() - extension.length());
+			}
+		}
+		return name;
+	}
+
+	/**
+	 * JOSM's data classes read some of the preferences, so outside of JOSM
+	 * they get an in-memory instance with the default values, which is never
+	 * saved.
+	 */
+	static synchronized void initHeadless() {
+		if (Config.getPref() == null) {
+			Config.setBaseDirectoriesProvider(JosmBaseDirectories.getInstance());
+			Config.setUrlsProvider(JosmUrls.getInstance());
+			org.openstreetmap.josm.data.Preferences preferences = org.openstreetmap.josm.data.Preferences.main();
+			preferences.enableSaveOnPut(false);
+			Config.setPreferencesInstance(preferences);
+		}
+	}
+
+	/**
+	 * Usage: <code>BatchConverter [options] output-directory osm-files...</code>,
+	 * with the options
+	 * <ul>
+	 * <li><code>--threads n</code>, the number of regions converted at the same
+	 * time, the number of processors by default</li>
+	 * <li><code>--projection code</code>, e.g. EPSG:32633, pseudo-Mercator by
+	 * default</li>
+	 * <li><code>--transit</code>, to convert routes into a transit schedule</li>
+	 * <li><code>--transit-lite</code>, to convert routes without their links</li>
+	 * <li><code>--keep-paths</code>, to keep the nodes within ways</li>
+	 * <li><code>--no-clean</code>, to keep unreachable parts of the network</li>
+	 * <li><code>--road-types</code>, to include the road types</li>
+	 * <li><code>--hierarchy n</code>, to leave out ways of a less important
+	 * hierarchy</li>
+	 * </ul>
+	 * Prints the timings of each region, and exits with status 1 if any region
+	 * failed.
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		initHeadless();
+		ConversionSettings settings = new ConversionSettings();
+		int threads = Runtime.getRuntime().availableProcessors();
+		int i = 0;
+		for (; i < args.length && args[i].startsWith("--"); i++) {
+			switch (args[i]) {
+			case "--threads":
+				threads = Integer.parseInt(args[++i]);
+				break;
+			case "--projection":
+				settings = settings.withProjection(args[++i]);
+				break;
+			case "--transit":
+				settings = settings.withSupportTransit(true);
+				break;
+			case "--transit-lite":
+				settings = settings.withSupportTransit(true).withTransitLite(true);
+				break;
+			case "--keep-paths":
+				settings = settings.withKeepPaths(true);
+				break;
+			case "--no-clean":
+				settings = settings.withCleanNetwork(false);
+				break;
+			case "--road-types":
+				settings = settings.withIncludeRoadType(true);
+				break;
+			case "--hierarchy":
+				settings = settings.withFilterHierarchy(Integer.parseInt(args[++i]));
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		if (args.length - i < 2) {
+			System.err.println("Usage: BatchConverter [options] output-directory osm-files...");
+			System.exit(2);
+		}
+		File outputDirectory = new File(args[i++]);
+		List<Region> regions = new ArrayList<>();
+		for (; i < args.length; i++) {
+			regions.add(new Region(new File(args[i]), settings));
+		}
+
+		long start = System.nanoTime();
+		List<Result> results = new BatchConverter(outputDirectory, threads).convert(regions);
+		boolean failed = false;
+		for (Result result : results) {
+			System.out.println(result);
+			failed |= !result.isSuccessful();
+		}
+		System.out.println(String.format("%d regions in %d ms", results.size(), millisSince(start)));
+		System.exit(failed ? 1 : 0);
+	}
+
+}
@@ -0,0 +1,261 @@
+package org.matsim.contrib.josm.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.contrib.josm.gui.Preferences;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.projection.Projection;
+import org.openstreetmap.josm.data.projection.ProjectionRegistry;
+import org.openstreetmap.josm.data.projection.Projections;
+
+/**
+ * Everything the conversion of OSM data into a MATSim network and schedule
+ * depends on. Settings are immutable, the {@code with} methods return
+ * modified copies.
+ *
+ * Inside JOSM, models use {@link #PREFERENCES}, which follows the
+ * preferences and the projection of the map, and are converted again when
+ * these change. Models created with any other settings are independent of
+ * JOSM's global state, so that several of them can be converted at the same
+ * time, e.g. by the {@link BatchConverter}.
+ */
+public class ConversionSettings {
+
+	/**
+	 * The settings of the JOSM preferences and the current projection, as
+	 * they change.
+	 */
+	public static final ConversionSettings PREFERENCES = new ConversionSettings() {
+
+		@Override
+		public boolean isKeepPaths() {
+			return Preferences.isKeepPaths();
+		}
+
+		@Override
+		public boolean isCleanNetwork() {
+			return Preferences.isCleanNetwork();
+		}
+
+		@Override
+		public boolean isSupportTransit() {
+			return Preferences.isSupportTransit();
+		}
+
+		@Override
+		public boolean isTransitLite() {
+			return Preferences.isTransitLite();
+		}
+
+		@Override
+		public boolean isIncludeRoadType() {
+			return Preferences.includeRoadType();
+		}
+
+		@Override
+		public int getFilterHierarchy() {
+			return Preferences.getMatsimFilterHierarchy();
+		}
+
+		@Override
+		public Map<String, OsmConvertDefaults.OsmWayDefaults> getWayDefaults() {
+			return OsmConvertDefaults.getWayDefaults();
+		}
+
+		@Override
+		public Projection getProjection() {
+			return ProjectionRegistry.getProjection();
+		}
+
+		@Override
+		Coord toCoord(Node node) {
+			return CoordinateService.toCoord(node);
+		}
+
+		@Override
+		boolean isLive() {
+			return true;
+		}
+
+		@Override
+		Object getProfileKey() {
+			return Arrays.asList(OsmConvertDefaults.getGeneration(), getFilterHierarchy());
+		}
+	};
+
+	private static final String DEFAULT_PROJECTION = "EPSG:3857";
+
+	private boolean keepPaths = false;
+	private boolean cleanNetwork = true;
+	private boolean supportTransit = false;
+	private boolean transitLite = false;
+	private boolean includeRoadType = false;
+	private int filterHierarchy = 6;
+	private Map<String, OsmConvertDefaults.OsmWayDefaults> wayDefaults;
+	private Projection projection;
+
+	/**
+	 * Creates the settings a fresh installation of the plugin would have, in
+	 * the pseudo-Mercator projection.
+	 */
+	public ConversionSettings() {
+	}
+
+	/**
+	 * Returns the current preferences and projection of JOSM, as settings
+	 * which do not change anymore.
+	 */
+	public static ConversionSettings fromPreferences() {
+		return PREFERENCES.copy();
+	}
+
+	private ConversionSettings copy() {
+		ConversionSettings copy = new ConversionSettings();
+		copy.keepPaths = isKeepPaths();
+		copy.cleanNetwork = isCleanNetwork();
+		copy.supportTransit = isSupportTransit();
+		copy.transitLite = isTransitLite();
+		copy.includeRoadType = isIncludeRoadType();
+		copy.filterHierarchy = getFilterHierarchy();
+		copy.wayDefaults = Collections.unmodifiableMap(new HashMap<>(getWayDefaults()));
+		copy.projection = getProjection();
+		return copy;
+	}
+
+	/**
+	 * Whether nodes which are part of only one way become network nodes.
+	 */
+	public boolean isKeepPaths() {
+		return keepPaths;
+	}
+
+	/**
+	 * Whether unreachable parts are removed from networks without transit.
+	 */
+	public boolean isCleanNetwork() {
+		return cleanNetwork;
+	}
+
+	public boolean isSupportTransit() {
+		return supportTransit;
+	}
+
+	/**
+	 * Whether routes are only given their stops, not their links.
+	 */
+	public boolean isTransitLite() {
+		return transitLite;
+	}
+
+	public boolean isIncludeRoadType() {
+		return includeRoadType;
+	}
+
+	/**
+	 * Ways with a higher (that is, less important) hierarchy in their
+	 * defaults are not converted.
+	 */
+	public int getFilterHierarchy() {
+		return filterHierarchy;
+	}
+
+	public Map<String, OsmConvertDefaults.OsmWayDefaults> getWayDefaults() {
+		if (wayDefaults == null) {
+			wayDefaults = Collections.unmodifiableMap(OsmConvertDefaults.getBuiltInWayDefaults());
+		}
+		return wayDefaults;
+	}
+
+	/**
+	 * The projection of the node coordinates.
+	 */
+	public Projection getProjection() {
+		if (projection == null) {
+			projection = Projections.getProjectionByCode(DEFAULT_PROJECTION);
+		}
+		return projection;
+	}
+
+	public ConversionSettings withKeepPaths(boolean keepPaths) {
+		ConversionSettings copy = copy();
+		copy.keepPaths = keepPaths;
+		return copy;
+	}
+
+	public ConversionSettings withCleanNetwork(boolean cleanNetwork) {
+		ConversionSettings copy = copy();
+		copy.cleanNetwork = cleanNetwork;
+		return copy;
+	}
+
+	public ConversionSettings withSupportTransit(boolean supportTransit) {
+		ConversionSettings copy = copy();
+		copy.supportTransit = supportTransit;
+		return copy;
+	}
+
+	public ConversionSettings withTransitLite(boolean transitLite) {
+		ConversionSettings copy = copy();
+		copy.transitLite = transitLite;
+		return copy;
+	}
+
+	public ConversionSettings withIncludeRoadType(boolean includeRoadType) {
+		ConversionSettings copy = copy();
+		copy.includeRoadType = includeRoadType;
+		return copy;
+	}
+
+	public ConversionSettings withFilterHierarchy(int filterHierarchy) {
+		ConversionSettings copy = copy();
+		copy.filterHierarchy = filterHierarchy;
+		return copy;
+	}
+
+	public ConversionSettings withWayDefaults(Map<String, OsmConvertDefaults.OsmWayDefaults> wayDefaults) {
+		ConversionSettings copy = copy();
+		copy.wayDefaults = Collections.unmodifiableMap(new HashMap<>(wayDefaults));
+		return copy;
+	}
+
+	/**
+	 * @param code e.g. "EPSG:32633"
+	 * @throws IllegalArgumentException if JOSM does not know the projection
+	 */
+	public ConversionSettings withProjection(String code) {
+		Projection projection = Projections.getProjectionByCode(code);
+		if (projection == null) {
+			throw new IllegalArgumentException("Unknown projection " + code);
+		}
+		ConversionSettings copy = copy();
+		copy.projection = projection;
+		return copy;
+	}
+
+	/**
+	 * Projects the node into the projection of the settings.
+	 */
+	Coord toCoord(Node node) {
+		return CoordinateService.toCoord(node, getProjection());
+	}
+
+	/**
+	 * Whether the settings follow the preferences, so that models have to
+	 * listen to them.
+	 */
+	boolean isLive() {
+		return false;
+	}
+
+	/**
+	 * Identifies the settings {@link WayProfile}s depend on.
+	 */
+	Object getProfileKey() {
+		return this;
+	}
+
+}
@@ -0,0 +1,95 @@
+package org.matsim.contrib.josm.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+import org.matsim.api.core.v01.Coord;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.projection.Projection;
+import org.openstreetmap.josm.data.projection.ProjectionRegistry;
+
+/**
+ * Converts between OSM coordinates and the MATSim coordinates of the current
+ * projection. All conversions of the plugin go through here.
+ *
+ * Nodes are projected with {@link Node#getEastNorth()}, which caches the
+ * result per node and projection and forgets it when the node is moved, so
+ * converting the same node again costs next to nothing. Batches of more than
+ * {@link #PARALLEL_THRESHOLD} elements are transformed in parallel.
+ */
+public final class CoordinateService {
+
+	static final int PARALLEL_THRESHOLD = 10000;
+
+	private CoordinateService() {
+	}
+
+	/**
+	 * Returns the projected coordinate of the node, or null if it has no
+	 * position.
+	 */
+	public static Coord toCoord(Node node) {
+		EastNorth eN = node.getEastNorth();
+		return eN == null ? null : toCoord(eN);
+	}
+
+	/**
+	 * Same as {@link #toCoord(Node)}, in the given rather than the current
+	 * projection.
+	 */
+	public static Coord toCoord(Node node, Projection projection) {
+		EastNorth eN = node.getEastNorth(projection);
+		return eN == null ? null : toCoord(eN);
+	}
+
+	public static Coord toCoord(EastNorth eN) {
+		return new Coord(eN.getX(), eN.getY());
+	}
+
+	public static Coord toCoord(LatLon latLon) {
+		return toCoord(latLon, ProjectionRegistry.getProjection());
+	}
+
+	public static Coord toCoord(LatLon latLon, Projection projection) {
+		return toCoord(projection.latlon2eastNorth(latLon));
+	}
+
+	public static LatLon toLatLon(Coord coord) {
+		return ProjectionRegistry.getProjection().eastNorth2latlon(new EastNorth(coord.getX(), coord.getY()));
+	}
+
+	/**
+	 * Projects all nodes, in the order of the list.
+	 */
+	public static List<Coord> toCoords(List<Node> nodes) {
+		return transform(nodes.size(), i -> toCoord(nodes.get(i)), Coord[]::new);
+	}
+
+	/**
+	 * Unprojects all coordinates, in the order of the list.
+	 */
+	public static List<LatLon> toLatLons(List<Coord> coords) {
+		// one projection for the whole batch, even if it is switched meanwhile
+		Projection projection = ProjectionRegistry.getProjection();
+		return transform(coords.size(), i -> projection.eastNorth2latlon(new EastNorth(coords.get(i).getX(), coords.get(i).getY())), LatLon[]::new);
+	}
+
+	private static <T> List<T> transform(int size, IntFunction<T> transformation, IntFunction<T[]> array) {
+		if (size <= PARALLEL_THRESHOLD) {
+			List<T> result = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				result.add(transformation.apply(i));
+			}
+			return result;
+		}
+		T[] result = array.apply(size);
+		IntStream.range(0, size).parallel().forEach(i -> result[i] = transformation.apply(i));
+		return Arrays.asList(result);
+	}
+
+}
@@ -1,6 +1,9 @@
 package org.matsim.contrib.josm.model;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -10,12 +13,10 @@ import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import org.matsim.api.core.v01.Id;
-import org.matsim.api.core.v01.Identifiable;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.network.Node;
-import org.matsim.contrib.josm.gui.Preferences;
 import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.network.NetworkUtils;
@@ -25,53 +26,109 @@ import org.matsim.pt.transitSchedule.api.Departure;
 import org.matsim.pt.transitSchedule.api.TransitLine;
 import org.matsim.pt.transitSchedule.api.TransitRoute;
 import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
 import org.matsim.pt.transitSchedule.api.TransitStopFacility;
 
 public class Export {
 
 	public static Scenario toScenario(NetworkModel networkModel) {
+		return toScenario(networkModel.getSnapshot());
+	}
+
+	public static Scenario toScenario(NetworkSnapshot snapshot) {
 		Config config = ConfigUtils.createConfig();
-		if (Preferences.isSupportTransit()) {
+		if (snapshot.getSettings().isSupportTransit()) {
 			config.transit().setUseTransit(true);
 		}
 
 		Scenario scenario = ScenarioUtils.createScenario(config);
-		for (MNode node : networkModel.nodes().values()) {
-			Node newNode = scenario.getNetwork().getFactory().createNode(Id.createNodeId(node.getOrigId()), node.getCoord());
-			scenario.getNetwork().addNode(newNode);
+		addNetwork(snapshot, scenario.getNetwork());
+		Network network = scenario.getNetwork();
+		addTransitSchedule(snapshot, scenario, node -> sorted(network.getNodes().get(Id.createNodeId(node.getOrigId())).getInLinks().keySet()));
+		return scenario;
+	}
+
+	/**
+	 * Creates only the MATSim network of the given snapshot, without the
+	 * transit schedule.
+	 */
+	public static Network toNetwork(NetworkSnapshot snapshot) {
+		Network network = ScenarioUtils.createScenario(ConfigUtils.createConfig()).getNetwork();
+		addNetwork(snapshot, network);
+		return network;
+	}
+
+	private static void addNetwork(NetworkSnapshot snapshot, Network network) {
+		for (MNode node : snapshot.getNodes().values()) {
+			Node newNode = network.getFactory().createNode(Id.createNodeId(node.getOrigId()), node.getCoord());
+			network.addNode(newNode);
 		}
 
-		for (List<MLink> links : networkModel.getWay2Links().values()) {
+		for (List<MLink> links : snapshot.getWay2Links().values()) {
 			for (MLink link : links) {
-				Link newLink = scenario
-						.getNetwork()
+				Link newLink = network
 						.getFactory()
 						.createLink(Id.create(link.getOrigId(), Link.class),
-								scenario.getNetwork().getNodes().get(Id.create(link.getFromNode().getOrigId(), Node.class)),
-								scenario.getNetwork().getNodes().get(Id.create(link.getToNode().getOrigId(), Node.class)));
+								network.getNodes().get(Id.create(link.getFromNode().getOrigId(), Node.class)),
+								network.getNodes().get(Id.create(link.getToNode().getOrigId(), Node.class)));
 				newLink.setFreespeed(link.getFreespeed());
 				newLink.setCapacity(link.getCapacity());
 				newLink.setLength(link.getLength());
 				newLink.setNumberOfLanes(link.getNumberOfLanes());
 				newLink.setAllowedModes(link.getAllowedModes());
-				if (Preferences.includeRoadType()) {
+				if (snapshot.getSettings().isIncludeRoadType()) {
 					NetworkUtils.setType(newLink, link.getType());
 					//TODO: implement hbefa road tpes again
 //					EmissionUtils.setHbefaRoadType(newLink, link.getHbefaType());
 				}
-				scenario.getNetwork().addLink(newLink);
+				network.addLink(newLink);
 			}
 		}
+	}
+
+	/**
+	 * Creates only the transit schedule of the given model. Unlike
+	 * {@link #toScenario(NetworkModel)}, this does not build a MATSim network,
+	 * the links referred to by the schedule are taken from the model directly.
+	 */
+	public static TransitSchedule toTransitSchedule(NetworkModel networkModel) {
+		return toTransitSchedule(networkModel.getSnapshot());
+	}
+
+	public static TransitSchedule toTransitSchedule(NetworkSnapshot snapshot) {
+		Config config = ConfigUtils.createConfig();
+		config.transit().setUseTransit(true);
+		Scenario scenario = ScenarioUtils.createScenario(config);
 
-		final Map<StopArea, List<TransitStopFacility>> facilityCopies = createFacilities(networkModel, scenario);
+		Map<String, List<Id<Link>>> inLinks = new HashMap<>();
+		for (List<MLink> links : snapshot.getWay2Links().values()) {
+			for (MLink link : links) {
+				inLinks.computeIfAbsent(link.getToNode().getOrigId(), id -> new ArrayList<>()).add(link.getId());
+			}
+		}
+		addTransitSchedule(snapshot, scenario, node -> sorted(inLinks.getOrDefault(node.getOrigId(), Collections.emptyList())));
+		return scenario.getTransitSchedule();
+	}
+
+	// The facilities of a stop position are numbered in the order of its in-links.
+	// Neither the model nor the network keeps them in a particular order, so they
+	// are sorted, and both exports number the facilities alike.
+	private static List<Id<Link>> sorted(Collection<Id<Link>> linkIds) {
+		List<Id<Link>> result = new ArrayList<>(linkIds);
+		result.sort(Comparator.comparing(Id::toString));
+		return result;
+	}
+
+	private static void addTransitSchedule(NetworkSnapshot snapshot, Scenario scenario, Function<MNode, Collection<Id<Link>>> inLinks) {
+		final Map<StopArea, List<TransitStopFacility>> facilityCopies = createFacilities(snapshot, scenario, inLinks);
 		assert (scenario.getTransitSchedule().getFacilities().isEmpty());
 
-		for (Line line : networkModel.lines().values()) {
+		for (Line line : snapshot.getLines().values()) {
 			TransitLine newTLine = scenario.getTransitSchedule().getFactory().createTransitLine(line.getMatsimId());
 			for (Route route : line.getRoutes()) {
 				if (!route.isDeleted()) {
 					List<TransitRouteStop> newTRStops = new ArrayList<>();
-					List<Link> allLinks = getLinks(route.getRoute(), scenario.getNetwork());
+					List<Id<Link>> allLinks = route.getRoute().stream().map(MLink::getId).collect(Collectors.toList());
 
 					IntStream.range(0, route.getStops().size()).forEach(i -> {
 						RouteStop transitRouteStop = route.getStops().get(i);
@@ -80,13 +137,9 @@ public class Export {
 
 						// check if stop.link is on route. if not, but a link with the same toNode as stop.link is,
 						// check if there is already a copy_link of stop. if it is, replace stop with copy. else create copy and replace stop with copy.
-						for (Link link : allLinks) {
-							if (link == null) {
-								throw new RuntimeException();
-							}
-
+						for (Id<Link> linkId : allLinks) {
 							Optional<TransitStopFacility> first = facilityCopies.get(transitRouteStop.getStopArea()).stream().filter(facility -> {
-								return link.getId().equals(facility.getLinkId());
+								return linkId.equals(facility.getLinkId());
 							}).findFirst();
 							if (first.isPresent()) {
 								newTRStop.setStopFacility(first.get());
@@ -104,8 +157,8 @@ public class Export {
 									// Pick any link attached to the stop area as dummy start link.
 									newTRStop.setStopFacility(first.get());
 									if (first.get().getLinkId() != null) {
-										allLinks.add(0, scenario.getNetwork().getLinks().get(first.get().getLinkId()));
-										// It *still* can be null, because stop areas *without any* link are also allowed.
+										allLinks.add(0, first.get().getLinkId());
+										// Otherwise it *still* has no link, because stop areas *without any* link are also allowed.
 									}
 								} else {
 									throw new RuntimeException();
@@ -126,7 +179,7 @@ public class Export {
 						}
 					});
 
-					TransitRoute newTRoute = scenario.getTransitSchedule().getFactory().createTransitRoute(Id.create(route.getId(), TransitRoute.class), allLinks.isEmpty() ? null : RouteUtils.createNetworkRoute(allLinks.stream().map(Identifiable::getId).collect(Collectors.toList()), scenario.getNetwork()), newTRStops,
+					TransitRoute newTRoute = scenario.getTransitSchedule().getFactory().createTransitRoute(Id.create(route.getId(), TransitRoute.class), allLinks.isEmpty() ? null : RouteUtils.createNetworkRoute(allLinks, scenario.getNetwork()), newTRStops,
 							route.getTransportMode());
 					for (Departure departure : route.getDepartures()) {
 						newTRoute.addDeparture(departure);
@@ -138,17 +191,16 @@ public class Export {
 				scenario.getTransitSchedule().addTransitLine(newTLine);
 			}
 		}
-		return scenario;
 	}
 
-	private static Map<StopArea, List<TransitStopFacility>> createFacilities(NetworkModel networkModel, Scenario scenario) {
-		final Map<StopArea, List<TransitStopFacility>> facilityCopies = new HashMap<>(networkModel.stopAreas().values().stream().collect(Collectors.toMap(Function.identity(), sa -> new ArrayList<>())));
-		networkModel.stopAreas().values().stream().forEach(stopArea -> {
-			List<MNode> stopPositionModelNodes = stopArea.getStopPositionOsmNodes().stream().map(osmNode -> getmNode(networkModel, osmNode))
+	private static Map<StopArea, List<TransitStopFacility>> createFacilities(NetworkSnapshot snapshot, Scenario scenario, Function<MNode, Collection<Id<Link>>> inLinks) {
+		final Map<StopArea, List<TransitStopFacility>> facilityCopies = new HashMap<>(snapshot.getStopAreas().values().stream().collect(Collectors.toMap(Function.identity(), sa -> new ArrayList<>())));
+		snapshot.getStopAreas().values().stream().forEach(stopArea -> {
+			List<MNode> stopPositionModelNodes = stopArea.getStopPositionOsmNodes().stream().map(osmNode -> getmNode(snapshot, osmNode))
 					.filter(modelNode -> modelNode != null) //FIXME: don't even return these
 					.collect(Collectors.toList());
 
-			if (Preferences.isTransitLite() || stopPositionModelNodes.isEmpty()) {
+			if (snapshot.getSettings().isTransitLite() || stopPositionModelNodes.isEmpty()) {
 				Id<TransitStopFacility> id = stopArea.getMatsimId();
 				TransitStopFacility transitStopFacility = scenario.getTransitSchedule().getFactory().createTransitStopFacility(id, stopArea.getCoord(), stopArea.isBlockingLane());
 				MLink linkId = stopArea.getLink();
@@ -159,17 +211,17 @@ public class Export {
 				facilityCopies.get(stopArea).add(transitStopFacility);
 			} else {
 				for (MNode modelNode : stopPositionModelNodes) {
-					Node node = scenario.getNetwork().getNodes().get(Id.createNodeId(modelNode.getOrigId()));
-					if(node.getInLinks().isEmpty()) {
+					Collection<Id<Link>> nodeInLinks = inLinks.apply(modelNode);
+					if(nodeInLinks.isEmpty()) {
 						Id<TransitStopFacility> id = Id.create(stopArea.getMatsimId().toString(), TransitStopFacility.class);
 						TransitStopFacility transitStopFacility = scenario.getTransitSchedule().getFactory().createTransitStopFacility(id, stopArea.getCoord(), stopArea.isBlockingLane());
 						transitStopFacility.setName(stopArea.getName());
 						facilityCopies.get(stopArea).add(transitStopFacility);
 					} else {
-						for (Link link : node.getInLinks().values()) {
+						for (Id<Link> linkId : nodeInLinks) {
 							Id<TransitStopFacility> id = Id.create(stopArea.getMatsimId().toString() + "." + Integer.toString(facilityCopies.get(stopArea).size() + 1), TransitStopFacility.class);
 							TransitStopFacility transitStopFacility = scenario.getTransitSchedule().getFactory().createTransitStopFacility(id, stopArea.getCoord(), stopArea.isBlockingLane());
-							transitStopFacility.setLinkId(link.getId());
+							transitStopFacility.setLinkId(linkId);
 							transitStopFacility.setName(stopArea.getName());
 							facilityCopies.get(stopArea).add(transitStopFacility);
 						}
@@ -183,13 +235,9 @@ public class Export {
 		return facilityCopies;
 	}
 
-	private static MNode getmNode(NetworkModel networkModel, org.openstreetmap.josm.data.osm.Node osmNode) {
-		MNode mNode = networkModel.nodes().get(osmNode);
+	private static MNode getmNode(NetworkSnapshot snapshot, org.openstreetmap.josm.data.osm.Node osmNode) {
+		MNode mNode = snapshot.getNodes().get(osmNode);
 		return mNode;
 	}
 
-	private static List<Link> getLinks(List<MLink> route, Network network) {
-		return route.stream().map(link -> network.getLinks().get(link.getId())).collect(Collectors.toList());
-	}
-
 }
@@ -8,19 +8,20 @@ import org.matsim.contrib.josm.gui.Preferences;
 import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.network.NetworkUtils;
-import org.matsim.core.network.io.MatsimNetworkReader;
 import org.matsim.core.population.routes.NetworkRoute;
 import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.pt.transitSchedule.api.*;
-import org.openstreetmap.josm.data.coor.EastNorth;
 import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.osm.*;
-import org.openstreetmap.josm.data.projection.ProjectionRegistry;
+import org.xml.sax.SAXException;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.stream.Collectors;
 
 public class Importer {
 
@@ -49,13 +50,20 @@ public class Importer {
 	public MATSimLayer createMatsimLayer() {
 		dataSet = new DataSet();
 		if (sourceScenario == null) {
-			sourceScenario = readScenario();
+			// The network is streamed directly into the data set, only the
+			// schedule is read into a scenario.
+			readNetwork();
+			sourceScenario = readSchedule();
+		} else {
+			convertNetwork();
 		}
-		convertNetwork();
 		if (Preferences.isSupportTransit()) {
 			convertStops();
 			convertLines();
 		}
+		// all link ids are resolved
+		linkId2Way.clear();
+		node2OsmNode.clear();
 		NetworkModel networkModel = NetworkModel.createNetworkModel(dataSet, way2Links);
 		networkModel.visitAll();
 		for (Line line : networkModel.lines().values()) {
@@ -70,14 +78,22 @@ public class Importer {
 		return new MATSimLayer(dataSet, network == null ? MATSimLayer.createNewName() : network.getName(), network == null ? null : network, networkModel);
 	}
 
-	private Scenario readScenario() {
+	private void readNetwork() {
+		// link ids only have to be resolved if there is a schedule referring to them
+		StreamingNetworkReader reader = new StreamingNetworkReader(dataSet, way2Links, schedule != null ? linkId2Way : null);
+		try {
+			reader.read(network);
+		} catch (IOException | SAXException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private Scenario readSchedule() {
 		Config config = ConfigUtils.createConfig();
 		if (schedule != null) {
 			config.transit().setUseTransit(true);
 		}
 		Scenario scenario = ScenarioUtils.createScenario(config);
-		MatsimNetworkReader reader = new MatsimNetworkReader(scenario.getNetwork());
-		reader.readFile(network.getAbsolutePath());
 		if (schedule != null) {
 			new TransitScheduleReader(scenario).readFile(schedule.getAbsolutePath());
 		}
@@ -85,10 +101,11 @@ public class Importer {
 	}
 
 	private void convertNetwork() {
-		for (Node node : sourceScenario.getNetwork().getNodes().values()) {
-			EastNorth eastNorth = new EastNorth(node.getCoord().getX(), node.getCoord().getY());
-			LatLon latLon = ProjectionRegistry.getProjection().eastNorth2latlon(eastNorth);
-			org.openstreetmap.josm.data.osm.Node nodeOsm = new org.openstreetmap.josm.data.osm.Node(latLon);
+		List<Node> matsimNodes = new ArrayList<>(sourceScenario.getNetwork().getNodes().values());
+		List<LatLon> latLons = CoordinateService.toLatLons(matsimNodes.stream().map(Node::getCoord).collect(Collectors.toList()));
+		for (int i = 0; i < matsimNodes.size(); i++) {
+			Node node = matsimNodes.get(i);
+			org.openstreetmap.josm.data.osm.Node nodeOsm = new org.openstreetmap.josm.data.osm.Node(latLons.get(i));
 
 			// set id of MATSim node as tag, as actual id of new MATSim node is
 			// set as corresponding OSM node id
@@ -140,17 +157,18 @@ public class Importer {
 			newLink.setAllowedModes(link.getAllowedModes());
 			newLink.setOrigId(link.getId().toString());
 			newLink.setType(NetworkUtils.getType(link));
-			newLink.setSegments(Collections.singletonList(new WaySegment(way, 0)));
+			newLink.setSegments(way, 0, 1);
 			way2Links.put(way, Collections.singletonList(newLink));
 			linkId2Way.put(link.getId(), way);
 		}
 	}
 
 	private void convertStops() {
-		for (TransitStopFacility stop : sourceScenario.getTransitSchedule().getFacilities().values()) {
-			EastNorth eastNorth = new EastNorth(stop.getCoord().getX(), stop.getCoord().getY());
-			LatLon latLon = ProjectionRegistry.getProjection().eastNorth2latlon(eastNorth);
-			org.openstreetmap.josm.data.osm.Node platform = new org.openstreetmap.josm.data.osm.Node(latLon);
+		List<TransitStopFacility> facilities = new ArrayList<>(sourceScenario.getTransitSchedule().getFacilities().values());
+		List<LatLon> latLons = CoordinateService.toLatLons(facilities.stream().map(TransitStopFacility::getCoord).collect(Collectors.toList()));
+		for (int i = 0; i < facilities.size(); i++) {
+			TransitStopFacility stop = facilities.get(i);
+			org.openstreetmap.josm.data.osm.Node platform = new org.openstreetmap.josm.data.osm.Node(latLons.get(i));
 			platform.put("public_transport", "platform");
 			if (stop.getName() != null) {
 				platform.put("name", stop.getName());
@@ -1,9 +1,9 @@
 package org.matsim.contrib.josm.model;
 
 import org.matsim.api.core.v01.Scenario;
-import org.matsim.contrib.josm.gui.Preferences;
 import org.matsim.core.network.algorithms.NetworkCleaner;
 import org.matsim.pt.utils.CreatePseudoNetwork;
+import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.gui.layer.OsmDataLayer;
 
 public class LayerConverter {
@@ -11,9 +11,10 @@ public class LayerConverter {
 	public static MATSimLayer convertToPseudoNetwork(OsmDataLayer osmDataLayer) {
 
 		NetworkModel networkModel = NetworkModel.createNetworkModel(osmDataLayer.data);
-		networkModel.visitAll();
+		networkModel.visitAllParallel();
 
 		Scenario targetScenario = Export.toScenario(networkModel);
+		networkModel.release();
 		new CreatePseudoNetwork(targetScenario.getTransitSchedule(), targetScenario.getNetwork(), "pt_")
 				.createNetwork();
 
@@ -22,19 +23,30 @@ public class LayerConverter {
 	}
 
 	public static MATSimLayer convertWithFullTransit(OsmDataLayer osmLayer) {
+		Scenario exportedScenario = toScenario(osmLayer.data, ConversionSettings.PREFERENCES);
+		Importer importer = new Importer(exportedScenario);
+		return importer.createMatsimLayer();
+	}
+
+	/**
+	 * Converts the data into a MATSim network and, if transit is supported,
+	 * a transit schedule. Does not need a layer, so it also works without
+	 * the JOSM GUI.
+	 */
+	public static Scenario toScenario(DataSet data, ConversionSettings settings) {
 
 		// convert layer data
-		NetworkModel networkModel = NetworkModel.createNetworkModel((osmLayer).data);
-		networkModel.visitAll();
+		NetworkModel networkModel = NetworkModel.createNetworkModel(data, settings);
+		networkModel.visitAllParallel();
 
 		Scenario exportedScenario = Export.toScenario(networkModel);
+		networkModel.release();
 
 		// check if network should be cleaned
-		if ((!Preferences.isSupportTransit()) && Preferences.isCleanNetwork()) {
+		if ((!settings.isSupportTransit()) && settings.isCleanNetwork()) {
 			new NetworkCleaner().run(exportedScenario.getNetwork());
 		}
-		Importer importer = new Importer(exportedScenario);
-		return importer.createMatsimLayer();
+		return exportedScenario;
 	}
 
 }
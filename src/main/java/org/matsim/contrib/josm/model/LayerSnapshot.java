@@ -0,0 +1,512 @@
+package org.matsim.contrib.josm.model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.TransitScheduleFactory;
+import org.matsim.vehicles.Vehicle;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationMember;
+import org.openstreetmap.josm.data.osm.Way;
+
+/**
+ * Saves a {@link MATSimLayer} in a compact binary file and opens it again:
+ * the data set, the nodes and links converted from it and the departures of
+ * the routes. Opening such a file takes over the nodes and links instead of
+ * converting the data set again, unless the conversion settings or the
+ * projection changed since it was saved, or the file contains new primitives
+ * without a matsim:id. Their MATSim ids are derived from their unique ids,
+ * which are given out anew when they are read. Stop areas, lines and routes are
+ * derived from the relations, which is cheap once the links are there.
+ *
+ * Strings are written once and referred to by number afterwards, so repeated
+ * tags cost four bytes. Files are read into memory as a whole, and a file
+ * which ends early or refers to elements it does not contain is reported as
+ * an {@link IOException}.
+ */
+public final class LayerSnapshot {
+
+	public static final String EXTENSION = "matsim";
+
+	private static final int MAGIC = 0x4d41_5453; // "MATS"
+	private static final int VERSION = 1;
+
+	private static final int NULL_STRING = -1;
+	private static final int NEW_STRING = -2;
+
+	private static final byte NODE = 0;
+	private static final byte WAY = 1;
+	private static final byte RELATION = 2;
+
+	private static final byte INCOMPLETE = 1;
+	private static final byte MODIFIED = 2;
+
+	private LayerSnapshot() {
+	}
+
+	public static boolean isSnapshotFile(File file) {
+		return file.getName().endsWith("." + EXTENSION);
+	}
+
+	/**
+	 * Writes the layer as of the changes made so far. Edits wait until the
+	 * file is written.
+	 */
+	public static void write(MATSimLayer layer, File file) throws IOException {
+		NetworkModel networkModel = layer.getNetworkModel();
+		// Runs after the pending conversions, where nothing converts, so that
+		// the data set and the model match. Waiting for the model while
+		// holding the lock of the data set would deadlock with an edit
+		// waiting for it in between.
+		IOException error = networkModel.read(() -> {
+			// already held by the conversion thread, if there is one
+			Lock lock = layer.data.getReadLock();
+			lock.lock();
+			try (NetworkSnapshot snapshot = networkModel.takeSnapshot();
+				 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+				new Writer(out).write(layer.data, snapshot);
+				return null;
+			} catch (IOException e) {
+				return e;
+			} finally {
+				lock.unlock();
+			}
+		});
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	/**
+	 * Reads a file written by {@link #write(MATSimLayer, File)} into a new
+	 * layer, which is not added to the layer manager yet.
+	 */
+	public static MATSimLayer read(File file) throws IOException {
+		if (file.length() > Integer.MAX_VALUE) {
+			throw new IOException("MATSim snapshot too large: " + file);
+		}
+		Reader reader = new Reader(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+		NetworkModel networkModel;
+		try {
+			networkModel = reader.read();
+		} catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+			throw new IOException("Corrupt MATSim snapshot: " + file, e);
+		}
+		String name = file.getName().substring(0, file.getName().length() - EXTENSION.length() - 1);
+		// Not associated with the file, saving writes a network file again.
+		return new MATSimLayer(reader.dataSet, name, null, networkModel);
+	}
+
+	// Everything the conversion depends on. The converted nodes and links of
+	// a snapshot are only taken over if these did not change.
+	private static String describe(ConversionSettings conversionSettings) {
+		StringBuilder settings = new StringBuilder();
+		settings.append(conversionSettings.getProjection().toCode())
+				.append(';').append(conversionSettings.isKeepPaths())
+				.append(';').append(conversionSettings.getFilterHierarchy())
+				.append(';').append(conversionSettings.isSupportTransit())
+				.append(';').append(conversionSettings.isTransitLite());
+		for (Map.Entry<String, OsmConvertDefaults.OsmWayDefaults> entry : new TreeMap<>(conversionSettings.getWayDefaults()).entrySet()) {
+			OsmConvertDefaults.OsmWayDefaults defaults = entry.getValue();
+			settings.append(';').append(entry.getKey())
+					.append(':').append(defaults.hierarchy)
+					.append(',').append(defaults.lanesPerDirection)
+					.append(',').append(defaults.freespeed)
+					.append(',').append(defaults.freespeedFactor)
+					.append(',').append(defaults.laneCapacity)
+					.append(',').append(defaults.oneway);
+		}
+		return settings.toString();
+	}
+
+	private static class Writer {
+
+		private final DataOutputStream out;
+		private final Map<String, Integer> strings = new HashMap<>();
+		private final Map<OsmPrimitive, Integer> indices = new HashMap<>();
+
+		Writer(DataOutputStream out) {
+			this.out = out;
+		}
+
+		void write(DataSet data, NetworkSnapshot snapshot) throws IOException {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			writeString(describe(snapshot.getSettings()));
+
+			List<Node> nodes = notDeleted(data.getNodes());
+			List<Way> ways = notDeleted(data.getWays());
+			List<Relation> relations = notDeleted(data.getRelations());
+			out.writeInt(nodes.size());
+			for (Node node : nodes) {
+				writeHeader(node);
+				LatLon coor = node.isLatLonKnown() ? node.getCoor() : null;
+				out.writeDouble(coor != null ? coor.lat() : Double.NaN);
+				out.writeDouble(coor != null ? coor.lon() : Double.NaN);
+			}
+			out.writeInt(ways.size());
+			for (Way way : ways) {
+				writeHeader(way);
+				out.writeInt(way.getNodesCount());
+				for (Node node : way.getNodes()) {
+					out.writeInt(indices.get(node));
+				}
+			}
+			// relations may refer to relations which come later
+			out.writeInt(relations.size());
+			for (Relation relation : relations) {
+				writeHeader(relation);
+			}
+			for (Relation relation : relations) {
+				List<RelationMember> members = new ArrayList<>();
+				for (RelationMember member : relation.getMembers()) {
+					if (indices.containsKey(member.getMember())) {
+						members.add(member);
+					}
+				}
+				out.writeInt(members.size());
+				for (RelationMember member : members) {
+					out.writeByte(member.isNode() ? NODE : member.isWay() ? WAY : RELATION);
+					out.writeInt(indices.get(member.getMember()));
+					writeString(member.getRole());
+				}
+			}
+
+			// the model only keeps primitives which are not deleted, except
+			// for routes, which are flagged instead
+			out.writeInt(snapshot.getNodes().size());
+			for (MNode node : snapshot.getNodes().values()) {
+				out.writeInt(indices.get(node.getOsmNode()));
+				writeString(node.getOrigId());
+				out.writeDouble(node.getCoord() != null ? node.getCoord().getX() : Double.NaN);
+				out.writeDouble(node.getCoord() != null ? node.getCoord().getY() : Double.NaN);
+			}
+			out.writeInt(snapshot.getWay2Links().size());
+			for (Map.Entry<Way, List<MLink>> entry : snapshot.getWay2Links().entrySet()) {
+				out.writeInt(indices.get(entry.getKey()));
+				out.writeInt(entry.getValue().size());
+				for (MLink link : entry.getValue()) {
+					writeLink(link);
+				}
+			}
+			List<Route> routes = new ArrayList<>();
+			for (Route route : snapshot.getRoutes().values()) {
+				if (indices.containsKey(route.getRelation())) {
+					routes.add(route);
+				}
+			}
+			out.writeInt(routes.size());
+			for (Route route : routes) {
+				out.writeInt(indices.get(route.getRelation()));
+				Collection<Departure> departures = route.getDepartures();
+				out.writeInt(departures.size());
+				for (Departure departure : departures) {
+					writeString(departure.getId().toString());
+					out.writeDouble(departure.getDepartureTime());
+					writeString(departure.getVehicleId() != null ? departure.getVehicleId().toString() : null);
+				}
+			}
+		}
+
+		private <T extends OsmPrimitive> List<T> notDeleted(Collection<T> primitives) {
+			List<T> result = new ArrayList<>(primitives.size());
+			for (T primitive : primitives) {
+				if (!primitive.isDeleted()) {
+					indices.put(primitive, result.size());
+					result.add(primitive);
+				}
+			}
+			return result;
+		}
+
+		private void writeHeader(OsmPrimitive primitive) throws IOException {
+			// new primitives get new ids when read
+			out.writeLong(primitive.isNew() ? 0 : primitive.getId());
+			out.writeInt(primitive.isNew() ? 0 : primitive.getVersion());
+			out.writeByte((primitive.isIncomplete() ? INCOMPLETE : 0) | (primitive.isModified() ? MODIFIED : 0));
+			out.writeInt(primitive.getKeys().size());
+			for (Map.Entry<String, String> tag : primitive.getKeys().entrySet()) {
+				writeString(tag.getKey());
+				writeString(tag.getValue());
+			}
+		}
+
+		private void writeLink(MLink link) throws IOException {
+			out.writeInt(indices.get(link.getFromNode().getOsmNode()));
+			out.writeInt(indices.get(link.getToNode().getOsmNode()));
+			out.writeInt(link.getFirstSegment());
+			out.writeInt(link.getSegmentCount());
+			out.writeBoolean(link.isReverseWayDirection());
+			writeString(link.getOrigId());
+			writeDouble(link.getLength());
+			writeDouble(link.getFreespeed());
+			writeDouble(link.getCapacity());
+			writeDouble(link.getNumberOfLanes());
+			Set<String> modes = link.getAllowedModes();
+			out.writeInt(modes != null ? modes.size() : -1);
+			if (modes != null) {
+				for (String mode : modes) {
+					writeString(mode);
+				}
+			}
+			writeString(link.getType());
+			writeString(link.getHbefaType());
+		}
+
+		private void writeDouble(Double value) throws IOException {
+			out.writeDouble(value != null ? value : Double.NaN);
+		}
+
+		private void writeString(String string) throws IOException {
+			if (string == null) {
+				out.writeInt(NULL_STRING);
+				return;
+			}
+			Integer index = strings.get(string);
+			if (index != null) {
+				out.writeInt(index);
+			} else {
+				strings.put(string, strings.size());
+				byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(NEW_STRING);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+		}
+	}
+
+	private static class Reader {
+
+		private final ByteBuffer in;
+		private final List<String> strings = new ArrayList<>();
+		private final DataSet dataSet = new DataSet();
+		private final List<Node> nodes = new ArrayList<>();
+		private final List<Way> ways = new ArrayList<>();
+		private final List<Relation> relations = new ArrayList<>();
+		private boolean hasNewWithoutId;
+
+		Reader(ByteBuffer in) {
+			this.in = in;
+		}
+
+		NetworkModel read() throws IOException {
+			if (in.remaining() < 8 || in.getInt() != MAGIC) {
+				throw new IOException("Not a MATSim snapshot");
+			}
+			int version = in.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported MATSim snapshot version " + version);
+			}
+			boolean converted = describe(ConversionSettings.PREFERENCES).equals(readString());
+
+			dataSet.beginUpdate();
+			try {
+				readPrimitives();
+			} finally {
+				dataSet.endUpdate();
+			}
+			// the saved ids of their nodes and links would neither match them
+			// nor be safe from primitives created later on
+			converted &= !hasNewWithoutId;
+
+			NetworkModel networkModel = NetworkModel.createNetworkModel(dataSet);
+			try {
+				readModel(networkModel, converted);
+			} catch (RuntimeException e) {
+				// nobody else gets hold of the model to release it
+				networkModel.release();
+				throw e;
+			}
+			return networkModel;
+		}
+
+		private void readModel(NetworkModel networkModel, boolean converted) {
+			Map<Node, MNode> mNodes = new HashMap<>();
+			int nodeCount = in.getInt();
+			for (int i = 0; i < nodeCount; i++) {
+				Node node = nodes.get(in.getInt());
+				String origId = readString();
+				double x = in.getDouble();
+				double y = in.getDouble();
+				MNode mNode = new MNode(node, Double.isNaN(x) ? null : new Coord(x, y));
+				mNode.setOrigId(origId);
+				mNodes.put(node, mNode);
+			}
+			Map<Way, List<MLink>> way2Links = new HashMap<>();
+			int wayCount = in.getInt();
+			for (int i = 0; i < wayCount; i++) {
+				Way way = ways.get(in.getInt());
+				int linkCount = in.getInt();
+				List<MLink> links = new ArrayList<>(linkCount);
+				for (int j = 0; j < linkCount; j++) {
+					links.add(readLink(way, mNodes));
+				}
+				way2Links.put(way, links);
+			}
+			if (converted) {
+				networkModel.restore(mNodes, way2Links);
+			} else {
+				networkModel.visitAll();
+			}
+
+			TransitScheduleFactory factory = ScenarioUtils.createScenario(ConfigUtils.createConfig()).getTransitSchedule().getFactory();
+			int routeCount = in.getInt();
+			for (int i = 0; i < routeCount; i++) {
+				Route route = networkModel.routes().get(relations.get(in.getInt()));
+				int departureCount = in.getInt();
+				for (int j = 0; j < departureCount; j++) {
+					Departure departure = factory.createDeparture(Id.create(readString(), Departure.class), in.getDouble());
+					String vehicleId = readString();
+					if (vehicleId != null) {
+						departure.setVehicleId(Id.create(vehicleId, Vehicle.class));
+					}
+					// the route is gone if transit support was switched off meanwhile
+					if (route != null) {
+						route.addDeparture(departure);
+					}
+				}
+			}
+		}
+
+		private void readPrimitives() {
+			int nodeCount = in.getInt();
+			for (int i = 0; i < nodeCount; i++) {
+				long id = in.getLong();
+				int version = in.getInt();
+				byte flags = in.get();
+				Node node = id == 0 ? new Node() : (flags & INCOMPLETE) != 0 ? new Node(id) : new Node(id, version);
+				readTags(node);
+				hasNewWithoutId |= id == 0 && !node.hasKey(NodeConversionRules.ID);
+				double lat = in.getDouble();
+				double lon = in.getDouble();
+				if (!Double.isNaN(lat) && !Double.isNaN(lon)) {
+					node.setCoor(new LatLon(lat, lon));
+				}
+				node.setModified((flags & MODIFIED) != 0);
+				dataSet.addPrimitive(node);
+				nodes.add(node);
+			}
+			int wayCount = in.getInt();
+			for (int i = 0; i < wayCount; i++) {
+				long id = in.getLong();
+				int version = in.getInt();
+				byte flags = in.get();
+				Way way = id == 0 ? new Way() : (flags & INCOMPLETE) != 0 ? new Way(id) : new Way(id, version);
+				readTags(way);
+				hasNewWithoutId |= id == 0 && !way.hasKey(LinkConversionRules.ID);
+				int size = in.getInt();
+				List<Node> wayNodes = new ArrayList<>(size);
+				for (int j = 0; j < size; j++) {
+					wayNodes.add(nodes.get(in.getInt()));
+				}
+				way.setNodes(wayNodes);
+				way.setModified((flags & MODIFIED) != 0);
+				dataSet.addPrimitive(way);
+				ways.add(way);
+			}
+			int relationCount = in.getInt();
+			Set<Relation> modified = new HashSet<>();
+			for (int i = 0; i < relationCount; i++) {
+				long id = in.getLong();
+				int version = in.getInt();
+				byte flags = in.get();
+				Relation relation = id == 0 ? new Relation() : (flags & INCOMPLETE) != 0 ? new Relation(id) : new Relation(id, version);
+				readTags(relation);
+				if ((flags & MODIFIED) != 0) {
+					modified.add(relation);
+				}
+				dataSet.addPrimitive(relation);
+				relations.add(relation);
+			}
+			for (Relation relation : relations) {
+				int size = in.getInt();
+				List<RelationMember> members = new ArrayList<>(size);
+				for (int j = 0; j < size; j++) {
+					byte type = in.get();
+					int index = in.getInt();
+					OsmPrimitive member = type == NODE ? nodes.get(index) : type == WAY ? ways.get(index) : relations.get(index);
+					members.add(new RelationMember(readString(), member));
+				}
+				relation.setMembers(members);
+				relation.setModified(modified.contains(relation));
+			}
+		}
+
+		private void readTags(OsmPrimitive primitive) {
+			int size = in.getInt();
+			Map<String, String> tags = new HashMap<>();
+			for (int i = 0; i < size; i++) {
+				tags.put(readString(), readString());
+			}
+			primitive.setKeys(tags);
+		}
+
+		private MLink readLink(Way way, Map<Node, MNode> mNodes) {
+			MLink link = new MLink(mNodes.get(nodes.get(in.getInt())), mNodes.get(nodes.get(in.getInt())));
+			int firstSegment = in.getInt();
+			link.setSegments(way, firstSegment, in.getInt());
+			link.setReverseWayDirection(in.get() != 0);
+			link.setOrigId(readString());
+			link.setLength(readDouble());
+			link.setFreespeed(readDouble());
+			link.setCapacity(readDouble());
+			link.setNumberOfLanes(readDouble());
+			int modeCount = in.getInt();
+			if (modeCount >= 0) {
+				Set<String> modes = new HashSet<>();
+				for (int i = 0; i < modeCount; i++) {
+					modes.add(readString());
+				}
+				link.setAllowedModes(modes);
+			}
+			link.setType(readString());
+			link.setHbefaType(readString());
+			return link;
+		}
+
+		private Double readDouble() {
+			double value = in.getDouble();
+			return Double.isNaN(value) ? null : value;
+		}
+
+		private String readString() {
+			int index = in.getInt();
+			if (index == NULL_STRING) {
+				return null;
+			} else if (index == NEW_STRING) {
+				byte[] bytes = new byte[in.getInt()];
+				in.get(bytes);
+				String string = new String(bytes, StandardCharsets.UTF_8);
+				strings.add(string);
+				return string;
+			}
+			return strings.get(index);
+		}
+	}
+
+}
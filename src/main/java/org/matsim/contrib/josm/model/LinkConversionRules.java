@@ -3,10 +3,10 @@ package org.matsim.contrib.josm.model;
 
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import org.matsim.api.core.v01.TransportMode;
-import org.matsim.contrib.josm.gui.Preferences;
 import org.openstreetmap.josm.data.osm.Way;
 
 public class LinkConversionRules {
@@ -34,7 +34,7 @@ public class LinkConversionRules {
         return origId;
     }
 
-    static boolean isBackward(Way way, OsmConvertDefaults.OsmWayDefaults defaults) {
+    static boolean isBackward(Way way, OsmConvertDefaults.OsmWayDefaults defaults, int filterHierarchy) {
         boolean backward;
         if (defaults != null) {
             backward = !defaults.oneway;
@@ -45,7 +45,7 @@ public class LinkConversionRules {
             } else if (way.hasTag("oneway", "no")) {
                 backward = true;
             }
-            if (defaults.hierarchy > Preferences.getMatsimFilterHierarchy()) {
+            if (defaults.hierarchy > filterHierarchy) {
                 backward = false;
             }
             if (way.hasTag("access", "no")) {
@@ -57,7 +57,7 @@ public class LinkConversionRules {
         return backward;
     }
 
-    static boolean isForward(Way way, OsmConvertDefaults.OsmWayDefaults defaults) {
+    static boolean isForward(Way way, OsmConvertDefaults.OsmWayDefaults defaults, int filterHierarchy) {
         boolean forward;
         if (defaults != null) {
             if (defaults.oneway) {
@@ -73,7 +73,7 @@ public class LinkConversionRules {
             } else if (way.hasTag("oneway", "no")) {
                 forward = true;
             }
-            if (defaults.hierarchy > Preferences.getMatsimFilterHierarchy()) {
+            if (defaults.hierarchy > filterHierarchy) {
                 forward = false;
             }
             if (way.hasTag("access", "no")) {
@@ -87,16 +87,16 @@ public class LinkConversionRules {
 
     static Set<String> getModes(Way way, OsmConvertDefaults.OsmWayDefaults defaults) {
         Set<String> modes = null;
-        if (way.getKeys().containsKey(MODES)) {
-            modes = new HashSet<>(Arrays.asList(way.getKeys().get(MODES).split(";")));
+        if (way.hasKey(MODES)) {
+            modes = new HashSet<>(Arrays.asList(way.get(MODES).split(";")));
         }
         if (defaults != null) {
             if (modes == null) {
                 modes = new HashSet<>();
-                if (way.getKeys().containsKey(NetworkModel.TAG_RAILWAY)) {
+                if (way.hasKey(NetworkModel.TAG_RAILWAY)) {
                     modes.add(TransportMode.pt);
                 }
-                if (way.getKeys().containsKey(NetworkModel.TAG_HIGHWAY)) {
+                if (way.hasKey(NetworkModel.TAG_HIGHWAY)) {
                     modes.add(TransportMode.car);
                 }
             }
@@ -106,8 +106,8 @@ public class LinkConversionRules {
 
     static Double getCapacity(Way way, OsmConvertDefaults.OsmWayDefaults defaults, Double nofLanesPerDirection) {
         Double capacity = null;
-        if (way.getKeys().containsKey(CAPACITY)) {
-            capacity = parseDoubleIfPossible(way.getKeys().get(CAPACITY));
+        if (way.hasKey(CAPACITY)) {
+            capacity = parseDoubleIfPossible(way.get(CAPACITY));
         }
         if (defaults != null) {
             if (capacity == null) {
@@ -119,14 +119,14 @@ public class LinkConversionRules {
 
     static Double getLanesPerDirection(Way way, OsmConvertDefaults.OsmWayDefaults defaults, boolean forward, boolean backward) {
         Double nofLanesPerDirection = null;
-        if (way.getKeys().containsKey(PERMLANES)) {
-            nofLanesPerDirection = parseDoubleIfPossible(way.getKeys().get(PERMLANES));
+        if (way.hasKey(PERMLANES)) {
+            nofLanesPerDirection = parseDoubleIfPossible(way.get(PERMLANES));
         }
         if (defaults != null) {
             if (nofLanesPerDirection == null) {
                 nofLanesPerDirection = defaults.lanesPerDirection;
-                if (way.getKeys().containsKey("lanes")) {
-                    Double noOfLanes = parseDoubleIfPossible(way.getKeys().get("lanes"));
+                if (way.hasKey("lanes")) {
+                    Double noOfLanes = parseDoubleIfPossible(way.get("lanes"));
                     if (noOfLanes != null) {
                         if (forward && backward) {
                             nofLanesPerDirection = noOfLanes / 2.0;
@@ -142,14 +142,14 @@ public class LinkConversionRules {
 
     static Double getFreespeed(Way way, OsmConvertDefaults.OsmWayDefaults defaults) {
         Double freespeed = null;
-        if (way.getKeys().containsKey(FREESPEED)) {
-            freespeed = parseDoubleIfPossible(way.getKeys().get(FREESPEED));
+        if (way.hasKey(FREESPEED)) {
+            freespeed = parseDoubleIfPossible(way.get(FREESPEED));
         }
         if (freespeed == null) {
             if (defaults != null) {
                 freespeed = defaults.freespeed;
-                if (way.getKeys().containsKey("maxspeed")) {
-                    Double maxspeedInKmH = parseDoubleIfPossible(way.getKeys().get("maxspeed"));
+                if (way.hasKey("maxspeed")) {
+                    Double maxspeedInKmH = parseDoubleIfPossible(way.get("maxspeed"));
                     if (maxspeedInKmH != null) {
                         freespeed = maxspeedInKmH / 3.6; // convert km/h to m/s
                     }
@@ -160,15 +160,14 @@ public class LinkConversionRules {
     }
 
 
-    static String getType(Way way, OsmConvertDefaults.OsmWayDefaults defaults) {
+    static String getType(Way way, Double freespeed) {
         String type = null;
-        if (way.getKeys().containsKey(TYPE)) {
-            type = way.getKeys().get(TYPE);
+        if (way.hasKey(TYPE)) {
+            type = way.get(TYPE);
         }
         if (type == null) {
-            if (way.getKeys().containsKey("highway")) {
-                type = way.getKeys().get("highway");
-                Double freespeed = getFreespeed(way, defaults);
+            if (way.hasKey("highway")) {
+                type = way.get("highway");
                 if (type != null && freespeed != null) {
                     type = String.format("%s_%d", type, Math.round(freespeed * 3.6));
                 }
@@ -178,23 +177,14 @@ public class LinkConversionRules {
         return type;
     }
 
-    static boolean isMatsimWay(Way way) {
-        final OsmConvertDefaults.OsmWayDefaults defaults = getWayDefaults(way);
-
-        final boolean forward = isForward(way, defaults);
-        final boolean backward = isBackward(way, defaults);
-        final Double freespeed = getFreespeed(way, defaults);
-        final Double nofLanesPerDirection = getLanesPerDirection(way, defaults, forward, backward);
-        final Double capacity = getCapacity(way, defaults, nofLanesPerDirection);
-        final Set<String> modes = getModes(way, defaults);
-
-        return capacity != null && freespeed != null && nofLanesPerDirection != null && modes != null;
+    static boolean isMatsimWay(Way way, ConversionSettings settings) {
+        return WayProfile.of(way, settings).isMatsimWay();
     }
 
     static Double getTaggedLength(Way way) {
         Double taggedLength = null;
-        if (way.getKeys().containsKey(LENGTH)) {
-            taggedLength = parseDoubleIfPossible(way.getKeys().get(LENGTH));
+        if (way.hasKey(LENGTH)) {
+            taggedLength = parseDoubleIfPossible(way.get(LENGTH));
         }
         return taggedLength;
     }
@@ -207,14 +197,21 @@ public class LinkConversionRules {
         }
     }
 
-    static OsmConvertDefaults.OsmWayDefaults getWayDefaults(Way way) {
-        String wayType = null;
-        if (way.getKeys().containsKey(NetworkModel.TAG_HIGHWAY)) {
-            wayType = way.getKeys().get(NetworkModel.TAG_HIGHWAY);
-        } else if (way.getKeys().containsKey(NetworkModel.TAG_RAILWAY)) {
-            wayType = way.getKeys().get(NetworkModel.TAG_RAILWAY);
-        }
-        return wayType != null ? OsmConvertDefaults.getWayDefaults().get(wayType) : null;
+    static OsmConvertDefaults.OsmWayDefaults getWayDefaults(Way way, Map<String, OsmConvertDefaults.OsmWayDefaults> wayDefaults) {
+        String wayType = getWayType(way);
+        return wayType != null ? wayDefaults.get(wayType) : null;
+    }
+
+    /**
+     * Returns the type under which the defaults for the given way are looked up,
+     * or null if the way is neither a highway nor a railway.
+     */
+    static String getWayType(Way way) {
+        String wayType = way.get(NetworkModel.TAG_HIGHWAY);
+        if (wayType == null) {
+            wayType = way.get(NetworkModel.TAG_RAILWAY);
+        }
+        return wayType;
     }
 
     /**
@@ -223,17 +220,16 @@ public class LinkConversionRules {
     Transport Planning
     (https://link.springer.com/content/pdf/10.1007%2Fs11067-017-9378-6.pdf)
     */
-    static String getHbefaType(Way way, OsmConvertDefaults.OsmWayDefaults defaults) {
+    static String getHbefaType(Way way, Double freespeed) {
 
         String hbefaType = null;
-        if (way.getKeys().containsKey(HBEFA)) {
-            hbefaType = way.getKeys().get(HBEFA);
+        if (way.hasKey(HBEFA)) {
+            hbefaType = way.get(HBEFA);
         }
 
         if (hbefaType == null) {
-            Double freespeed = getFreespeed(way, defaults);
-            String highway = way.getKeys().get("highway");
-            if (way.getKeys().containsKey("highway") && freespeed != null) {
+            String highway = way.get("highway");
+            if (way.hasKey("highway") && freespeed != null) {
 
                 if (highway.equals("motorway") || highway.equals("motorway_link")) {
                     hbefaType = String.format("%s/%d", "Urban/Motor", Math.round(freespeed * 3.6));
@@ -0,0 +1,232 @@
+package org.matsim.contrib.josm.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/**
+ * Columnar storage for the attributes of the links of a {@link NetworkModel}.
+ * Numbers are kept in primitive arrays, mode sets and strings as codes into
+ * dictionaries, so scans over all links run over contiguous memory and equal
+ * values are only stored once. Missing numbers are stored as NaN.
+ *
+ * Each link occupies one slot, see {@link MLink#attach(LinkStore)}. Slots of
+ * removed links are reused, except while the store is pinned by a snapshot
+ * which may still read them, see {@link #pin()}. Changing the slots is
+ * synchronized for that, reading them is not.
+ */
+class LinkStore {
+
+	static final int NONE = -1;
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	private double[] length = new double[INITIAL_CAPACITY];
+	private double[] freespeed = new double[INITIAL_CAPACITY];
+	private double[] capacity = new double[INITIAL_CAPACITY];
+	private double[] lanes = new double[INITIAL_CAPACITY];
+	private int[] modes = new int[INITIAL_CAPACITY];
+	private int[] type = new int[INITIAL_CAPACITY];
+	private int[] hbefaType = new int[INITIAL_CAPACITY];
+
+	// slots in use, plus the free ones below
+	private int size = 0;
+	private int[] free = new int[INITIAL_CAPACITY];
+	private int freeCount = 0;
+	// removed while pinned, free again when the last pin is released
+	private int[] retained = new int[0];
+	private int retainedCount = 0;
+	private int pins = 0;
+
+	private final Dictionary<Set<String>> modeSets = new Dictionary<>(set -> Collections.unmodifiableSet(new HashSet<>(set)));
+	private final Dictionary<String> strings = new Dictionary<>(UnaryOperator.identity());
+
+	synchronized int add(double length, double freespeed, double capacity, double lanes, Set<String> modes, String type, String hbefaType) {
+		int index;
+		if (freeCount > 0) {
+			index = free[--freeCount];
+		} else {
+			if (size == this.length.length) {
+				grow();
+			}
+			index = size++;
+		}
+		this.length[index] = length;
+		this.freespeed[index] = freespeed;
+		this.capacity[index] = capacity;
+		this.lanes[index] = lanes;
+		setModes(index, modes);
+		setType(index, type);
+		setHbefaType(index, hbefaType);
+		return index;
+	}
+
+	synchronized void remove(int index) {
+		if (pins > 0) {
+			if (retainedCount == retained.length) {
+				retained = Arrays.copyOf(retained, Math.max(INITIAL_CAPACITY, retained.length * 2));
+			}
+			retained[retainedCount++] = index;
+		} else {
+			if (freeCount == free.length) {
+				free = Arrays.copyOf(free, free.length * 2);
+			}
+			free[freeCount++] = index;
+		}
+	}
+
+	/**
+	 * Keeps the slots of links removed from now on from being reused, so that
+	 * the attributes of the links a snapshot refers to stay where they are.
+	 */
+	synchronized void pin() {
+		pins++;
+	}
+
+	synchronized void unpin() {
+		pins--;
+		if (pins == 0) {
+			for (int i = 0; i < retainedCount; i++) {
+				remove(retained[i]);
+			}
+			retainedCount = 0;
+		}
+	}
+
+	/**
+	 * Returns the number of links in the store.
+	 */
+	synchronized int getCount() {
+		return size - freeCount - retainedCount;
+	}
+
+	private void grow() {
+		int newCapacity = length.length * 2;
+		length = Arrays.copyOf(length, newCapacity);
+		freespeed = Arrays.copyOf(freespeed, newCapacity);
+		capacity = Arrays.copyOf(capacity, newCapacity);
+		lanes = Arrays.copyOf(lanes, newCapacity);
+		modes = Arrays.copyOf(modes, newCapacity);
+		type = Arrays.copyOf(type, newCapacity);
+		hbefaType = Arrays.copyOf(hbefaType, newCapacity);
+	}
+
+	double getLength(int index) {
+		return length[index];
+	}
+
+	void setLength(int index, double value) {
+		length[index] = value;
+	}
+
+	double getFreespeed(int index) {
+		return freespeed[index];
+	}
+
+	void setFreespeed(int index, double value) {
+		freespeed[index] = value;
+	}
+
+	double getCapacity(int index) {
+		return capacity[index];
+	}
+
+	void setCapacity(int index, double value) {
+		capacity[index] = value;
+	}
+
+	double getLanes(int index) {
+		return lanes[index];
+	}
+
+	void setLanes(int index, double value) {
+		lanes[index] = value;
+	}
+
+	/**
+	 * Returns the code of the mode set of the link, see
+	 * {@link #getModeSet(int)}. Links with equal mode sets have the same code.
+	 */
+	int getModesCode(int index) {
+		return modes[index];
+	}
+
+	Set<String> getModeSet(int code) {
+		return modeSets.get(code);
+	}
+
+	Set<String> getModes(int index) {
+		return modeSets.get(modes[index]);
+	}
+
+	void setModes(int index, Set<String> value) {
+		modes[index] = modeSets.code(value);
+	}
+
+	/**
+	 * Returns the code of the type of the link, see {@link #getString(int)}.
+	 */
+	int getTypeCode(int index) {
+		return type[index];
+	}
+
+	String getType(int index) {
+		return strings.get(type[index]);
+	}
+
+	void setType(int index, String value) {
+		type[index] = strings.code(value);
+	}
+
+	String getHbefaType(int index) {
+		return strings.get(hbefaType[index]);
+	}
+
+	void setHbefaType(int index, String value) {
+		hbefaType[index] = strings.code(value);
+	}
+
+	String getString(int code) {
+		return strings.get(code);
+	}
+
+	// Maps each distinct value to a small int. Only grows, but there are few
+	// distinct mode sets and types in any network. Snapshots look up values
+	// while the conversion adds new ones.
+	private static final class Dictionary<T> {
+
+		private final List<T> values = new ArrayList<>();
+		private final Map<T, Integer> codes = new HashMap<>();
+		private final UnaryOperator<T> copy;
+
+		Dictionary(UnaryOperator<T> copy) {
+			this.copy = copy;
+		}
+
+		synchronized int code(T value) {
+			if (value == null) {
+				return NONE;
+			}
+			Integer code = codes.get(value);
+			if (code == null) {
+				T stored = copy.apply(value);
+				code = values.size();
+				values.add(stored);
+				codes.put(stored, code);
+			}
+			return code;
+		}
+
+		synchronized T get(int code) {
+			return code == NONE ? null : values.get(code);
+		}
+
+	}
+
+}
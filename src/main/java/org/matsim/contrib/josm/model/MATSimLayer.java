@@ -58,6 +58,14 @@ public class MATSimLayer extends OsmDataLayer {
         return SaveActionBase.createAndOpenSaveFileChooser(tr("Save MATSim network file"), "xml");
     }
 
+    @Override
+    public synchronized void destroy() {
+        super.destroy();
+        // otherwise the listeners of the model keep it, and with it the data
+        // set, alive
+        networkModel.release();
+    }
+
     public NetworkModel getNetworkModel() {
         return networkModel;
     }
@@ -1,25 +1,34 @@
 package org.matsim.contrib.josm.model;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.network.Link;
+import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.data.osm.WaySegment;
 
 public class MLink {
 	private boolean reverseWayDirection = false;
-	private Double length;
-	private Double freespeed;
-	private Double capacity;
-	private Double numberOfLanes;
-	private Set<String> allowedModes;
 	private String origId;
-	private List<WaySegment> segments;
-	private MNode fromNode;
-	private MNode toNode;
-	private String type;
-	private String hbefaType;
+	// created on first use, as looking up the id in the global pool is not free
+	private Id<Link> id;
+	// The link runs along segmentCount segments of the way, starting with
+	// segment firstSegment. The WaySegments are only created on request.
+	private Way way;
+	private int firstSegment;
+	private int segmentCount;
+	private final MNode fromNode;
+	private final MNode toNode;
+
+	// While the link belongs to a network model, its attributes are kept in
+	// the link store of the model. Before that, and after it was removed, they
+	// are kept in an object of its own. Snapshots may read the link on another
+	// thread, so the attributes are in place before the store changes.
+	private volatile LinkStore store;
+	private int index;
+	private Attributes attributes = new Attributes();
 
 	public MLink(MNode fromNode, MNode toNode) {
 
@@ -27,80 +36,215 @@ public class MLink {
 		this.toNode = toNode;
 	}
 
+	/**
+	 * Moves the attributes of the link into the store.
+	 */
+	void attach(LinkStore store) {
+		if (this.store != null) {
+			detach();
+		}
+		index = store.add(attributes.length, attributes.freespeed, attributes.capacity, attributes.numberOfLanes, attributes.allowedModes,
+				attributes.type, attributes.hbefaType);
+		this.store = store;
+		attributes = null;
+	}
+
+	/**
+	 * Moves the attributes of the link out of its store again, so that the
+	 * slot can be reused while the link may still be referenced elsewhere.
+	 */
+	void detach() {
+		LinkStore oldStore = store;
+		if (oldStore != null) {
+			Attributes detached = new Attributes();
+			detached.length = oldStore.getLength(index);
+			detached.freespeed = oldStore.getFreespeed(index);
+			detached.capacity = oldStore.getCapacity(index);
+			detached.numberOfLanes = oldStore.getLanes(index);
+			detached.allowedModes = oldStore.getModes(index);
+			detached.type = oldStore.getType(index);
+			detached.hbefaType = oldStore.getHbefaType(index);
+			attributes = detached;
+			store = null;
+			oldStore.remove(index);
+		}
+	}
+
+	/**
+	 * Returns a copy of the link between the given nodes, with the attributes
+	 * of this link, which is not in any store yet.
+	 */
+	MLink withNodes(MNode fromNode, MNode toNode) {
+		MLink copy = new MLink(fromNode, toNode);
+		copy.reverseWayDirection = reverseWayDirection;
+		copy.origId = origId;
+		copy.id = id;
+		copy.setSegments(way, firstSegment, segmentCount);
+		copy.setLength(getLength());
+		copy.setFreespeed(getFreespeed());
+		copy.setCapacity(getCapacity());
+		copy.setNumberOfLanes(getNumberOfLanes());
+		copy.setAllowedModes(getAllowedModes());
+		copy.setType(getType());
+		copy.setHbefaType(getHbefaType());
+		return copy;
+	}
+
+	/**
+	 * The slot of the link in the store of its network model.
+	 */
+	int getStoreIndex() {
+		return index;
+	}
+
 	public void setLength(Double length) {
-		this.length = length;
+		if (store != null) {
+			store.setLength(index, unbox(length));
+		} else {
+			attributes.length = unbox(length);
+		}
 	}
 
 	public Double getLength() {
-		return length;
+		LinkStore linkStore = store;
+		return box(linkStore != null ? linkStore.getLength(index) : attributes.length);
 	}
 
 	public void setFreespeed(Double freespeed) {
-		this.freespeed = freespeed;
+		if (store != null) {
+			store.setFreespeed(index, unbox(freespeed));
+		} else {
+			attributes.freespeed = unbox(freespeed);
+		}
 	}
 
 	public Double getFreespeed() {
-		return freespeed;
+		LinkStore linkStore = store;
+		return box(linkStore != null ? linkStore.getFreespeed(index) : attributes.freespeed);
 	}
 
 	public void setCapacity(Double capacity) {
-		this.capacity = capacity;
+		if (store != null) {
+			store.setCapacity(index, unbox(capacity));
+		} else {
+			attributes.capacity = unbox(capacity);
+		}
 	}
 
 	public Double getCapacity() {
-		return capacity;
+		LinkStore linkStore = store;
+		return box(linkStore != null ? linkStore.getCapacity(index) : attributes.capacity);
 	}
 
 	public void setNumberOfLanes(Double numberOfLanes) {
-		this.numberOfLanes = numberOfLanes;
+		if (store != null) {
+			store.setLanes(index, unbox(numberOfLanes));
+		} else {
+			attributes.numberOfLanes = unbox(numberOfLanes);
+		}
 	}
 
 	public Double getNumberOfLanes() {
-		return numberOfLanes;
+		LinkStore linkStore = store;
+		return box(linkStore != null ? linkStore.getLanes(index) : attributes.numberOfLanes);
 	}
 
 	public void setAllowedModes(Set<String> allowedModes) {
-		this.allowedModes = allowedModes;
+		if (store != null) {
+			store.setModes(index, allowedModes);
+		} else {
+			attributes.allowedModes = allowedModes;
+		}
 	}
 
+	/**
+	 * Links with the same modes share the returned set, so it must not be
+	 * modified.
+	 */
 	public Set<String> getAllowedModes() {
-		return allowedModes;
+		LinkStore linkStore = store;
+		return linkStore != null ? linkStore.getModes(index) : attributes.allowedModes;
 	}
 
 	public void setOrigId(String origId) {
 		this.origId = origId;
+		this.id = null;
 	}
 
 	public String getOrigId() {
 		return origId;
 	}
 
-	public void setSegments(List<WaySegment> segments) {
-		this.segments = segments;
+	void setSegments(Way way, int firstSegment, int segmentCount) {
+		this.way = way;
+		this.firstSegment = firstSegment;
+		this.segmentCount = segmentCount;
 	}
 
 	public List<WaySegment> getSegments() {
+		if (way == null) {
+			return null;
+		}
+		List<WaySegment> segments = new ArrayList<>(segmentCount);
+		for (int i = firstSegment; i < firstSegment + segmentCount; i++) {
+			segments.add(new WaySegment(way, i));
+		}
 		return segments;
 	}
 
+	/**
+	 * Returns the way the link was converted from, or null.
+	 */
+	public Way getWay() {
+		return way;
+	}
+
+	/**
+	 * Index of the first segment of the way the link runs along. The link
+	 * spans the nodes from this index to this index plus
+	 * {@link #getSegmentCount()}.
+	 */
+	public int getFirstSegment() {
+		return firstSegment;
+	}
+
+	public int getSegmentCount() {
+		return segmentCount;
+	}
+
 	public void setType(String type) {
-		this.type = type;
+		if (store != null) {
+			store.setType(index, type);
+		} else {
+			attributes.type = type;
+		}
 	}
 
 	public String getType() {
-		return type;
+		LinkStore linkStore = store;
+		return linkStore != null ? linkStore.getType(index) : attributes.type;
 	}
 
 	public void setHbefaType(String hbefaType) {
-		this.hbefaType = hbefaType;
+		if (store != null) {
+			store.setHbefaType(index, hbefaType);
+		} else {
+			attributes.hbefaType = hbefaType;
+		}
 	}
 
 	public String getHbefaType() {
-		return hbefaType;
+		LinkStore linkStore = store;
+		return linkStore != null ? linkStore.getHbefaType(index) : attributes.hbefaType;
 	}
 
 	public Id<Link> getId() {
-		return Id.createLinkId(getOrigId());
+		Id<Link> linkId = id;
+		if (linkId == null) {
+			linkId = Id.createLinkId(getOrigId());
+			id = linkId;
+		}
+		return linkId;
 	}
 
 	public MNode getFromNode() {
@@ -119,4 +263,23 @@ public class MLink {
 		this.reverseWayDirection = reverseWayDirection;
 	}
 
+	// The store has no nulls, missing numbers are NaN there.
+	private static double unbox(Double value) {
+		return value == null ? Double.NaN : value;
+	}
+
+	private static Double box(double value) {
+		return Double.isNaN(value) ? null : value;
+	}
+
+	private static final class Attributes {
+		double length = Double.NaN;
+		double freespeed = Double.NaN;
+		double capacity = Double.NaN;
+		double numberOfLanes = Double.NaN;
+		Set<String> allowedModes;
+		String type;
+		String hbefaType;
+	}
+
 }
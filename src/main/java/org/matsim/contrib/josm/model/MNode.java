@@ -5,8 +5,8 @@ import org.openstreetmap.josm.data.osm.Node;
 
 public class MNode {
 	private String origId;
-	private Coord coord;
-	private Node osmNode;
+	private final Coord coord;
+	private final Node osmNode;
 
 	public MNode(Node osmNode, Coord coord) {
 		this.osmNode = osmNode;
@@ -25,6 +25,16 @@ public class MNode {
 		return coord;
 	}
 
+	/**
+	 * Returns a copy of the node at the given coordinate. The coordinate of a
+	 * node never changes, as snapshots may still read it.
+	 */
+	MNode withCoord(Coord coord) {
+		MNode copy = new MNode(osmNode, coord);
+		copy.origId = origId;
+		return copy;
+	}
+
 	public Node getOsmNode() {
 		return osmNode;
 	}
@@ -0,0 +1,132 @@
+package org.matsim.contrib.josm.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.locationtech.jts.geom.Envelope;
+import org.openstreetmap.josm.data.ProjectionBounds;
+import org.openstreetmap.josm.data.osm.Relation;
+
+/**
+ * Summary of the changes to a {@link NetworkModel} which are delivered to its
+ * listeners in a single notification.
+ *
+ * Links and nodes are replaced when their primitives are converted again, so
+ * a changed way shows up with its old links as removed and its new links as
+ * added. Elements that are added and removed again within the same
+ * notification do not show up at all.
+ */
+public class NetworkChange {
+
+	private final Set<MLink> addedLinks = new HashSet<>();
+	private final Set<MLink> removedLinks = new HashSet<>();
+	private final Set<MNode> addedNodes = new HashSet<>();
+	private final Set<MNode> removedNodes = new HashSet<>();
+	private final Set<Relation> changedRoutes = new HashSet<>();
+	private final List<ProjectionBounds> changedBounds = new ArrayList<>();
+	private boolean everythingChanged = false;
+
+	void linksAdded(Collection<MLink> links, Envelope bounds) {
+		if (!everythingChanged) {
+			addedLinks.addAll(links);
+			boundsChanged(bounds);
+		}
+	}
+
+	void linksRemoved(Collection<MLink> links, Envelope bounds) {
+		if (!everythingChanged) {
+			for (MLink link : links) {
+				if (!addedLinks.remove(link)) {
+					removedLinks.add(link);
+				}
+			}
+			boundsChanged(bounds);
+		}
+	}
+
+	private void boundsChanged(Envelope bounds) {
+		if (!bounds.isNull()) {
+			changedBounds.add(new ProjectionBounds(bounds.getMinX(), bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY()));
+		}
+	}
+
+	void nodeAdded(MNode node) {
+		if (!everythingChanged) {
+			addedNodes.add(node);
+		}
+	}
+
+	void nodeRemoved(MNode node) {
+		if (!everythingChanged && !addedNodes.remove(node)) {
+			removedNodes.add(node);
+		}
+	}
+
+	void routeChanged(Relation relation) {
+		if (!everythingChanged) {
+			changedRoutes.add(relation);
+		}
+	}
+
+	// No need to keep track of single elements any more.
+	void everythingChanged() {
+		everythingChanged = true;
+		addedLinks.clear();
+		removedLinks.clear();
+		addedNodes.clear();
+		removedNodes.clear();
+		changedRoutes.clear();
+		changedBounds.clear();
+	}
+
+	/**
+	 * Whether the whole network may have changed, e.g. because it was
+	 * converted again or reprojected. The sets of changed elements are empty
+	 * then, listeners should look at the complete model instead.
+	 */
+	public boolean isEverythingChanged() {
+		return everythingChanged;
+	}
+
+	public Set<MLink> getAddedLinks() {
+		return Collections.unmodifiableSet(addedLinks);
+	}
+
+	public Set<MLink> getRemovedLinks() {
+		return Collections.unmodifiableSet(removedLinks);
+	}
+
+	public Set<MNode> getAddedNodes() {
+		return Collections.unmodifiableSet(addedNodes);
+	}
+
+	public Set<MNode> getRemovedNodes() {
+		return Collections.unmodifiableSet(removedNodes);
+	}
+
+	/**
+	 * Returns the bounds of the links before and after the change, in
+	 * projected coordinates, e.g. to redraw only what changed. Also covers
+	 * links which were added and removed again.
+	 */
+	public List<ProjectionBounds> getChangedBounds() {
+		return Collections.unmodifiableList(changedBounds);
+	}
+
+	/**
+	 * Returns the route relations which were converted again.
+	 */
+	public Set<Relation> getChangedRoutes() {
+		return Collections.unmodifiableSet(changedRoutes);
+	}
+
+	public boolean isEmpty() {
+		return !everythingChanged && addedLinks.isEmpty() && removedLinks.isEmpty() && addedNodes.isEmpty() && removedNodes.isEmpty()
+				&& changedRoutes.isEmpty();
+	}
+
+}
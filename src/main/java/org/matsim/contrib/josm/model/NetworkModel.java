@@ -2,26 +2,40 @@ package org.matsim.contrib.josm.model;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import org.locationtech.jts.geom.Envelope;
 import org.matsim.api.core.v01.Coord;
 import org.matsim.contrib.josm.gui.Preferences;
 import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
+import org.openstreetmap.josm.data.ProjectionBounds;
 import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.Relation;
 import org.openstreetmap.josm.data.osm.RelationMember;
 import org.openstreetmap.josm.data.osm.Way;
-import org.openstreetmap.josm.data.osm.WaySegment;
 import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
 import org.openstreetmap.josm.data.osm.event.DataChangedEvent;
 import org.openstreetmap.josm.data.osm.event.DataSetListener;
@@ -32,13 +46,15 @@ import org.openstreetmap.josm.data.osm.event.RelationMembersChangedEvent;
 import org.openstreetmap.josm.data.osm.event.TagsChangedEvent;
 import org.openstreetmap.josm.data.osm.event.WayNodesChangedEvent;
 import org.openstreetmap.josm.data.osm.visitor.OsmPrimitiveVisitor;
+import org.openstreetmap.josm.data.projection.ProjectionChangeListener;
 import org.openstreetmap.josm.data.projection.ProjectionRegistry;
 import org.openstreetmap.josm.spi.preferences.IPreferences;
-import org.openstreetmap.josm.tools.Pair;
+import org.openstreetmap.josm.spi.preferences.PreferenceChangedListener;
 
 import javafx.beans.property.ReadOnlyMapProperty;
 import javafx.beans.property.ReadOnlyMapWrapper;
 import javafx.collections.FXCollections;
+import org.openstreetmap.josm.tools.Logging;
 import org.openstreetmap.josm.tools.Utils;
 
 /**
@@ -50,19 +66,18 @@ public class NetworkModel {
 
 	private class NetworkModelDataSetListener implements DataSetListener {
 
+		// Events which have not been handed to the conversion worker yet.
+		private final List<AbstractDatasetChangedEvent> pendingEvents = new ArrayList<>();
+
 		@Override
 		public void dataChanged(DataChangedEvent dataChangedEvent) {
-			visitAll();
-			fireNotifyDataChanged();
+			handle(dataChangedEvent);
 		}
 
 		@Override
 		// convert all referred elements of the moved node
 		public void nodeMoved(NodeMovedEvent moved) {
-			AggregatePrimitives aggregatePrimitivesVisitor = new AggregatePrimitives();
-			aggregatePrimitivesVisitor.visit(moved.getNode());
-			aggregatePrimitivesVisitor.finished();
-			fireNotifyDataChanged();
+			handle(moved);
 		}
 
 		@Override
@@ -72,106 +87,136 @@ public class NetworkModel {
 		@Override
 		// convert added primitive as well as the ones connected to it
 		public void primitivesAdded(PrimitivesAddedEvent added) {
-			AggregatePrimitives aggregatePrimitivesVisitor = new AggregatePrimitives();
-			for (OsmPrimitive primitive : added.getPrimitives()) {
-				if (primitive instanceof Way) {
-					Way way = (Way) primitive;
-					aggregatePrimitivesVisitor.visit(way);
-					for (Node node : way.getNodes()) {
-						aggregatePrimitivesVisitor.visit(node);
-					}
-				} else if (primitive instanceof Relation) {
-					aggregatePrimitivesVisitor.visit((Relation) primitive);
-				} else if (primitive instanceof org.openstreetmap.josm.data.osm.Node) {
-					aggregatePrimitivesVisitor.visit((org.openstreetmap.josm.data.osm.Node) primitive);
-				}
-			}
-			aggregatePrimitivesVisitor.finished();
-			fireNotifyDataChanged();
+			handle(added);
 		}
 
 		@Override
 		// delete any MATSim reference to the removed element and invoke new
 		// conversion of referring elements
 		public void primitivesRemoved(PrimitivesRemovedEvent primitivesRemoved) {
-			AggregatePrimitives aggregatePrimitivesVisitor = new AggregatePrimitives();
-			for (OsmPrimitive primitive : primitivesRemoved.getPrimitives()) {
-				if (primitive instanceof org.openstreetmap.josm.data.osm.Node) {
-					aggregatePrimitivesVisitor.visit(((org.openstreetmap.josm.data.osm.Node) primitive));
-				} else if (primitive instanceof Way) {
-					aggregatePrimitivesVisitor.visit((Way) primitive);
-				} else if (primitive instanceof Relation) {
-					aggregatePrimitivesVisitor.visit((Relation) primitive);
-				}
-			}
-			aggregatePrimitivesVisitor.finished();
-			fireNotifyDataChanged();
+			handle(primitivesRemoved);
 		}
 
 		@Override
 		// convert affected relation
 		public void relationMembersChanged(RelationMembersChangedEvent arg0) {
-			AggregatePrimitives aggregatePrimitivesVisitor = new AggregatePrimitives();
-			aggregatePrimitivesVisitor.visit(arg0.getRelation());
-			for (OsmPrimitive primitive : arg0.getRelation().getMemberPrimitivesList()) {
-				if (primitive instanceof org.openstreetmap.josm.data.osm.Node) {
-					aggregatePrimitivesVisitor.visit(((org.openstreetmap.josm.data.osm.Node) primitive));
-				} else if (primitive instanceof Way) {
-					aggregatePrimitivesVisitor.visit((Way) primitive);
-				} else if (primitive instanceof Relation) {
-					aggregatePrimitivesVisitor.visit((Relation) primitive);
-				}
-			}
-			aggregatePrimitivesVisitor.finished();
-			fireNotifyDataChanged();
+			handle(arg0);
 		}
 
 		@Override
 		// convert affected elements and other connected elements
 		public void tagsChanged(TagsChangedEvent changed) {
+			handle(changed);
+		}
+
+		@Override
+		// convert affected elements and other connected elements
+		public void wayNodesChanged(WayNodesChangedEvent changed) {
+			handle(changed);
+		}
+
+		// Without background conversion, the event is converted right away.
+		// Otherwise it is queued, and all events which arrive until the worker
+		// gets to them are converted in one batch.
+		private void handle(AbstractDatasetChangedEvent event) {
+			if (!background) {
+				convert(() -> convertEvents(Collections.singletonList(event)), false);
+				return;
+			}
+			boolean submit;
+			synchronized (pendingEvents) {
+				submit = pendingEvents.isEmpty();
+				pendingEvents.add(event);
+			}
+			if (submit) {
+				convert(() -> {
+					List<AbstractDatasetChangedEvent> events;
+					synchronized (pendingEvents) {
+						events = new ArrayList<>(pendingEvents);
+						pendingEvents.clear();
+					}
+					convertEvents(events);
+				}, false);
+			}
+		}
+
+		private void convertEvents(List<AbstractDatasetChangedEvent> events) {
 			AggregatePrimitives aggregatePrimitivesVisitor = new AggregatePrimitives();
-			for (OsmPrimitive primitive : changed.getPrimitives()) {
-				if (primitive instanceof Way) {
-					Way way = (Way) primitive;
-					aggregatePrimitivesVisitor.visit(way);
-					for (Node node : way.getNodes()) {
-						aggregatePrimitivesVisitor.visit(node);
+			for (AbstractDatasetChangedEvent event : events) {
+				// JOSM consolidates large batches of events into a single DataChangedEvent.
+				// If it still carries the original events, only convert what they touched.
+				if (event instanceof DataChangedEvent && ((DataChangedEvent) event).getEvents() == null) {
+					convertAll();
+					return;
+				}
+				collect(event, aggregatePrimitivesVisitor);
+			}
+			aggregatePrimitivesVisitor.finished();
+		}
+
+		// adds the primitives affected by a single event to the dirty set
+		private void collect(AbstractDatasetChangedEvent event, AggregatePrimitives aggregatePrimitivesVisitor) {
+			if (event instanceof NodeMovedEvent) {
+				aggregatePrimitivesVisitor.visit(((NodeMovedEvent) event).getNode());
+			} else if (event instanceof PrimitivesAddedEvent) {
+				for (OsmPrimitive primitive : event.getPrimitives()) {
+					if (primitive instanceof Way) {
+						Way way = (Way) primitive;
+						aggregatePrimitivesVisitor.visit(way);
+						for (Node node : way.getNodes()) {
+							aggregatePrimitivesVisitor.visit(node);
+						}
+					} else {
+						primitive.accept(aggregatePrimitivesVisitor);
 					}
-					aggregatePrimitivesVisitor.visit(way);
-					List<MLink> links = way2Links.get(way);
-					if (links != null) {
-						for (MLink link : links) {
-							aggregatePrimitivesVisitor.visit(link.getFromNode().getOsmNode());
-							aggregatePrimitivesVisitor.visit(link.getToNode().getOsmNode());
+				}
+			} else if (event instanceof PrimitivesRemovedEvent) {
+				for (OsmPrimitive primitive : event.getPrimitives()) {
+					primitive.accept(aggregatePrimitivesVisitor);
+				}
+			} else if (event instanceof RelationMembersChangedEvent) {
+				Relation relation = ((RelationMembersChangedEvent) event).getRelation();
+				aggregatePrimitivesVisitor.visit(relation);
+				for (OsmPrimitive primitive : relation.getMemberPrimitivesList()) {
+					primitive.accept(aggregatePrimitivesVisitor);
+				}
+			} else if (event instanceof TagsChangedEvent) {
+				for (OsmPrimitive primitive : event.getPrimitives()) {
+					if (primitive instanceof Way) {
+						Way way = (Way) primitive;
+						aggregatePrimitivesVisitor.visit(way);
+						for (Node node : way.getNodes()) {
+							aggregatePrimitivesVisitor.visit(node);
 						}
+						visitLinkEnds(way, aggregatePrimitivesVisitor);
+					} else {
+						primitive.accept(aggregatePrimitivesVisitor);
 					}
-				} else if (primitive instanceof org.openstreetmap.josm.data.osm.Node) {
-					aggregatePrimitivesVisitor.visit((org.openstreetmap.josm.data.osm.Node) primitive);
-				} else if (primitive instanceof Relation) {
-					aggregatePrimitivesVisitor.visit((Relation) primitive);
+				}
+			} else if (event instanceof WayNodesChangedEvent) {
+				Way way = ((WayNodesChangedEvent) event).getChangedWay();
+				for (Node node : way.getNodes()) {
+					aggregatePrimitivesVisitor.visit(node);
+				}
+				visitLinkEnds(way, aggregatePrimitivesVisitor);
+				aggregatePrimitivesVisitor.visit(way);
+			} else if (event instanceof DataChangedEvent) {
+				// without nested events, convertEvents converted everything instead
+				for (AbstractDatasetChangedEvent nested : ((DataChangedEvent) event).getEvents()) {
+					collect(nested, aggregatePrimitivesVisitor);
 				}
 			}
-			aggregatePrimitivesVisitor.finished();
-			fireNotifyDataChanged();
 		}
 
-		@Override
-		// convert affected elements and other connected elements
-		public void wayNodesChanged(WayNodesChangedEvent changed) {
-			AggregatePrimitives aggregatePrimitivesVisitor = new AggregatePrimitives();
-			for (Node node : changed.getChangedWay().getNodes()) {
-				aggregatePrimitivesVisitor.visit(node);
-			}
-			List<MLink> links = way2Links.get(changed.getChangedWay());
+		// the nodes a way was split at before the change may not be part of it anymore
+		private void visitLinkEnds(Way way, AggregatePrimitives aggregatePrimitivesVisitor) {
+			List<MLink> links = way2Links.get(way);
 			if (links != null) {
 				for (MLink link : links) {
 					aggregatePrimitivesVisitor.visit(link.getFromNode().getOsmNode());
 					aggregatePrimitivesVisitor.visit(link.getToNode().getOsmNode());
 				}
 			}
-			aggregatePrimitivesVisitor.visit((changed.getChangedWay()));
-			aggregatePrimitivesVisitor.finished();
-			fireNotifyDataChanged();
 		}
 
 	}
@@ -184,8 +229,42 @@ public class NetworkModel {
 	private ReadOnlyMapWrapper<Relation, StopArea> stopAreas = new ReadOnlyMapWrapper<>(FXCollections.observableHashMap());
 	private ReadOnlyMapWrapper<Relation, Line> lines = new ReadOnlyMapWrapper<>(FXCollections.observableHashMap());
 	private ReadOnlyMapWrapper<Relation, Route> routes = new ReadOnlyMapWrapper<>(FXCollections.observableHashMap());
+	// The version which contains the last change to stopAreas, so routes know
+	// when to determine their stops again.
+	private volatile long stopAreasChanged = 0;
+	// The line each route in routes is currently assigned to.
+	private final Map<Route, Line> route2Line = new HashMap<>();
+	// Persistent copies of the maps above, changed along with them, so that
+	// taking a snapshot does not copy anything.
+	private PersistentMap<Node, MNode> persistentNodes = PersistentMap.empty();
+	private PersistentMap<Way, List<MLink>> persistentWay2Links;
+	private PersistentMap<Relation, StopArea> persistentStopAreas = PersistentMap.empty();
+	private PersistentMap<Relation, Line> persistentLines = PersistentMap.empty();
+	private PersistentMap<Relation, Route> persistentRoutes = PersistentMap.empty();
 	private DataSet data;
 	private Collection<ScenarioDataChangedListener> listeners = new ArrayList<>();
+	private final ProjectionChangeListener projectionChangeListener;
+	private final DataSetListener dataSetListener = new NetworkModelDataSetListener();
+	private final ConversionSettings settings;
+	private final IPreferences prefs;
+	private final PreferenceChangedListener preferenceChangedListener;
+	private SpatialIndex spatialIndex;
+	private final LinkStore linkStore = new LinkStore();
+	private final Object changeLock = new Object();
+	private NetworkChange pendingChange = new NetworkChange();
+	private Timer notificationTimer;
+	// Whether conversions run on a thread of their own. Read once, so a model
+	// does not switch modes while it is used.
+	private final boolean background;
+	// Whether the conversion thread may let edits in between the primitives
+	// of the conversion it runs, see yieldLock().
+	private boolean yieldable;
+	private int sinceYield;
+	private final ExecutorService executor;
+	private volatile Thread conversionThread;
+	// Counts the conversions, published with the snapshots.
+	private volatile long version = 0;
+	private volatile NetworkSnapshot snapshot;
 
 	public static NetworkModel createNetworkModel(DataSet data) {
 		Config config = ConfigUtils.createConfig();
@@ -194,20 +273,82 @@ public class NetworkModel {
 	}
 
 	public static NetworkModel createNetworkModel(DataSet data, Map<Way, List<MLink>> way2Links) {
-		return new NetworkModel(data, org.openstreetmap.josm.spi.preferences.Config.getPref(), way2Links);
+		return new NetworkModel(data, ConversionSettings.PREFERENCES, way2Links);
+	}
+
+	/**
+	 * Creates a model which converts according to the given settings. Unless
+	 * these are {@link ConversionSettings#PREFERENCES}, the model does not
+	 * depend on the preferences or the projection of JOSM, and notifies its
+	 * listeners right after each conversion.
+	 */
+	public static NetworkModel createNetworkModel(DataSet data, ConversionSettings settings) {
+		return new NetworkModel(data, settings, new HashMap<>());
+	}
+
+	public ConversionSettings getSettings() {
+		return settings;
 	}
 
 	public interface ScenarioDataChangedListener {
 		void notifyDataChanged();
+
+		/**
+		 * Called once for all changes within the notification delay. Listeners
+		 * which do not care about what changed only implement
+		 * {@link #notifyDataChanged()}.
+		 */
+		default void notifyDataChanged(NetworkChange change) {
+			notifyDataChanged();
+		}
 	}
 
 	public void removeListener(ScenarioDataChangedListener listener) {
 		listeners.remove(listener);
 	}
 
+	// Bulk edits cause many dataset events in a row. Only the notifications
+	// are collected and delivered together once the notification delay has
+	// passed; the events are still converted as they come, or in batches with
+	// background conversion.
 	void fireNotifyDataChanged() {
-		for (ScenarioDataChangedListener listener : listeners) {
-			listener.notifyDataChanged();
+		int delay = settings.isLive() ? Preferences.getNotificationDelay() : 0;
+		if (delay <= 0) {
+			if (background) {
+				// listeners expect to be called on the EDT
+				SwingUtilities.invokeLater(this::deliverChange);
+			} else {
+				deliverChange();
+			}
+			return;
+		}
+		synchronized (changeLock) {
+			if (notificationTimer == null) {
+				notificationTimer = new Timer(delay, e -> deliverChange());
+				notificationTimer.setRepeats(false);
+				notificationTimer.start();
+			}
+		}
+	}
+
+	private void deliverChange() {
+		NetworkChange change;
+		synchronized (changeLock) {
+			if (notificationTimer != null) {
+				notificationTimer.stop();
+				notificationTimer = null;
+			}
+			change = pendingChange;
+			pendingChange = new NetworkChange();
+		}
+		for (ScenarioDataChangedListener listener : new ArrayList<>(listeners)) {
+			listener.notifyDataChanged(change);
+		}
+	}
+
+	private void recordChange(Consumer<NetworkChange> record) {
+		synchronized (changeLock) {
+			record.accept(pendingChange);
 		}
 	}
 
@@ -215,38 +356,443 @@ public class NetworkModel {
 		listeners.add(listener);
 	}
 
-	private NetworkModel(DataSet data, IPreferences prefs, Map<Way, List<MLink>> way2Links) {
+	private NetworkModel(DataSet data, ConversionSettings settings, Map<Way, List<MLink>> way2Links) {
 		this.data = data;
-		this.data.addDataSetListener(new NetworkModelDataSetListener());
-		prefs.addPreferenceChangeListener(e -> {
-			if (e.getKey().equalsIgnoreCase("matsim_keepPaths")
+		this.settings = settings;
+		this.prefs = settings.isLive() ? org.openstreetmap.josm.spi.preferences.Config.getPref() : null;
+		this.background = settings.isLive() && Preferences.isBackgroundConversion();
+		this.data.addDataSetListener(dataSetListener);
+		this.executor = background ? Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "MATSim conversion");
+			thread.setDaemon(true);
+			conversionThread = thread;
+			return thread;
+		}) : null;
+		this.preferenceChangedListener = e -> {
+			if (e.getKey().startsWith("matsim_convertDefaults")) {
+				// The defaults may not have been reloaded yet, depending on the
+				// order in which the listeners were registered. Reloading twice
+				// does nothing.
+				OsmConvertDefaults.refresh();
+				Collection<String> wayTypes = OsmConvertDefaults.getWayTypes(e.getKey());
+				convert(() -> visitWayTypes(wayTypes), false);
+			} else if (e.getKey().equalsIgnoreCase("matsim_keepPaths")
 					|| e.getKey().equalsIgnoreCase("matsim_filterActive")
 					|| e.getKey().equalsIgnoreCase("matsim_filter_hierarchy")
-					|| e.getKey().equalsIgnoreCase("matsim_transit_lite")
-					|| e.getKey().startsWith("matsim_convertDefaults")) {
-				visitAll();
+					|| e.getKey().equalsIgnoreCase("matsim_transit_lite")) {
+				convert(this::convertAll, false);
+			} else {
+				fireNotifyDataChanged();
 			}
-			fireNotifyDataChanged();
-		});
-		ProjectionRegistry.addProjectionChangeListener((oldValue, newValue) -> {
-			visitAll();
-			fireNotifyDataChanged();
-		});
+		};
+		// The registry only keeps weak references to its listeners.
+		this.projectionChangeListener = (oldValue, newValue) -> convert(this::reprojectNodes, false);
+		if (settings.isLive()) {
+			prefs.addPreferenceChangeListener(preferenceChangedListener);
+			ProjectionRegistry.addProjectionChangeListener(projectionChangeListener);
+		}
 		this.way2Links = way2Links;
+		this.persistentWay2Links = PersistentMap.of(way2Links);
+		// e.g. links read from a network file
+		for (List<MLink> links : way2Links.values()) {
+			links.forEach(link -> link.attach(linkStore));
+		}
+		rebuildSpatialIndex();
+		if (background) {
+			publishSnapshot();
+		}
+	}
+
+	/**
+	 * Stops listening to the data set and to preference and projection
+	 * changes. The model is not updated anymore afterwards.
+	 */
+	public void release() {
+		data.removeDataSetListener(dataSetListener);
+		if (settings.isLive()) {
+			prefs.removePreferenceChangeListener(preferenceChangedListener);
+			ProjectionRegistry.removeProjectionChangeListener(projectionChangeListener);
+		}
+		synchronized (changeLock) {
+			if (notificationTimer != null) {
+				notificationTimer.stop();
+				notificationTimer = null;
+			}
+		}
+		if (executor != null) {
+			// conversions already queued still run
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Runs a conversion and notifies the listeners afterwards. With background
+	 * conversion, it runs on the conversion thread, holding the read lock of
+	 * the data set, and a new snapshot is published before the listeners are
+	 * notified on the EDT. Otherwise it runs on the calling thread.
+	 *
+	 * Full and batch conversions give up the lock every
+	 * {@link #YIELD_INTERVAL} primitives, so that an edit waits for at most
+	 * that many primitives rather than the whole conversion. Whatever the edit
+	 * changed is converted again by the next batch. The parallel phase of
+	 * {@link #visitAllParallel()} still holds the lock throughout.
+	 */
+	private void convert(Runnable conversion, boolean wait) {
+		if (!background) {
+			conversion.run();
+			version++;
+			fireNotifyDataChanged();
+		} else if (Thread.currentThread() == conversionThread) {
+			// part of a conversion which is already running
+			conversion.run();
+		} else {
+			Future<?> future = executor.submit(() -> {
+				Lock lock = data.getReadLock();
+				lock.lock();
+				yieldable = true;
+				try {
+					conversion.run();
+					version++;
+					publishSnapshot();
+				} catch (RuntimeException e) {
+					Logging.error(e);
+					throw e;
+				} finally {
+					yieldable = false;
+					lock.unlock();
+				}
+				fireNotifyDataChanged();
+			});
+			if (wait) {
+				await(future);
+			}
+		}
+	}
+
+	private static final int YIELD_INTERVAL = 500;
+
+	// Lets an edit waiting for the write lock of the data set in between. Only
+	// called between two primitives, by loops over copies of what they convert,
+	// as the data set may have changed afterwards. Readers of the model only
+	// see the snapshot published when the conversion is finished.
+	private void yieldLock() {
+		if (!yieldable || ++sinceYield < YIELD_INTERVAL) {
+			return;
+		}
+		sinceYield = 0;
+		Lock lock = data.getReadLock();
+		// a queued writer goes first, as the lock does not let readers pass it
+		lock.unlock();
+		lock.lock();
+	}
+
+	// What routes determine their links and stops from: on the conversion
+	// thread the maps as they are being converted, anywhere else the last
+	// published ones, which never change.
+	private NetworkSnapshot getTransitView() {
+		if (!background || Thread.currentThread() == conversionThread) {
+			return createSnapshot(false);
+		}
+		return snapshot;
+	}
+
+	private void publishSnapshot() {
+		snapshot = createSnapshot(false);
+	}
+
+	// Must be called between conversions.
+	private NetworkSnapshot createSnapshot(boolean pinned) {
+		if (pinned) {
+			linkStore.pin();
+		}
+		return new NetworkSnapshot(version, persistentNodes.asMap(), persistentWay2Links.asMap(), persistentStopAreas.asMap(),
+				persistentLines.asMap(), persistentRoutes.asMap(), linkStore.getCount(), linkStore, settings, pinned);
+	}
+
+	/**
+	 * Returns the network as of the last finished conversion. Never blocks.
+	 * Meant for short reads on the EDT, like painting: the attributes of the
+	 * links are only guaranteed to stay in place until the next conversion.
+	 */
+	public NetworkSnapshot getSnapshot() {
+		if (background) {
+			return snapshot;
+		}
+		return createSnapshot(false);
+	}
+
+	/**
+	 * Returns the network after the changes made to the data set so far are
+	 * converted, for readers which take longer or run on another thread, like
+	 * the exporters. The links of the snapshot keep their attributes until it
+	 * is closed, while the model goes on converting.
+	 */
+	public NetworkSnapshot takeSnapshot() {
+		return read(() -> createSnapshot(true));
+	}
+
+	/**
+	 * Waits until the changes made to the data set so far are converted.
+	 * Edits are made on the EDT, so called there, the model does not change
+	 * again until the caller returns.
+	 */
+	public void awaitConversion() {
+		read(() -> null);
+	}
+
+	/**
+	 * Reads the model after the changes made to the data set so far are
+	 * converted, without any conversion running at the same time. Meant for
+	 * readers which need more than a snapshot, like the exporters and the
+	 * spatial queries.
+	 */
+	public <T> T read(Supplier<T> reader) {
+		if (!background || Thread.currentThread() == conversionThread) {
+			return reader.get();
+		}
+		Callable<T> task = () -> {
+			Lock lock = data.getReadLock();
+			lock.lock();
+			try {
+				return reader.get();
+			} finally {
+				lock.unlock();
+			}
+		};
+		return await(executor.submit(task));
+	}
+
+	private static <T> T await(Future<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
 	}
 
 	public void visitAll() {
+		convert(this::convertAll, true);
+	}
+
+	private void convertAll() {
+		recordChange(NetworkChange::everythingChanged);
 		Convert visitor = new Convert();
-		for (Node node : data.getNodes()) {
+		for (Node node : new ArrayList<>(data.getNodes())) {
 			visitor.visit(node);
+			yieldLock();
 		}
-		for (Way way : data.getWays()) {
+		for (Way way : new ArrayList<>(data.getWays())) {
 			visitor.visit(way);
+			yieldLock();
 		}
-		for (Relation relation : data.getRelations()) {
+		for (Relation relation : new ArrayList<>(data.getRelations())) {
 			visitor.visit(relation);
+			yieldLock();
 		}
-		fireNotifyDataChanged();
+	}
+
+	/**
+	 * Takes over nodes and links which were converted from the data set before,
+	 * e.g. read from a {@link LayerSnapshot}, instead of converting the nodes
+	 * and ways again. Only the relations are converted.
+	 */
+	void restore(Map<Node, MNode> restoredNodes, Map<Way, List<MLink>> restoredLinks) {
+		convert(() -> {
+			recordChange(NetworkChange::everythingChanged);
+			restoredNodes.forEach(this::putNode);
+			restoredLinks.forEach(this::putLinks);
+			Convert visitor = new Convert();
+			for (Relation relation : data.getRelations()) {
+				visitor.visit(relation);
+			}
+		}, true);
+	}
+
+	/**
+	 * Same result as {@link #visitAll()}, but the relevance of the nodes and the
+	 * links of the ways are computed on all available cores. Only the merge into
+	 * the model happens on the calling thread, in the order of the dataset, so
+	 * link ids and link order do not differ from the serial conversion.
+	 */
+	public void visitAllParallel() {
+		convert(this::convertAllParallel, true);
+	}
+
+	private void convertAllParallel() {
+		recordChange(NetworkChange::everythingChanged);
+		Convert visitor = new Convert();
+		Lock lock = data.getReadLock();
+		lock.lock();
+		try {
+			List<Node> dataNodes = new ArrayList<>(data.getNodes());
+			List<MNode> convertedNodes = dataNodes.parallelStream()
+				.map(node -> visitor.isRelevant(node) ? visitor.createNode(node) : null)
+				.collect(Collectors.toList());
+			for (int i = 0; i < dataNodes.size(); i++) {
+				Node node = dataNodes.get(i);
+				visitor.visited.add(node);
+				removeNode(node);
+				if (convertedNodes.get(i) != null) {
+					putNode(node, convertedNodes.get(i));
+				}
+			}
+
+			// the nodes map is not modified while the ways are converted
+			List<Way> dataWays = new ArrayList<>(data.getWays());
+			List<List<MLink>> convertedWays = dataWays.parallelStream()
+				.map(way -> isUsableAndNotRemoved(way) ? visitor.createLinks(way) : null)
+				.collect(Collectors.toList());
+			for (int i = 0; i < dataWays.size(); i++) {
+				Way way = dataWays.get(i);
+				visitor.visited.add(way);
+				removeLinks(way);
+				if (convertedWays.get(i) != null) {
+					putLinks(way, convertedWays.get(i));
+				}
+			}
+
+			for (Relation relation : data.getRelations()) {
+				visitor.visit(relation);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Converts only the ways of the given highway or railway types, together with
+	 * everything whose conversion depends on them.
+	 */
+	void visitWayTypes(Collection<String> wayTypes) {
+		if (wayTypes.isEmpty()) {
+			return;
+		}
+		AggregatePrimitives aggregatePrimitivesVisitor = new AggregatePrimitives();
+		for (Way way : data.getWays()) {
+			if (wayTypes.contains(LinkConversionRules.getWayType(way))) {
+				aggregatePrimitivesVisitor.visit(way);
+				// whether a node starts a link depends on the ways it is part of
+				for (Node node : way.getNodes()) {
+					aggregatePrimitivesVisitor.visit(node);
+				}
+			}
+		}
+		aggregatePrimitivesVisitor.finished();
+	}
+
+	/**
+	 * A projection change does not change the topology of the network, so only
+	 * the coordinates of the nodes have to be updated. Snapshots still read the
+	 * old nodes, so the nodes are replaced by reprojected copies, and the links
+	 * by copies between those.
+	 */
+	void reprojectNodes() {
+		List<Node> osmNodes = new ArrayList<>(nodes.keySet());
+		List<Coord> coords = CoordinateService.toCoords(osmNodes);
+		Map<MNode, MNode> reprojected = new IdentityHashMap<>();
+		for (int i = 0; i < osmNodes.size(); i++) {
+			MNode oldNode = nodes.get(osmNodes.get(i));
+			MNode newNode = oldNode.withCoord(coords.get(i));
+			reprojected.put(oldNode, newNode);
+			putNode(osmNodes.get(i), newNode);
+		}
+		for (Map.Entry<Way, List<MLink>> entry : new ArrayList<>(way2Links.entrySet())) {
+			List<MLink> links = new ArrayList<>(entry.getValue().size());
+			for (MLink link : entry.getValue()) {
+				links.add(link.withNodes(reprojected.get(link.getFromNode()), reprojected.get(link.getToNode())));
+			}
+			putLinks(entry.getKey(), links);
+		}
+		recordChange(NetworkChange::everythingChanged);
+	}
+
+	// All changes to the nodes and links go through these methods, so that the
+	// spatial index stays in sync.
+
+	private void putNode(Node node, MNode matsimNode) {
+		MNode oldNode = nodes.put(node, matsimNode);
+		persistentNodes = persistentNodes.plus(node, matsimNode);
+		if (oldNode != null) {
+			spatialIndex.removeNode(oldNode);
+			recordChange(change -> change.nodeRemoved(oldNode));
+		}
+		spatialIndex.addNode(matsimNode);
+		recordChange(change -> change.nodeAdded(matsimNode));
+	}
+
+	private void removeNode(Node node) {
+		MNode oldNode = nodes.remove(node);
+		if (oldNode != null) {
+			persistentNodes = persistentNodes.minus(node);
+			spatialIndex.removeNode(oldNode);
+			recordChange(change -> change.nodeRemoved(oldNode));
+		}
+	}
+
+	private void putLinks(Way way, List<MLink> links) {
+		invalidateRoutes(way);
+		List<MLink> oldLinks = way2Links.put(way, links);
+		persistentWay2Links = persistentWay2Links.plus(way, links);
+		if (oldLinks != null) {
+			Envelope oldBounds = removeFromSpatialIndex(oldLinks);
+			oldLinks.forEach(MLink::detach);
+			recordChange(change -> change.linksRemoved(oldLinks, oldBounds));
+		}
+		Envelope bounds = new Envelope();
+		links.forEach(link -> bounds.expandToInclude(spatialIndex.addLink(link)));
+		links.forEach(link -> link.attach(linkStore));
+		recordChange(change -> change.linksAdded(links, bounds));
+	}
+
+	private void removeLinks(Way way) {
+		List<MLink> oldLinks = way2Links.remove(way);
+		if (oldLinks != null) {
+			persistentWay2Links = persistentWay2Links.minus(way);
+			invalidateRoutes(way);
+			Envelope oldBounds = removeFromSpatialIndex(oldLinks);
+			oldLinks.forEach(MLink::detach);
+			recordChange(change -> change.linksRemoved(oldLinks, oldBounds));
+		}
+	}
+
+	// Returns the bounds the links had when they were added.
+	private Envelope removeFromSpatialIndex(List<MLink> links) {
+		Envelope bounds = new Envelope();
+		for (MLink link : links) {
+			Envelope envelope = spatialIndex.removeLink(link);
+			if (envelope != null) {
+				bounds.expandToInclude(envelope);
+			}
+		}
+		return bounds;
+	}
+
+	// The routes running over the way have to determine their links again.
+	private void invalidateRoutes(Way way) {
+		for (OsmPrimitive referrer : way.getReferrers()) {
+			Route route = routes.get(referrer);
+			if (route != null) {
+				route.invalidate(version + 1);
+			}
+		}
+	}
+
+	private void rebuildSpatialIndex() {
+		spatialIndex = new SpatialIndex(settings);
+		nodes.values().forEach(spatialIndex::addNode);
+		for (List<MLink> links : way2Links.values()) {
+			links.forEach(spatialIndex::addLink);
+		}
+	}
+
+	/**
+	 * Returns the number of links, without counting them.
+	 */
+	public int getLinkCount() {
+		return linkStore.getCount();
 	}
 
 	class AggregatePrimitives implements OsmPrimitiveVisitor {
@@ -289,7 +835,7 @@ public class NetworkModel {
 
 		@Override
 		public void visit(Relation relation) {
-			if (Preferences.isSupportTransit() && relation.hasTag("type", "route_master")) {
+			if (settings.isSupportTransit() && relation.hasTag("type", "route_master")) {
 				for (OsmPrimitive osmPrimitive : relation.getMemberPrimitives()) {
 					osmPrimitive.accept(this);
 				}
@@ -301,24 +847,34 @@ public class NetworkModel {
 			Convert visitor = new Convert();
 			for (Node node : Utils.filteredCollection(primitives, Node.class)) {
 				visitor.visit(node);
+				yieldLock();
 			}
 			for (Way way : Utils.filteredCollection(primitives, Way.class)) {
 				visitor.visit(way);
+				yieldLock();
 			}
 			for (Relation relation : Utils.filteredCollection(primitives, Relation.class)) {
 				visitor.visit(relation);
+				yieldLock();
 			}
 		}
 
 	}
 
-	private void searchAndRemoveRoute(Route route) {
-		// We do not know what line the route is in, so we have to search for
-		// it.
-		for (Line line : lines.values()) {
+	private void addRoute(Line line, Route route) {
+		line.addRoute(route);
+		route2Line.put(route, line);
+		routes.put(route.getRelation(), route);
+		persistentRoutes = persistentRoutes.plus(route.getRelation(), route);
+	}
+
+	private void removeRoute(Route route) {
+		Line line = route2Line.remove(route);
+		if (line != null) {
 			line.removeRoute(route);
 		}
 		routes.remove(route.getRelation());
+		persistentRoutes = persistentRoutes.minus(route.getRelation());
 	}
 
 	class Convert implements OsmPrimitiveVisitor {
@@ -326,57 +882,68 @@ public class NetworkModel {
 		final Collection<OsmPrimitive> visited = new HashSet<>();
 
 		void convertWay(Way way) {
-			final OsmConvertDefaults.OsmWayDefaults defaults = LinkConversionRules.getWayDefaults(way);
+			List<MLink> links = createLinks(way);
+			if (links != null) {
+				putLinks(way, links);
+			}
+		}
 
-			final boolean forward = LinkConversionRules.isForward(way, defaults);
-			final boolean backward = LinkConversionRules.isBackward(way, defaults);
-			final Double freespeed = LinkConversionRules.getFreespeed(way, defaults);
-			final Double nofLanesPerDirection = LinkConversionRules.getLanesPerDirection(way, defaults, forward, backward);
-			final Double capacity = LinkConversionRules.getCapacity(way, defaults, nofLanesPerDirection);
-			final Set<String> modes = LinkConversionRules.getModes(way, defaults);
-			final String highwayType = LinkConversionRules.getType(way, defaults);
-			final String hbefaType = LinkConversionRules.getHbefaType(way, defaults);
+		// Only reads the model, so it may be called concurrently for different ways.
+		// Returns null if the way does not become part of the network.
+		List<MLink> createLinks(Way way) {
+			final WayProfile profile = WayProfile.of(way, settings);
 
-			final Double taggedLength = LinkConversionRules.getTaggedLength(way);
+			final boolean forward = profile.isForward();
+			final boolean backward = profile.isBackward();
+			final Double freespeed = profile.getFreespeed();
+			final Double nofLanesPerDirection = profile.getLanesPerDirection();
+			final Double capacity = profile.getCapacity();
+			final Set<String> modes = profile.getModes();
+			final String highwayType = profile.getType();
+			final String hbefaType = profile.getHbefaType();
 
-			if (capacity != null && freespeed != null && nofLanesPerDirection != null && modes != null) {
+			final Double taggedLength = profile.getTaggedLength();
 
-				final List<Pair<Integer, Node>> nodeOrder = IntStream.range(0, way.getNodesCount())
-					.mapToObj(i -> new Pair<Integer, Node>(i, way.getNode(i))) // pairs the index of the node with the node itself
-					.filter(n ->nodes().containsKey(n.b)) // filter to only keep the interesting nodes
-					.collect(Collectors.toList()); // put these into a list
+			if (profile.isMatsimWay()) {
+				// only needed to distribute a tagged length over the links
+				final double wayLength = taggedLength == null ? 0 : way.getLength();
 
+				// One pass over the nodes of the way. The length of the current
+				// part is summed up, in the same way as Way.getLength(), until
+				// the next node of the network is reached.
 				List<MLink> links = new ArrayList<>();
 				long increment = 0;
-				for (int k = 1; k < nodeOrder.size(); k++) {
-					// from.a is the node index, from.b is the node itself
-					final Pair<Integer, Node> from = nodeOrder.get(k - 1);
-					// to.a is the node index, to.b is the node itself
-					final Pair<Integer, Node> to = nodeOrder.get(k);
-
-					final Way wayPart = new Way(); // the part of the way between nodeFrom (inclusive) and nodeTo (inclusive)
-					wayPart.setNodes(way.getNodes().subList(from.a, to.a + 1));
-					final List<WaySegment> segs = wayPart.getNodePairs(false).stream()
-						.map(pair -> WaySegment.forNodePair(way, pair.a, pair.b))
-						.collect(Collectors.toList());
-					final double wayPartLength = taggedLength == null
-						? wayPart.getLength()
-						: (way.getLength() <= 0 ? taggedLength : taggedLength * wayPart.getLength() / way.getLength());
-
-					// only create link, if both nodes were found, node could be null, since
+				MNode fromNode = null;
+				int fromIndex = 0;
+				double partLength = 0;
+				LatLon previous = null;
+				for (int i = 0; i < way.getNodesCount(); i++) {
+					final Node node = way.getNode(i);
+					final LatLon coor = node.getCoor();
+					if (previous != null && coor != null) {
+						partLength += coor.greatCircleDistance(previous);
+					}
+					previous = coor;
 					// nodes outside a layer were dropped
-					if (nodes().get(from.b) != null && nodes().get(to.b) != null) {
+					final MNode toNode = nodes.get(node);
+					if (toNode == null) {
+						continue;
+					}
+					if (fromNode != null) {
+						final double wayPartLength = taggedLength == null
+							? partLength
+							: (wayLength <= 0 ? taggedLength : taggedLength * partLength / wayLength);
 						if (forward) {
 							String id = LinkConversionRules.getId(way, increment, false);
 							String origId = LinkConversionRules.getOrigId(way, id, false);
-							MLink l = new MLink(nodes.get(from.b), nodes.get(to.b));
+							MLink l = new MLink(fromNode, toNode);
 							l.setLength(wayPartLength);
 							l.setFreespeed(freespeed);
 							l.setCapacity(capacity);
 							l.setNumberOfLanes(nofLanesPerDirection);
 							l.setAllowedModes(modes);
 							l.setOrigId(origId);
-							l.setSegments(segs);
+							l.setSegments(way, fromIndex, i - fromIndex);
 							l.setType(highwayType);
 							l.setHbefaType(hbefaType);
 							links.add(l);
@@ -384,24 +951,28 @@ public class NetworkModel {
 						if (backward) {
 							String id = LinkConversionRules.getId(way, increment, true);
 							String origId = LinkConversionRules.getOrigId(way, id, true);
-							MLink l = new MLink(nodes.get(to.b), nodes.get(from.b));
+							MLink l = new MLink(toNode, fromNode);
 							l.setLength(wayPartLength);
 							l.setFreespeed(freespeed);
 							l.setCapacity(capacity);
 							l.setNumberOfLanes(nofLanesPerDirection);
 							l.setAllowedModes(modes);
 							l.setOrigId(origId);
-							l.setSegments(segs);
+							l.setSegments(way, fromIndex, i - fromIndex);
 							l.setType(highwayType);
 							l.setHbefaType(hbefaType);
 							l.setReverseWayDirection(true);
 							links.add(l);
 						}
+						increment++;
 					}
-					increment++;
+					fromNode = toNode;
+					fromIndex = i;
+					partLength = 0;
 				}
-				way2Links.put(way, links);
+				return links;
 			}
+			return null;
 		}
 
 		private boolean isExplicitelyMatsimTagged(Way way) {
@@ -415,22 +986,25 @@ public class NetworkModel {
 		@Override
 		public void visit(Node node) {
 			if (visited.add(node)) {
-				nodes.remove(node);
+				removeNode(node);
 				if (isRelevant(node)) {
-					EastNorth eN = ProjectionRegistry.getProjection().latlon2eastNorth(node.getCoor());
-					MNode matsimNode = new MNode(node, new Coord(eN.getX(), eN.getY()));
-					matsimNode.setOrigId(NodeConversionRules.getOrigId(node));
-					nodes.put(node, matsimNode);
+					putNode(node, createNode(node));
 				}
 			}
 		}
 
-		private boolean isRelevant(Node node) {
+		MNode createNode(Node node) {
+			MNode matsimNode = new MNode(node, settings.toCoord(node));
+			matsimNode.setOrigId(NodeConversionRules.getOrigId(node));
+			return matsimNode;
+		}
+
+		boolean isRelevant(Node node) {
 			if (isUsableAndNotRemoved(node)) {
 				Way junctionWay = null;
 				for (Way way : Utils.filteredCollection(node.getReferrers(), Way.class)) {
-					if (isUsableAndNotRemoved(way) && LinkConversionRules.isMatsimWay(way)) {
-						if (Preferences.isKeepPaths() || way.isFirstLastNode(node) || junctionWay != null || node.hasTag("public_transport", "stop_position")) {
+					if (isUsableAndNotRemoved(way) && LinkConversionRules.isMatsimWay(way, settings)) {
+						if (settings.isKeepPaths() || way.isFirstLastNode(node) || junctionWay != null || node.hasTag("public_transport", "stop_position")) {
 							return true;
 						}
 						junctionWay = way;
@@ -443,7 +1017,7 @@ public class NetworkModel {
 		@Override
 		public void visit(Way way) {
 			if (visited.add(way)) {
-				way2Links.remove(way);
+				removeLinks(way);
 				if (isUsableAndNotRemoved(way)) {
 					convertWay(way);
 				}
@@ -453,24 +1027,27 @@ public class NetworkModel {
 		@Override
 		public void visit(Relation relation) {
 			if (visited.add(relation)) {
-				if (Preferences.isSupportTransit()) {
+				if (settings.isSupportTransit()) {
 					Route oldRoute = findRoute(relation);
 					Route newRoute = createTransitRoute(relation, oldRoute);
+					if (oldRoute != null || newRoute != null) {
+						recordChange(change -> change.routeChanged(relation));
+					}
 					if (oldRoute != null && newRoute == null) {
 						oldRoute.setDeleted(true);
 					} else if (oldRoute == null && newRoute != null) {
-						Line tLine = findOrCreateTransitLine(relation);
-						tLine.addRoute(newRoute);
-						routes.put(relation, newRoute);
+						addRoute(findOrCreateTransitLine(relation), newRoute);
 					} else if (oldRoute != null) {
 						Line tLine = findOrCreateTransitLine(relation);
 						// The line the route is assigned to might have changed,
 						// so remove it and add it again.
-						searchAndRemoveRoute(oldRoute);
-						tLine.addRoute(newRoute);
-						routes.put(relation, newRoute);
+						removeRoute(oldRoute);
+						addRoute(tLine, newRoute);
+					}
+					if (stopAreas.remove(relation) != null) {
+						persistentStopAreas = persistentStopAreas.minus(relation);
+						stopAreasChanged = version + 1;
 					}
-					stopAreas.remove(relation);
 					createTransitStopFacility(relation);
 				}
 			}
@@ -482,11 +1059,13 @@ public class NetworkModel {
 				if (line != null) {
 					Route newRoute;
 					if (oldRoute == null) {
-						newRoute = new Route(relation, stopAreas, way2Links);
+						newRoute = new Route(relation, NetworkModel.this::getTransitView, () -> stopAreasChanged, settings);
+						newRoute.invalidate(version + 1);
 					} else {
 						// Edit the previous object in place.
 						newRoute = oldRoute;
 						newRoute.setDeleted(false);
+						newRoute.invalidate(version + 1);
 					}
 					return newRoute;
 				}
@@ -496,10 +1075,12 @@ public class NetworkModel {
 
 		private void createTransitStopFacility(Relation relation) {
 			if (relation.hasTag("type", "public_transport") && relation.hasTag("public_transport", "stop_area")) {
-				StopArea stopArea = new StopArea(relation);
+				StopArea stopArea = new StopArea(relation, settings);
 				if (stopArea.getCoord() != null) {
 					stopArea.setLink(determineExplicitMatsimLink(relation));
 					stopAreas.put(relation, stopArea);
+					persistentStopAreas = persistentStopAreas.plus(relation, stopArea);
+					stopAreasChanged = version + 1;
 				}
 			}
 		}
@@ -530,13 +1111,7 @@ public class NetworkModel {
 
 	public Route findRoute(OsmPrimitive maybeRelation) {
 		if (maybeRelation instanceof Relation) {
-			for (Line line : lines.values()) {
-				for (Route route : line.getRoutes()) {
-					if (route.getRelation() == maybeRelation) {
-						return route;
-					}
-				}
-			}
+			return routes.get(maybeRelation);
 		}
 		return null;
 	}
@@ -544,14 +1119,13 @@ public class NetworkModel {
 	private Line findOrCreateTransitLine(Relation route) {
 		for (OsmPrimitive primitive : route.getReferrers()) {
 			if (primitive instanceof Relation && primitive.hasTag("type", "route_master")) {
-				for (Line line : lines.values()) {
-					if (line.getRelation() == primitive) {
-						return line;
-					}
+				Line line = lines.get(primitive);
+				if (line == null) {
+					line = new Line((Relation) primitive);
+					lines.put(line.getRelation(), line);
+					persistentLines = persistentLines.plus(line.getRelation(), line);
 				}
-				Line tLine = new Line((Relation) primitive);
-				lines.put(tLine.getRelation(), tLine);
-				return tLine;
+				return line;
 			}
 		}
 		return null;
@@ -561,6 +1135,58 @@ public class NetworkModel {
 		return way2Links;
 	}
 
+	// The spatial queries look at the model itself. With background
+	// conversion, they have to be made from within read(Supplier).
+
+	/**
+	 * Returns the links which intersect the given bounds, e.g. the current
+	 * viewport.
+	 */
+	public List<MLink> getLinks(ProjectionBounds bounds) {
+		return spatialIndex.getLinks(toEnvelope(bounds));
+	}
+
+	/**
+	 * Returns the nodes within the given bounds.
+	 */
+	public List<MNode> getNodes(ProjectionBounds bounds) {
+		return spatialIndex.getNodes(toEnvelope(bounds));
+	}
+
+	/**
+	 * Returns the links whose geometry is not farther away from the given
+	 * point than radius, in projected units.
+	 */
+	public List<MLink> getLinksWithin(EastNorth point, double radius) {
+		return spatialIndex.getLinksWithin(point, radius);
+	}
+
+	/**
+	 * Returns the nodes not farther away from the given point than radius, in
+	 * projected units.
+	 */
+	public List<MNode> getNodesWithin(EastNorth point, double radius) {
+		return spatialIndex.getNodesWithin(point, radius);
+	}
+
+	/**
+	 * Returns at most k links, ordered by their distance to the given point.
+	 */
+	public List<MLink> getNearestLinks(EastNorth point, int k) {
+		return spatialIndex.getNearestLinks(point, k);
+	}
+
+	/**
+	 * Returns at most k nodes, ordered by their distance to the given point.
+	 */
+	public List<MNode> getNearestNodes(EastNorth point, int k) {
+		return spatialIndex.getNearestNodes(point, k);
+	}
+
+	private static Envelope toEnvelope(ProjectionBounds bounds) {
+		return new Envelope(bounds.minEast, bounds.maxEast, bounds.minNorth, bounds.maxNorth);
+	}
+
 	public ReadOnlyMapProperty<Node, MNode> nodes() {
 		return nodes.getReadOnlyProperty();
 	}
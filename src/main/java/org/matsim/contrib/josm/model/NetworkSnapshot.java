@@ -0,0 +1,108 @@
+package org.matsim.contrib.josm.model;
+
+import java.util.List;
+import java.util.Map;
+
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.Way;
+
+/**
+ * The converted network of a {@link NetworkModel} as of one version, for
+ * readers which must not see a conversion in progress, like the renderer,
+ * the dialogs and the exporters.
+ *
+ * The maps of a snapshot never change, they share their structure with the
+ * model, so taking a snapshot costs nothing. Nodes and links are replaced
+ * rather than changed by later conversions. The transit objects are shared
+ * with the model, though: a {@link Route} or a {@link Line} may already
+ * reflect later conversions. Routes determine their links and stops from the
+ * last published snapshot, so they can be read on any thread.
+ *
+ * Snapshots from {@link NetworkModel#takeSnapshot()} may be read on any
+ * thread for as long as they are open, and have to be closed afterwards.
+ */
+public final class NetworkSnapshot implements AutoCloseable {
+
+	private final long version;
+	private final Map<Node, MNode> nodes;
+	private final Map<Way, List<MLink>> way2Links;
+	private final Map<Relation, StopArea> stopAreas;
+	private final Map<Relation, Line> lines;
+	private final Map<Relation, Route> routes;
+	private final int linkCount;
+	private final LinkStore linkStore;
+	private final ConversionSettings settings;
+	private boolean pinned;
+
+	NetworkSnapshot(long version, Map<Node, MNode> nodes, Map<Way, List<MLink>> way2Links, Map<Relation, StopArea> stopAreas,
+			Map<Relation, Line> lines, Map<Relation, Route> routes, int linkCount, LinkStore linkStore, ConversionSettings settings,
+			boolean pinned) {
+		this.version = version;
+		this.nodes = nodes;
+		this.way2Links = way2Links;
+		this.stopAreas = stopAreas;
+		this.lines = lines;
+		this.routes = routes;
+		this.linkCount = linkCount;
+		this.linkStore = linkStore;
+		this.settings = settings;
+		this.pinned = pinned;
+	}
+
+	/**
+	 * Counts the conversions of the model. A snapshot with a higher version
+	 * contains the results of all conversions of one with a lower version.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	public Map<Node, MNode> getNodes() {
+		return nodes;
+	}
+
+	public Map<Way, List<MLink>> getWay2Links() {
+		return way2Links;
+	}
+
+	public Map<Relation, StopArea> getStopAreas() {
+		return stopAreas;
+	}
+
+	public Map<Relation, Line> getLines() {
+		return lines;
+	}
+
+	public Map<Relation, Route> getRoutes() {
+		return routes;
+	}
+
+	public int getLinkCount() {
+		return linkCount;
+	}
+
+	/**
+	 * The settings of the model, which also apply to the export.
+	 */
+	public ConversionSettings getSettings() {
+		return settings;
+	}
+
+	LinkStore getLinkStore() {
+		return linkStore;
+	}
+
+	/**
+	 * Lets the model reuse the attribute slots of the links which were
+	 * removed since the snapshot was taken.
+	 */
+	@Override
+	public synchronized void close() {
+		if (pinned) {
+			pinned = false;
+			linkStore.unpin();
+		}
+	}
+
+}
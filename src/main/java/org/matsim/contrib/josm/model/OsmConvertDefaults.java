@@ -1,6 +1,8 @@
 package org.matsim.contrib.josm.model;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -14,12 +16,16 @@ import org.openstreetmap.josm.spi.preferences.IPreferences;
  *
  */
 public class OsmConvertDefaults {
-	private static final Map<String, OsmWayDefaults> wayDefaults = new HashMap<>();
+	// replaced as a whole on every reload, never modified, so readers on other
+	// threads see either the old or the new defaults
+	private static volatile Map<String, OsmWayDefaults> wayDefaults = Collections.emptyMap();
+	// the preference values the defaults were parsed from
+	private static Map<String, String> loadedValues;
 
 	public static final List<String> highwayTypes = Arrays.asList("motorway", "motorway_link", "trunk", "trunk_link", "primary", "primary_link",
 			"secondary", "secondary_link", "tertiary", "tertiary_link", "minor", "unclassified", "residential", "service", "living_street");
 
-	private static final Map<String, StringProperty> properties = new HashMap<>();
+	private static final Map<String, StringProperty> properties = createProperties();
 
 	// This is an exhaustive list.
 	// See http://wiki.openstreetmap.org/wiki/Proposed_features/Public_Transport
@@ -27,20 +33,73 @@ public class OsmConvertDefaults {
 
 	public static final String[] wayAttributes = { "hierarchy", "lanes", "freespeed", "freespeedFactor", "laneCapacity", "oneway" };
 
+	// incremented whenever the defaults are (re)loaded
+	private static volatile int generation;
+
 	static {
-		load();
+		refresh();
 	}
 
 	public static void listen(IPreferences pref) {
-		pref.addPreferenceChangeListener(preferenceChangeEvent -> load());
+		pref.addPreferenceChangeListener(preferenceChangeEvent -> {
+			if (preferenceChangeEvent.getKey().startsWith("matsim_convertDefaults")) {
+				refresh();
+			}
+		});
 	}
 
 	public static Map<String, OsmWayDefaults> getWayDefaults() {
 		return wayDefaults;
 	}
 
-	private static void load() {
+	/**
+	 * Returns the way types whose defaults are stored under the given preference
+	 * key. Usually this is a single type, but types may share a key.
+	 */
+	public static List<String> getWayTypes(String preferenceKey) {
+		List<String> types = new ArrayList<>();
+		for (Map.Entry<String, StringProperty> entry : properties.entrySet()) {
+			if (entry.getValue().getKey().equals(preferenceKey)) {
+				types.add(entry.getKey());
+			}
+		}
+		return types;
+	}
 
+	/**
+	 * Reloads the defaults from the preferences. Listeners which depend on the
+	 * defaults call this themselves, as they may be notified before the
+	 * listener of {@link #listen(IPreferences)}. Whoever comes first reloads,
+	 * the others find the values unchanged and keep the defaults and their
+	 * generation.
+	 */
+	static synchronized void refresh() {
+		Map<String, String> values = new HashMap<>();
+		for (String type : highwayTypes) {
+			values.put(type, properties.get(type).get());
+		}
+		if (values.equals(loadedValues)) {
+			return;
+		}
+		Map<String, OsmWayDefaults> defaults = new HashMap<>();
+		for (String type : highwayTypes) {
+			defaults.put(type, parse(values.get(type)));
+		}
+		loadedValues = values;
+		wayDefaults = Collections.unmodifiableMap(defaults);
+		generation++;
+	}
+
+	/**
+	 * Returns a number that changes whenever the defaults are reloaded, so that
+	 * values derived from them can be cached.
+	 */
+	static int getGeneration() {
+		return generation;
+	}
+
+	private static Map<String, StringProperty> createProperties() {
+		Map<String, StringProperty> properties = new HashMap<>();
 		properties.put("motorway", new StringProperty("matsim_convertDefaults_motorway", "1;2;" + Double.toString(120. / 3.6) + ";1.0;2000;true"));
 		properties.put("motorway_link", new StringProperty("matsim_convertDefaults_motorway_link", "2;1;" + Double.toString(80. / 3.6) + ";1.0;1500;true"));
 		properties.put("trunk", new StringProperty("matsim_convertDefaults_trunk", "2;1;" + Double.toString(80. / 3.6) + ";1.0;2000;false"));
@@ -61,20 +120,32 @@ public class OsmConvertDefaults {
 		properties.put("light_rail", new StringProperty("matsim_convertDefaults_light_rail", "2;1;" + Double.toString(60 / 3.6) + ";1.0;" + Double.toString(Double.MAX_VALUE) + ";false"));
 		properties.put("tram", new StringProperty("matsim_convertDefaults_tram", "4;1;" + Double.toString(50 / 3.6) + ";1.0;" + Double.toString(Double.MAX_VALUE) + ";false"));
 		properties.put("subway", new StringProperty("matsim_convertDefaults_subway", "3;1;" + Double.toString(80 / 3.6) + ";1.0;" + Double.toString(Double.MAX_VALUE) + ";false"));
+		return properties;
+	}
 
+	/**
+	 * Returns the defaults the plugin ships with, whatever the user changed
+	 * in the preferences.
+	 */
+	public static Map<String, OsmWayDefaults> getBuiltInWayDefaults() {
+		Map<String, OsmWayDefaults> builtIn = new HashMap<>();
 		for (String type : highwayTypes) {
-			String temp = properties.get(type).get();
-			String tempArray[] = temp.split(";");
+			builtIn.put(type, parse(properties.get(type).getDefaultValue()));
+		}
+		return builtIn;
+	}
 
-			int hierarchy = Integer.parseInt(tempArray[0]);
-			double lanes = Double.parseDouble(tempArray[1]);
-			double freespeed = Double.parseDouble(tempArray[2]);
-			double freespeedFactor = Double.parseDouble(tempArray[3]);
-			double laneCapacity = Double.parseDouble(tempArray[4]);
-			boolean oneway = (Boolean.parseBoolean(tempArray[5]));
+	private static OsmWayDefaults parse(String value) {
+		String tempArray[] = value.split(";");
 
-			wayDefaults.put(type, new OsmWayDefaults(hierarchy, lanes, freespeed, freespeedFactor, laneCapacity, oneway));
-		}
+		int hierarchy = Integer.parseInt(tempArray[0]);
+		double lanes = Double.parseDouble(tempArray[1]);
+		double freespeed = Double.parseDouble(tempArray[2]);
+		double freespeedFactor = Double.parseDouble(tempArray[3]);
+		double laneCapacity = Double.parseDouble(tempArray[4]);
+		boolean oneway = (Boolean.parseBoolean(tempArray[5]));
+
+		return new OsmWayDefaults(hierarchy, lanes, freespeed, freespeedFactor, laneCapacity, oneway);
 	}
 
 	public static void reset() {
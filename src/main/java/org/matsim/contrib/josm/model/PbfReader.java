@@ -0,0 +1,1028 @@
+package org.matsim.contrib.josm.model;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.DataSource;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationMember;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+
+/**
+ * Reads the parts of an OSM PBF extract which are relevant for MATSim into a
+ * {@link DataSet}: the highways of the given types and the routes of the given
+ * types, together with their route masters and the stop areas of their stops,
+ * just like the Overpass query of the download dialog.
+ *
+ * The file is read in three passes, since nodes come before ways and ways
+ * before relations in a PBF file: the first one selects the highways and the
+ * transit relations, the second one the other ways these relations refer to,
+ * and the last one the nodes of all selected ways and relations. The blobs are
+ * decompressed and decoded on all processors, while the selection is made in
+ * file order.
+ *
+ * Members of the selected relations which are neither selected themselves nor
+ * in the file, like the multipolygons of platforms, are added as incomplete
+ * primitives.
+ */
+public final class PbfReader {
+
+	private static final int NODES = 1;
+	private static final int WAYS = 2;
+	private static final int RELATIONS = 4;
+
+	private static final int MAX_BLOB_HEADER_SIZE = 64 * 1024;
+	private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+	private static final Set<String> SUPPORTED_FEATURES = new HashSet<>(Arrays.asList("OsmSchema-V0.6", "DenseNodes"));
+
+	private final Set<String> highwayTypes;
+	private final Set<String> routeTypes;
+
+	private final LongSet highwayIds = new LongSet();
+	private final List<WayData> ways = new ArrayList<>();
+	private final Map<Long, RelationData> candidates = new HashMap<>();
+	private final LongSet stopNodes = new LongSet();
+	private final LongSet requiredWays = new LongSet();
+	private final LongSet requiredNodes = new LongSet();
+	private final List<Node> nodes = new ArrayList<>();
+	private Bounds bounds;
+
+	public PbfReader(Collection<String> highwayTypes, Collection<String> routeTypes) {
+		this.highwayTypes = new HashSet<>(highwayTypes);
+		this.routeTypes = new HashSet<>(routeTypes);
+	}
+
+	/**
+	 * Reads the selected primitives of the given file. Returns null if the
+	 * progress monitor was canceled.
+	 */
+	public DataSet parseDataSet(File file, ProgressMonitor progressMonitor) throws IOException {
+		if (progressMonitor == null) {
+			progressMonitor = NullProgressMonitor.INSTANCE;
+		}
+		progressMonitor.beginTask(tr("Reading {0}", file.getName()), 3);
+		ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+			Thread thread = new Thread(runnable, "MATSim PBF decoder");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			List<BlobRef> blobs = readBlobHeaders(in);
+
+			progressMonitor.subTask(tr("Selecting highways and routes"));
+			decode(in, blobs, 0, executor, progressMonitor, this::decodeWaysAndRelations, this::selectWaysAndRelations);
+			Collection<RelationData> relations = selectRelations();
+			progressMonitor.worked(1);
+
+			progressMonitor.subTask(tr("Selecting ways of routes and stop areas"));
+			if (requiredWays.size() > 0) {
+				decode(in, blobs, WAYS, executor, progressMonitor, this::decodeRequiredWays, this::selectWays);
+			}
+			progressMonitor.worked(1);
+
+			progressMonitor.subTask(tr("Selecting nodes"));
+			decode(in, blobs, NODES, executor, progressMonitor, this::decodeRequiredNodes, block -> nodes.addAll(block.nodes));
+			progressMonitor.worked(1);
+
+			if (progressMonitor.isCanceled()) {
+				return null;
+			}
+			return createDataSet(file, relations);
+		} finally {
+			executor.shutdownNow();
+			progressMonitor.finishTask();
+		}
+	}
+
+	private List<BlobRef> readBlobHeaders(RandomAccessFile in) throws IOException {
+		List<BlobRef> blobs = new ArrayList<>();
+		while (in.getFilePointer() < in.length()) {
+			int headerSize = in.readInt();
+			if (headerSize < 0 || headerSize > MAX_BLOB_HEADER_SIZE) {
+				throw new IOException("Invalid PBF blob header size " + headerSize);
+			}
+			byte[] header = new byte[headerSize];
+			in.readFully(header);
+			String type = null;
+			int dataSize = -1;
+			ProtoReader reader = new ProtoReader(header);
+			while (reader.hasNext()) {
+				int tag = reader.tag();
+				switch (tag >>> 3) {
+				case 1:
+					type = reader.string();
+					break;
+				case 3:
+					dataSize = (int) reader.varint();
+					break;
+				default:
+					reader.skip(tag);
+				}
+			}
+			if (dataSize < 0 || dataSize > MAX_BLOB_SIZE) {
+				throw new IOException("Invalid PBF blob size " + dataSize);
+			}
+			long offset = in.getFilePointer();
+			if ("OSMHeader".equals(type)) {
+				byte[] data = new byte[dataSize];
+				in.readFully(data);
+				readHeaderBlock(inflate(data));
+			} else {
+				if ("OSMData".equals(type)) {
+					blobs.add(new BlobRef(offset, dataSize));
+				}
+				in.seek(offset + dataSize);
+			}
+		}
+		return blobs;
+	}
+
+	private void readHeaderBlock(byte[] data) throws IOException {
+		ProtoReader reader = new ProtoReader(data);
+		while (reader.hasNext()) {
+			int tag = reader.tag();
+			switch (tag >>> 3) {
+			case 1:
+				ProtoReader bbox = reader.message();
+				double[] degrees = new double[4];
+				while (bbox.hasNext()) {
+					int field = bbox.tag();
+					if ((field >>> 3) >= 1 && (field >>> 3) <= 4) {
+						degrees[(field >>> 3) - 1] = bbox.sint() * 1e-9;
+					} else {
+						bbox.skip(field);
+					}
+				}
+				// left, right, top, bottom
+				bounds = new Bounds(degrees[3], degrees[0], degrees[2], degrees[1]);
+				break;
+			case 4:
+				String feature = reader.string();
+				if (!SUPPORTED_FEATURES.contains(feature)) {
+					throw new IOException("Unsupported PBF feature " + feature);
+				}
+				break;
+			default:
+				reader.skip(tag);
+			}
+		}
+	}
+
+	/**
+	 * Decodes the blobs containing any of the given kinds of primitives, or
+	 * all blobs, in parallel, and hands the results to the consumer in file
+	 * order.
+	 */
+	private void decode(RandomAccessFile in, List<BlobRef> blobs, int kinds, ExecutorService executor, ProgressMonitor progressMonitor,
+			BlockDecoder decoder, Consumer<Block> consumer) throws IOException {
+		int maxPending = 2 * Runtime.getRuntime().availableProcessors();
+		Deque<Future<Block>> pending = new ArrayDeque<>();
+		for (BlobRef blob : blobs) {
+			if (progressMonitor.isCanceled()) {
+				break;
+			}
+			if (kinds != 0 && (blob.kinds & kinds) == 0) {
+				continue;
+			}
+			byte[] data = new byte[blob.size];
+			in.seek(blob.offset);
+			in.readFully(data);
+			pending.add(executor.submit(() -> {
+				Block block = decoder.decode(new PrimitiveBlock(inflate(data)));
+				block.blob = blob;
+				return block;
+			}));
+			if (pending.size() >= maxPending) {
+				consume(pending.poll(), consumer);
+			}
+		}
+		while (!pending.isEmpty()) {
+			consume(pending.poll(), consumer);
+		}
+	}
+
+	private static void consume(Future<Block> future, Consumer<Block> consumer) throws IOException {
+		Block block;
+		try {
+			block = future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+		block.blob.kinds = block.kinds;
+		consumer.accept(block);
+	}
+
+	private Block decodeWaysAndRelations(PrimitiveBlock primitiveBlock) throws IOException {
+		Block block = new Block();
+		primitiveBlock.decode(block, way -> highwayTypes.contains(way.tags.get("highway")), relation -> {
+			String type = relation.tags.get("type");
+			return "route".equals(type) || "route_master".equals(type) || "stop_area".equals(relation.tags.get("public_transport"));
+		}, null);
+		return block;
+	}
+
+	private void selectWaysAndRelations(Block block) {
+		for (WayData way : block.ways) {
+			highwayIds.add(way.id);
+			ways.add(way);
+			for (long ref : way.refs) {
+				requiredNodes.add(ref);
+			}
+		}
+		for (RelationData relation : block.relations) {
+			candidates.put(relation.id, relation);
+			if (isSelectedRoute(relation)) {
+				for (int i = 0; i < relation.memberIds.length; i++) {
+					String role = relation.roles[i];
+					if (relation.types[i] == OsmPrimitiveType.NODE && (role.startsWith("stop") || role.startsWith("platform"))) {
+						stopNodes.add(relation.memberIds[i]);
+					}
+				}
+			}
+		}
+	}
+
+	private boolean isSelectedRoute(RelationData relation) {
+		return "route".equals(relation.tags.get("type")) && routeTypes.contains(relation.tags.get("route"));
+	}
+
+	/**
+	 * Selects the routes, their route masters and the stop areas of their
+	 * stops and platforms, and then everything they contain.
+	 */
+	private Collection<RelationData> selectRelations() {
+		Set<Long> selectedRoutes = new HashSet<>();
+		Deque<RelationData> queue = new ArrayDeque<>();
+		for (RelationData relation : candidates.values()) {
+			if (isSelectedRoute(relation)) {
+				selectedRoutes.add(relation.id);
+				queue.add(relation);
+			} else if ("stop_area".equals(relation.tags.get("public_transport"))) {
+				for (int i = 0; i < relation.memberIds.length; i++) {
+					if (relation.types[i] == OsmPrimitiveType.NODE && stopNodes.contains(relation.memberIds[i])) {
+						queue.add(relation);
+						break;
+					}
+				}
+			}
+		}
+		for (RelationData relation : candidates.values()) {
+			if ("route_master".equals(relation.tags.get("type"))) {
+				for (int i = 0; i < relation.memberIds.length; i++) {
+					if (relation.types[i] == OsmPrimitiveType.RELATION && selectedRoutes.contains(relation.memberIds[i])) {
+						queue.add(relation);
+						break;
+					}
+				}
+			}
+		}
+		Map<Long, RelationData> selected = new HashMap<>();
+		while (!queue.isEmpty()) {
+			RelationData relation = queue.poll();
+			if (selected.put(relation.id, relation) != null) {
+				continue;
+			}
+			for (int i = 0; i < relation.memberIds.length; i++) {
+				long id = relation.memberIds[i];
+				switch (relation.types[i]) {
+				case NODE:
+					requiredNodes.add(id);
+					break;
+				case WAY:
+					if (!highwayIds.contains(id)) {
+						requiredWays.add(id);
+					}
+					break;
+				default:
+					RelationData member = candidates.get(id);
+					if (member != null) {
+						queue.add(member);
+					}
+				}
+			}
+		}
+		candidates.clear();
+		return selected.values();
+	}
+
+	private Block decodeRequiredWays(PrimitiveBlock primitiveBlock) throws IOException {
+		Block block = new Block();
+		primitiveBlock.decode(block, way -> requiredWays.contains(way.id), relation -> false, null);
+		return block;
+	}
+
+	private void selectWays(Block block) {
+		for (WayData way : block.ways) {
+			ways.add(way);
+			for (long ref : way.refs) {
+				requiredNodes.add(ref);
+			}
+		}
+	}
+
+	private Block decodeRequiredNodes(PrimitiveBlock primitiveBlock) throws IOException {
+		Block block = new Block();
+		primitiveBlock.decode(block, way -> false, relation -> false, requiredNodes);
+		return block;
+	}
+
+	private DataSet createDataSet(File file, Collection<RelationData> relationData) {
+		DataSet dataSet = new DataSet();
+		dataSet.beginUpdate();
+		try {
+			Map<Long, Node> nodesById = new HashMap<>();
+			for (Node node : nodes) {
+				nodesById.put(node.getId(), node);
+				dataSet.addPrimitive(node);
+			}
+			Map<Long, Way> waysById = new HashMap<>();
+			for (WayData data : ways) {
+				List<Node> wayNodes = new ArrayList<>(data.refs.length);
+				for (long ref : data.refs) {
+					// nodes outside of the extract are left out
+					Node node = nodesById.get(ref);
+					if (node != null) {
+						wayNodes.add(node);
+					}
+				}
+				if (!wayNodes.isEmpty()) {
+					Way way = new Way(data.id, data.version);
+					way.setKeys(data.tags);
+					way.setNodes(wayNodes);
+					dataSet.addPrimitive(way);
+					waysById.put(data.id, way);
+				}
+			}
+			Map<Long, Relation> relationsById = new HashMap<>();
+			for (RelationData data : relationData) {
+				Relation relation = new Relation(data.id, data.version);
+				relation.setKeys(data.tags);
+				dataSet.addPrimitive(relation);
+				relationsById.put(data.id, relation);
+			}
+			for (RelationData data : relationData) {
+				List<RelationMember> members = new ArrayList<>(data.memberIds.length);
+				for (int i = 0; i < data.memberIds.length; i++) {
+					long id = data.memberIds[i];
+					OsmPrimitive member;
+					switch (data.types[i]) {
+					case NODE:
+						member = nodesById.computeIfAbsent(id, Node::new);
+						break;
+					case WAY:
+						member = waysById.computeIfAbsent(id, Way::new);
+						break;
+					default:
+						member = relationsById.computeIfAbsent(id, Relation::new);
+					}
+					if (member.getDataSet() == null) {
+						dataSet.addPrimitive(member);
+					}
+					members.add(new RelationMember(data.roles[i], member));
+				}
+				relationsById.get(data.id).setMembers(members);
+			}
+			if (bounds != null) {
+				dataSet.addDataSource(new DataSource(bounds, file.getName()));
+			}
+		} finally {
+			dataSet.endUpdate();
+		}
+		return dataSet;
+	}
+
+	private static byte[] inflate(byte[] blob) throws IOException {
+		ProtoReader reader = new ProtoReader(blob);
+		byte[] raw = null;
+		byte[] zlib = null;
+		int rawSize = -1;
+		while (reader.hasNext()) {
+			int tag = reader.tag();
+			switch (tag >>> 3) {
+			case 1:
+				raw = reader.bytes();
+				break;
+			case 2:
+				rawSize = (int) reader.varint();
+				break;
+			case 3:
+				zlib = reader.bytes();
+				break;
+			default:
+				if ((tag >>> 3) <= 7) {
+					throw new IOException("Unsupported PBF blob compression");
+				}
+				reader.skip(tag);
+			}
+		}
+		if (raw != null) {
+			return raw;
+		}
+		if (zlib == null || rawSize < 0 || rawSize > MAX_BLOB_SIZE) {
+			throw new IOException("Invalid PBF blob");
+		}
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(zlib);
+			byte[] data = new byte[rawSize];
+			int length = 0;
+			while (length < rawSize && !inflater.finished()) {
+				int inflated = inflater.inflate(data, length, rawSize - length);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				length += inflated;
+			}
+			if (length != rawSize) {
+				throw new IOException("Truncated PBF blob");
+			}
+			return data;
+		} catch (DataFormatException e) {
+			throw new IOException(e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	@FunctionalInterface
+	private interface BlockDecoder {
+		Block decode(PrimitiveBlock primitiveBlock) throws IOException;
+	}
+
+	private static final class BlobRef {
+		final long offset;
+		final int size;
+		// the kinds of primitives in the blob, known after the first pass
+		volatile int kinds = NODES | WAYS | RELATIONS;
+
+		BlobRef(long offset, int size) {
+			this.offset = offset;
+			this.size = size;
+		}
+	}
+
+	private static final class Block {
+		BlobRef blob;
+		int kinds;
+		final List<Node> nodes = new ArrayList<>();
+		final List<WayData> ways = new ArrayList<>();
+		final List<RelationData> relations = new ArrayList<>();
+	}
+
+	private static final class WayData {
+		long id;
+		int version;
+		Map<String, String> tags;
+		long[] refs;
+	}
+
+	private static final class RelationData {
+		long id;
+		int version;
+		Map<String, String> tags;
+		long[] memberIds;
+		OsmPrimitiveType[] types;
+		String[] roles;
+	}
+
+	/**
+	 * A decompressed PrimitiveBlock, which decodes the primitives accepted
+	 * by the given filters.
+	 */
+	private static final class PrimitiveBlock {
+
+		private final byte[] data;
+		private String[] strings = new String[0];
+		private int granularity = 100;
+		private long latOffset;
+		private long lonOffset;
+
+		PrimitiveBlock(byte[] data) {
+			this.data = data;
+		}
+
+		void decode(Block block, Predicate<WayData> ways, Predicate<RelationData> relations, LongSet nodes) throws IOException {
+			List<ProtoReader> groups = new ArrayList<>();
+			ProtoReader reader = new ProtoReader(data);
+			while (reader.hasNext()) {
+				int tag = reader.tag();
+				switch (tag >>> 3) {
+				case 1:
+					readStringTable(reader.message());
+					break;
+				case 2:
+					groups.add(reader.message());
+					break;
+				case 17:
+					granularity = (int) reader.varint();
+					break;
+				case 19:
+					latOffset = reader.varint();
+					break;
+				case 20:
+					lonOffset = reader.varint();
+					break;
+				default:
+					reader.skip(tag);
+				}
+			}
+			for (ProtoReader group : groups) {
+				while (group.hasNext()) {
+					int tag = group.tag();
+					switch (tag >>> 3) {
+					case 1:
+						block.kinds |= NODES;
+						if (nodes != null) {
+							readNode(group.message(), nodes, block.nodes);
+						} else {
+							group.skip(tag);
+						}
+						break;
+					case 2:
+						block.kinds |= NODES;
+						if (nodes != null) {
+							readDenseNodes(group.message(), nodes, block.nodes);
+						} else {
+							group.skip(tag);
+						}
+						break;
+					case 3:
+						block.kinds |= WAYS;
+						WayData way = readWay(group.message());
+						if (ways.test(way)) {
+							block.ways.add(way);
+						}
+						break;
+					case 4:
+						block.kinds |= RELATIONS;
+						RelationData relation = readRelation(group.message());
+						if (relations.test(relation)) {
+							block.relations.add(relation);
+						}
+						break;
+					default:
+						group.skip(tag);
+					}
+				}
+			}
+		}
+
+		private void readStringTable(ProtoReader reader) throws IOException {
+			List<String> table = new ArrayList<>();
+			while (reader.hasNext()) {
+				int tag = reader.tag();
+				if ((tag >>> 3) == 1) {
+					table.add(reader.string());
+				} else {
+					reader.skip(tag);
+				}
+			}
+			strings = table.toArray(new String[0]);
+		}
+
+		private String string(int index) throws IOException {
+			if (index < 0 || index >= strings.length) {
+				throw new IOException("Invalid PBF string index " + index);
+			}
+			return strings[index];
+		}
+
+		private Node createNode(long id, int version, long lat, long lon) {
+			Node node = new Node(id, Math.max(1, version));
+			node.setCoor(new LatLon(1e-9 * (latOffset + granularity * lat), 1e-9 * (lonOffset + granularity * lon)));
+			return node;
+		}
+
+		private void readNode(ProtoReader reader, LongSet required, List<Node> result) throws IOException {
+			long id = 0;
+			int version = 0;
+			long lat = 0;
+			long lon = 0;
+			long[] keys = new long[0];
+			long[] values = new long[0];
+			while (reader.hasNext()) {
+				int tag = reader.tag();
+				switch (tag >>> 3) {
+				case 1:
+					id = reader.sint();
+					break;
+				case 2:
+					keys = reader.packed(tag, false);
+					break;
+				case 3:
+					values = reader.packed(tag, false);
+					break;
+				case 4:
+					version = readVersion(reader.message());
+					break;
+				case 8:
+					lat = reader.sint();
+					break;
+				case 9:
+					lon = reader.sint();
+					break;
+				default:
+					reader.skip(tag);
+				}
+			}
+			if (required.contains(id)) {
+				Node node = createNode(id, version, lat, lon);
+				node.setKeys(tags(keys, values));
+				result.add(node);
+			}
+		}
+
+		private void readDenseNodes(ProtoReader reader, LongSet required, List<Node> result) throws IOException {
+			long[] ids = new long[0];
+			long[] lats = new long[0];
+			long[] lons = new long[0];
+			long[] keysVals = new long[0];
+			long[] versions = new long[0];
+			while (reader.hasNext()) {
+				int tag = reader.tag();
+				switch (tag >>> 3) {
+				case 1:
+					ids = reader.packed(tag, true);
+					break;
+				case 5:
+					ProtoReader info = reader.message();
+					while (info.hasNext()) {
+						int field = info.tag();
+						if ((field >>> 3) == 1) {
+							versions = info.packed(field, false);
+						} else {
+							info.skip(field);
+						}
+					}
+					break;
+				case 8:
+					lats = reader.packed(tag, true);
+					break;
+				case 9:
+					lons = reader.packed(tag, true);
+					break;
+				case 10:
+					keysVals = reader.packed(tag, false);
+					break;
+				default:
+					reader.skip(tag);
+				}
+			}
+			if (lats.length != ids.length || lons.length != ids.length) {
+				throw new IOException("Invalid PBF dense nodes");
+			}
+			long id = 0;
+			long lat = 0;
+			long lon = 0;
+			int keyVal = 0;
+			for (int i = 0; i < ids.length; i++) {
+				id += ids[i];
+				lat += lats[i];
+				lon += lons[i];
+				int tagsStart = keyVal;
+				while (keyVal < keysVals.length && keysVals[keyVal] != 0) {
+					keyVal += 2;
+				}
+				int tagsEnd = keyVal;
+				keyVal++;
+				if (required.contains(id)) {
+					Node node = createNode(id, i < versions.length ? (int) versions[i] : 0, lat, lon);
+					Map<String, String> tags = new HashMap<>();
+					for (int j = tagsStart; j < tagsEnd && j + 1 < keysVals.length; j += 2) {
+						tags.put(string((int) keysVals[j]), string((int) keysVals[j + 1]));
+					}
+					node.setKeys(tags);
+					result.add(node);
+				}
+			}
+		}
+
+		private WayData readWay(ProtoReader reader) throws IOException {
+			WayData way = new WayData();
+			long[] keys = new long[0];
+			long[] values = new long[0];
+			way.refs = new long[0];
+			while (reader.hasNext()) {
+				int tag = reader.tag();
+				switch (tag >>> 3) {
+				case 1:
+					way.id = reader.varint();
+					break;
+				case 2:
+					keys = reader.packed(tag, false);
+					break;
+				case 3:
+					values = reader.packed(tag, false);
+					break;
+				case 4:
+					way.version = readVersion(reader.message());
+					break;
+				case 8:
+					way.refs = reader.packed(tag, true);
+					break;
+				default:
+					reader.skip(tag);
+				}
+			}
+			way.version = Math.max(1, way.version);
+			way.tags = tags(keys, values);
+			for (int i = 1; i < way.refs.length; i++) {
+				way.refs[i] += way.refs[i - 1];
+			}
+			return way;
+		}
+
+		private RelationData readRelation(ProtoReader reader) throws IOException {
+			RelationData relation = new RelationData();
+			long[] keys = new long[0];
+			long[] values = new long[0];
+			long[] roles = new long[0];
+			long[] types = new long[0];
+			relation.memberIds = new long[0];
+			while (reader.hasNext()) {
+				int tag = reader.tag();
+				switch (tag >>> 3) {
+				case 1:
+					relation.id = reader.varint();
+					break;
+				case 2:
+					keys = reader.packed(tag, false);
+					break;
+				case 3:
+					values = reader.packed(tag, false);
+					break;
+				case 4:
+					relation.version = readVersion(reader.message());
+					break;
+				case 8:
+					roles = reader.packed(tag, false);
+					break;
+				case 9:
+					relation.memberIds = reader.packed(tag, true);
+					break;
+				case 10:
+					types = reader.packed(tag, false);
+					break;
+				default:
+					reader.skip(tag);
+				}
+			}
+			if (roles.length != relation.memberIds.length || types.length != relation.memberIds.length) {
+				throw new IOException("Invalid PBF relation " + relation.id);
+			}
+			relation.version = Math.max(1, relation.version);
+			relation.tags = tags(keys, values);
+			relation.types = new OsmPrimitiveType[types.length];
+			relation.roles = new String[roles.length];
+			for (int i = 0; i < types.length; i++) {
+				if (i > 0) {
+					relation.memberIds[i] += relation.memberIds[i - 1];
+				}
+				relation.types[i] = types[i] == 0 ? OsmPrimitiveType.NODE : types[i] == 1 ? OsmPrimitiveType.WAY : OsmPrimitiveType.RELATION;
+				relation.roles[i] = string((int) roles[i]);
+			}
+			return relation;
+		}
+
+		private static int readVersion(ProtoReader info) throws IOException {
+			int version = 0;
+			while (info.hasNext()) {
+				int tag = info.tag();
+				if ((tag >>> 3) == 1) {
+					version = (int) info.varint();
+				} else {
+					info.skip(tag);
+				}
+			}
+			return version;
+		}
+
+		private Map<String, String> tags(long[] keys, long[] values) throws IOException {
+			if (keys.length != values.length) {
+				throw new IOException("Invalid PBF tags");
+			}
+			Map<String, String> tags = new HashMap<>();
+			for (int i = 0; i < keys.length; i++) {
+				tags.put(string((int) keys[i]), string((int) values[i]));
+			}
+			return tags;
+		}
+	}
+
+	/**
+	 * Reads the protocol buffers wire format.
+	 */
+	private static final class ProtoReader {
+
+		private final byte[] buffer;
+		private int position;
+		private final int limit;
+
+		ProtoReader(byte[] buffer) {
+			this(buffer, 0, buffer.length);
+		}
+
+		private ProtoReader(byte[] buffer, int position, int limit) {
+			this.buffer = buffer;
+			this.position = position;
+			this.limit = limit;
+		}
+
+		boolean hasNext() {
+			return position < limit;
+		}
+
+		int tag() throws IOException {
+			return (int) varint();
+		}
+
+		long varint() throws IOException {
+			long result = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				if (position >= limit) {
+					throw new IOException("Truncated PBF varint");
+				}
+				byte b = buffer[position++];
+				result |= (long) (b & 0x7f) << shift;
+				if (b >= 0) {
+					return result;
+				}
+			}
+			throw new IOException("Malformed PBF varint");
+		}
+
+		long sint() throws IOException {
+			long value = varint();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		private int length() throws IOException {
+			long length = varint();
+			if (length < 0 || length > limit - position) {
+				throw new IOException("Truncated PBF message");
+			}
+			return (int) length;
+		}
+
+		ProtoReader message() throws IOException {
+			int length = length();
+			ProtoReader reader = new ProtoReader(buffer, position, position + length);
+			position += length;
+			return reader;
+		}
+
+		byte[] bytes() throws IOException {
+			int length = length();
+			byte[] bytes = Arrays.copyOfRange(buffer, position, position + length);
+			position += length;
+			return bytes;
+		}
+
+		String string() throws IOException {
+			int length = length();
+			String string = new String(buffer, position, length, StandardCharsets.UTF_8);
+			position += length;
+			return string;
+		}
+
+		/**
+		 * Reads a repeated integer field, which is usually packed, and undoes
+		 * the zigzag encoding of signed values. Deltas are left to the caller.
+		 */
+		long[] packed(int tag, boolean signed) throws IOException {
+			if ((tag & 7) == 0) {
+				return new long[] { signed ? sint() : varint() };
+			}
+			ProtoReader reader = message();
+			long[] values = new long[16];
+			int size = 0;
+			while (reader.hasNext()) {
+				if (size == values.length) {
+					values = Arrays.copyOf(values, 2 * size);
+				}
+				values[size++] = signed ? reader.sint() : reader.varint();
+			}
+			return Arrays.copyOf(values, size);
+		}
+
+		void skip(int tag) throws IOException {
+			switch (tag & 7) {
+			case 0:
+				varint();
+				break;
+			case 1:
+				position += 8;
+				break;
+			case 2:
+				position += length();
+				break;
+			case 5:
+				position += 4;
+				break;
+			default:
+				throw new IOException("Unsupported PBF wire type " + (tag & 7));
+			}
+			if (position > limit) {
+				throw new IOException("Truncated PBF message");
+			}
+		}
+	}
+
+	/**
+	 * A set of OSM ids, without boxing, since country extracts refer to many
+	 * millions of nodes.
+	 */
+	private static final class LongSet {
+
+		private static final long EMPTY = 0;
+		private long[] table = new long[1024];
+		private int size;
+
+		int size() {
+			return size;
+		}
+
+		boolean contains(long value) {
+			long[] table = this.table;
+			int mask = table.length - 1;
+			for (int i = hash(value) & mask;; i = (i + 1) & mask) {
+				if (table[i] == value) {
+					return true;
+				}
+				if (table[i] == EMPTY) {
+					return false;
+				}
+			}
+		}
+
+		void add(long value) {
+			if (2 * (size + 1) > table.length) {
+				long[] old = table;
+				table = new long[2 * old.length];
+				size = 0;
+				for (long element : old) {
+					if (element != EMPTY) {
+						insert(element);
+					}
+				}
+			}
+			insert(value);
+		}
+
+		private void insert(long value) {
+			int mask = table.length - 1;
+			for (int i = hash(value) & mask;; i = (i + 1) & mask) {
+				if (table[i] == value) {
+					return;
+				}
+				if (table[i] == EMPTY) {
+					table[i] = value;
+					size++;
+					return;
+				}
+			}
+		}
+
+		private static int hash(long value) {
+			long h = value * 0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h >>> 32));
+		}
+	}
+
+}
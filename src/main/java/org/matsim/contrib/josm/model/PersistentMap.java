@@ -0,0 +1,445 @@
+package org.matsim.contrib.josm.model;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable hash map, as a hash array mapped trie. Adding or removing a key
+ * returns a new map which shares all but the path to the key with the old
+ * one, so both take O(log n), and keeping the old map around costs nothing.
+ * This is what makes the snapshots of a {@link NetworkModel} cheap.
+ *
+ * Keys must not be null.
+ */
+final class PersistentMap<K, V> {
+
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+	// six levels of five bits, one of two bits, and the collisions below
+	private static final int MAX_DEPTH = 8;
+	private static final Object NOT_FOUND = new Object();
+
+	private static final PersistentMap<?, ?> EMPTY = new PersistentMap<>(BitmapNode.EMPTY, 0);
+
+	private final Node root;
+	private final int size;
+
+	private PersistentMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	@SuppressWarnings("unchecked")
+	static <K, V> PersistentMap<K, V> empty() {
+		return (PersistentMap<K, V>) EMPTY;
+	}
+
+	static <K, V> PersistentMap<K, V> of(Map<? extends K, ? extends V> map) {
+		PersistentMap<K, V> result = empty();
+		for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+			result = result.plus(entry.getKey(), entry.getValue());
+		}
+		return result;
+	}
+
+	int size() {
+		return size;
+	}
+
+	@SuppressWarnings("unchecked")
+	V get(Object key) {
+		Object value = root.get(key, hash(key), 0);
+		return value == NOT_FOUND ? null : (V) value;
+	}
+
+	boolean containsKey(Object key) {
+		return root.get(key, hash(key), 0) != NOT_FOUND;
+	}
+
+	PersistentMap<K, V> plus(K key, V value) {
+		int[] sizeChange = new int[1];
+		Node newRoot = root.put(key, value, hash(key), 0, sizeChange);
+		return newRoot == root ? this : new PersistentMap<>(newRoot, size + sizeChange[0]);
+	}
+
+	PersistentMap<K, V> minus(Object key) {
+		int[] sizeChange = new int[1];
+		Node newRoot = root.remove(key, hash(key), 0, sizeChange);
+		if (newRoot == root) {
+			return this;
+		}
+		return new PersistentMap<>(newRoot == null ? BitmapNode.EMPTY : newRoot, size + sizeChange[0]);
+	}
+
+	/**
+	 * Returns a read-only {@link Map} backed by this map, which never changes.
+	 */
+	Map<K, V> asMap() {
+		return new MapView();
+	}
+
+	private static int hash(Object key) {
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private abstract static class Node {
+
+		// Entries as key and value, one after the other. Bitmap nodes put their
+		// children after them.
+		final Object[] content;
+
+		Node(Object[] content) {
+			this.content = content;
+		}
+
+		abstract int entryCount();
+
+		abstract int childCount();
+
+		abstract Object get(Object key, int hash, int shift);
+
+		abstract Node put(Object key, Object value, int hash, int shift, int[] sizeChange);
+
+		// Returns null if the node is empty afterwards.
+		abstract Node remove(Object key, int hash, int shift, int[] sizeChange);
+
+		Node child(int i) {
+			return (Node) content[2 * entryCount() + i];
+		}
+
+		// Nodes with a single entry are merged into their parent, so that
+		// removing a key leaves the same trie as never adding it.
+		boolean hasSingleEntry() {
+			return entryCount() == 1 && childCount() == 0;
+		}
+
+	}
+
+	private static final class BitmapNode extends Node {
+
+		static final BitmapNode EMPTY = new BitmapNode(0, 0, new Object[0]);
+
+		// which of the 32 positions hold an entry, and which a child
+		final int entryMap;
+		final int childMap;
+
+		BitmapNode(int entryMap, int childMap, Object[] content) {
+			super(content);
+			this.entryMap = entryMap;
+			this.childMap = childMap;
+		}
+
+		@Override
+		int entryCount() {
+			return Integer.bitCount(entryMap);
+		}
+
+		@Override
+		int childCount() {
+			return Integer.bitCount(childMap);
+		}
+
+		private int entryIndex(int bit) {
+			return 2 * Integer.bitCount(entryMap & (bit - 1));
+		}
+
+		private int childIndex(int bit) {
+			return 2 * entryCount() + Integer.bitCount(childMap & (bit - 1));
+		}
+
+		@Override
+		Object get(Object key, int hash, int shift) {
+			int bit = 1 << ((hash >>> shift) & MASK);
+			if ((entryMap & bit) != 0) {
+				int i = entryIndex(bit);
+				return content[i].equals(key) ? content[i + 1] : NOT_FOUND;
+			}
+			if ((childMap & bit) != 0) {
+				return ((Node) content[childIndex(bit)]).get(key, hash, shift + BITS);
+			}
+			return NOT_FOUND;
+		}
+
+		@Override
+		Node put(Object key, Object value, int hash, int shift, int[] sizeChange) {
+			int bit = 1 << ((hash >>> shift) & MASK);
+			if ((entryMap & bit) != 0) {
+				int i = entryIndex(bit);
+				Object existingKey = content[i];
+				if (existingKey.equals(key)) {
+					if (content[i + 1] == value) {
+						return this;
+					}
+					Object[] newContent = content.clone();
+					newContent[i + 1] = value;
+					return new BitmapNode(entryMap, childMap, newContent);
+				}
+				// both go into a new child
+				sizeChange[0] = 1;
+				Node child = merge(existingKey, content[i + 1], hash(existingKey), key, value, hash, shift + BITS);
+				return entryToChild(bit, i, child);
+			}
+			if ((childMap & bit) != 0) {
+				int i = childIndex(bit);
+				Node child = (Node) content[i];
+				Node newChild = child.put(key, value, hash, shift + BITS, sizeChange);
+				if (newChild == child) {
+					return this;
+				}
+				Object[] newContent = content.clone();
+				newContent[i] = newChild;
+				return new BitmapNode(entryMap, childMap, newContent);
+			}
+			sizeChange[0] = 1;
+			int i = entryIndex(bit);
+			Object[] newContent = new Object[content.length + 2];
+			System.arraycopy(content, 0, newContent, 0, i);
+			newContent[i] = key;
+			newContent[i + 1] = value;
+			System.arraycopy(content, i, newContent, i + 2, content.length - i);
+			return new BitmapNode(entryMap | bit, childMap, newContent);
+		}
+
+		@Override
+		Node remove(Object key, int hash, int shift, int[] sizeChange) {
+			int bit = 1 << ((hash >>> shift) & MASK);
+			if ((entryMap & bit) != 0) {
+				int i = entryIndex(bit);
+				if (!content[i].equals(key)) {
+					return this;
+				}
+				sizeChange[0] = -1;
+				if (content.length == 2) {
+					return null;
+				}
+				Object[] newContent = new Object[content.length - 2];
+				System.arraycopy(content, 0, newContent, 0, i);
+				System.arraycopy(content, i + 2, newContent, i, content.length - i - 2);
+				return new BitmapNode(entryMap ^ bit, childMap, newContent);
+			}
+			if ((childMap & bit) != 0) {
+				int i = childIndex(bit);
+				Node child = (Node) content[i];
+				Node newChild = child.remove(key, hash, shift + BITS, sizeChange);
+				if (newChild == child) {
+					return this;
+				}
+				if (newChild == null) {
+					if (content.length == 1) {
+						return null;
+					}
+					Object[] newContent = new Object[content.length - 1];
+					System.arraycopy(content, 0, newContent, 0, i);
+					System.arraycopy(content, i + 1, newContent, i, content.length - i - 1);
+					return new BitmapNode(entryMap, childMap ^ bit, newContent);
+				}
+				if (newChild.hasSingleEntry()) {
+					return childToEntry(bit, i, newChild.content[0], newChild.content[1]);
+				}
+				Object[] newContent = content.clone();
+				newContent[i] = newChild;
+				return new BitmapNode(entryMap, childMap, newContent);
+			}
+			return this;
+		}
+
+		// Replaces the entry at index i by a child.
+		private Node entryToChild(int bit, int i, Node child) {
+			Object[] newContent = new Object[content.length - 1];
+			System.arraycopy(content, 0, newContent, 0, i);
+			int newEntryMap = entryMap ^ bit;
+			int newChildMap = childMap | bit;
+			int childIndex = 2 * Integer.bitCount(newEntryMap) + Integer.bitCount(newChildMap & (bit - 1));
+			// the entries after i, and the children before the new one
+			System.arraycopy(content, i + 2, newContent, i, childIndex - i);
+			newContent[childIndex] = child;
+			System.arraycopy(content, childIndex + 2, newContent, childIndex + 1, content.length - childIndex - 2);
+			return new BitmapNode(newEntryMap, newChildMap, newContent);
+		}
+
+		// Replaces the child at index i by an entry.
+		private Node childToEntry(int bit, int i, Object key, Object value) {
+			Object[] newContent = new Object[content.length + 1];
+			int entryIndex = entryIndex(bit);
+			System.arraycopy(content, 0, newContent, 0, entryIndex);
+			newContent[entryIndex] = key;
+			newContent[entryIndex + 1] = value;
+			// the entries after the new one, and the children before i
+			System.arraycopy(content, entryIndex, newContent, entryIndex + 2, i - entryIndex);
+			System.arraycopy(content, i + 1, newContent, i + 2, content.length - i - 1);
+			return new BitmapNode(entryMap | bit, childMap ^ bit, newContent);
+		}
+
+		private static Node merge(Object key1, Object value1, int hash1, Object key2, Object value2, int hash2, int shift) {
+			if (shift >= 32) {
+				return new CollisionNode(new Object[] { key1, value1, key2, value2 });
+			}
+			int position1 = (hash1 >>> shift) & MASK;
+			int position2 = (hash2 >>> shift) & MASK;
+			if (position1 == position2) {
+				return new BitmapNode(0, 1 << position1, new Object[] { merge(key1, value1, hash1, key2, value2, hash2, shift + BITS) });
+			}
+			Object[] content = position1 < position2 ? new Object[] { key1, value1, key2, value2 } : new Object[] { key2, value2, key1, value1 };
+			return new BitmapNode((1 << position1) | (1 << position2), 0, content);
+		}
+
+	}
+
+	// Keys whose hashes are equal in all bits.
+	private static final class CollisionNode extends Node {
+
+		CollisionNode(Object[] content) {
+			super(content);
+		}
+
+		@Override
+		int entryCount() {
+			return content.length / 2;
+		}
+
+		@Override
+		int childCount() {
+			return 0;
+		}
+
+		private int indexOf(Object key) {
+			for (int i = 0; i < content.length; i += 2) {
+				if (content[i].equals(key)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		Object get(Object key, int hash, int shift) {
+			int i = indexOf(key);
+			return i < 0 ? NOT_FOUND : content[i + 1];
+		}
+
+		@Override
+		Node put(Object key, Object value, int hash, int shift, int[] sizeChange) {
+			int i = indexOf(key);
+			if (i >= 0) {
+				if (content[i + 1] == value) {
+					return this;
+				}
+				Object[] newContent = content.clone();
+				newContent[i + 1] = value;
+				return new CollisionNode(newContent);
+			}
+			sizeChange[0] = 1;
+			Object[] newContent = new Object[content.length + 2];
+			System.arraycopy(content, 0, newContent, 0, content.length);
+			newContent[content.length] = key;
+			newContent[content.length + 1] = value;
+			return new CollisionNode(newContent);
+		}
+
+		@Override
+		Node remove(Object key, int hash, int shift, int[] sizeChange) {
+			int i = indexOf(key);
+			if (i < 0) {
+				return this;
+			}
+			sizeChange[0] = -1;
+			if (content.length == 2) {
+				return null;
+			}
+			Object[] newContent = new Object[content.length - 2];
+			System.arraycopy(content, 0, newContent, 0, i);
+			System.arraycopy(content, i + 2, newContent, i, content.length - i - 2);
+			return new CollisionNode(newContent);
+		}
+
+	}
+
+	private final class MapView extends AbstractMap<K, V> {
+
+		@Override
+		public V get(Object key) {
+			return key == null ? null : PersistentMap.this.get(key);
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return key != null && PersistentMap.this.containsKey(key);
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public Set<Map.Entry<K, V>> entrySet() {
+			return new AbstractSet<Map.Entry<K, V>>() {
+				@Override
+				public Iterator<Map.Entry<K, V>> iterator() {
+					return new EntryIterator();
+				}
+
+				@Override
+				public int size() {
+					return size;
+				}
+			};
+		}
+
+	}
+
+	// Depth-first over the trie, with the path kept in arrays.
+	private final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+
+		private final Node[] nodes = new Node[MAX_DEPTH];
+		private final int[] positions = new int[MAX_DEPTH];
+		private int depth = 0;
+		private Map.Entry<K, V> next;
+
+		EntryIterator() {
+			nodes[0] = root;
+			next = advance();
+		}
+
+		@SuppressWarnings("unchecked")
+		private Map.Entry<K, V> advance() {
+			while (depth >= 0) {
+				Node node = nodes[depth];
+				int position = positions[depth]++;
+				int entryCount = node.entryCount();
+				if (position < entryCount) {
+					return new AbstractMap.SimpleImmutableEntry<>((K) node.content[2 * position], (V) node.content[2 * position + 1]);
+				} else if (position - entryCount < node.childCount()) {
+					depth++;
+					nodes[depth] = node.child(position - entryCount);
+					positions[depth] = 0;
+				} else {
+					depth--;
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<K, V> next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			Map.Entry<K, V> result = next;
+			next = advance();
+			return result;
+		}
+
+	}
+
+}
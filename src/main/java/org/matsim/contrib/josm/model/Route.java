@@ -5,8 +5,9 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 
-import org.matsim.contrib.josm.gui.Preferences;
 import org.matsim.pt.transitSchedule.api.Departure;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.Relation;
@@ -28,19 +29,31 @@ import javafx.collections.ObservableList;
 
 public class Route {
 	private final ObjectProperty<Relation> relation = new SimpleObjectProperty<>();
-	private final Map<Relation, StopArea> allStopAreas;
-	private final Map<Way, List<MLink>> allLinks;
-	private boolean deleted;
+	private final Supplier<NetworkSnapshot> network;
+	private volatile boolean deleted;
 	private ListProperty<MLink> route = new SimpleListProperty<>(FXCollections.observableArrayList());
 	private ReadOnlyListWrapper<RouteStop> stops = new ReadOnlyListWrapper<>(FXCollections.observableArrayList());
 	private ListProperty<Departure> departures = new SimpleListProperty<>(FXCollections.observableArrayList());
 	private StringProperty id = new SimpleStringProperty();
 	private StringProperty transportMode = new SimpleStringProperty();
 
-	public Route(Relation _relation, Map<Relation, StopArea> stopAreas, Map<Way, List<MLink>> way2Links) {
+	// The network route and the stops are determined on whatever thread asks
+	// for them, from the links and stop areas of a snapshot of the network
+	// model, which never changes. They are determined again once the model
+	// has published the version which contains a change to the route, or to
+	// the stop areas. The model only changes these versions on its conversion
+	// thread.
+	private final LongSupplier stopAreasChanged;
+	private final ConversionSettings settings;
+	private volatile long changed = 0;
+	private long routeVersion = -1;
+	private long stopsVersion = -1;
+
+	Route(Relation _relation, Supplier<NetworkSnapshot> network, LongSupplier stopAreasChanged, ConversionSettings settings) {
 		this.relation.setValue(_relation);
-		this.allStopAreas = stopAreas;
-		this.allLinks = way2Links;
+		this.network = network;
+		this.stopAreasChanged = stopAreasChanged;
+		this.settings = settings;
 		id.bind(Bindings.createStringBinding(this::computeMatsimId, relation));
 		transportMode.bind(Bindings.createStringBinding(() -> relation.get().get("route"), relation));
 	}
@@ -53,18 +66,36 @@ public class Route {
 		return deleted;
 	}
 
-	public ObservableList<RouteStop> getStops() {
-		stops.clear();
+	/**
+	 * Called by the network model when the members of the route relation or
+	 * the links of one of its ways have changed.
+	 *
+	 * @param version
+	 *            the version of the model which contains the change
+	 */
+	void invalidate(long version) {
+		changed = version;
+	}
+
+	public synchronized ObservableList<RouteStop> getStops() {
+		if (stopsVersion >= changed && stopsVersion >= stopAreasChanged.getAsLong()) {
+			return stops;
+		}
+		NetworkSnapshot snapshot = network.get();
+		Map<Relation, StopArea> allStopAreas = snapshot.getStopAreas();
+		List<RouteStop> result = new ArrayList<>();
 		for (Relation stopAreaRelation : getStopAreaRelations()) {
 			// can be from platforms and stops. we can handle both,
 			// but of course we only create one facility, even if both are present.
 			// the association between the two is handled by a stop area relation,
 			// not by the two of them both being in this route.
 			StopArea facility = allStopAreas.get(stopAreaRelation);
-			if (facility != null && (stops.isEmpty() || facility != stops.get(stops.size() - 1).getStopArea())) {
-				stops.add(new RouteStop(facility, 0, 0));
+			if (facility != null && (result.isEmpty() || facility != result.get(result.size() - 1).getStopArea())) {
+				result.add(new RouteStop(facility, 0, 0));
 			}
 		}
+		stops.setAll(result);
+		stopsVersion = snapshot.getVersion();
 		return stops;
 	}
 
@@ -80,10 +111,12 @@ public class Route {
 		return relation.get();
 	}
 
-	public ObservableList<MLink> getRoute() {
-		if (isExplicitelyMatsimTagged(relation.get()) || !Preferences.isTransitLite()) {
-			List<MLink> networkRoute = determineNetworkRoute(relation.get());
+	public synchronized ObservableList<MLink> getRoute() {
+		if (routeVersion < changed && (isExplicitelyMatsimTagged(relation.get()) || !settings.isTransitLite())) {
+			NetworkSnapshot snapshot = network.get();
+			List<MLink> networkRoute = determineNetworkRoute(relation.get(), snapshot.getWay2Links());
 			this.route.setAll(networkRoute);
+			routeVersion = snapshot.getVersion();
 		}
 		return route;
 	}
@@ -92,7 +125,7 @@ public class Route {
 		return relation.get("matsim:id") != null;
 	}
 
-	private List<MLink> determineNetworkRoute(Relation relation) {
+	private List<MLink> determineNetworkRoute(Relation relation, Map<Way, List<MLink>> allLinks) {
 		List<MLink> links = new ArrayList<>();
 		List<RelationMember> members = relation.getMembers();
 		if (!members.isEmpty()) { // WayConnectionTypeCalculator
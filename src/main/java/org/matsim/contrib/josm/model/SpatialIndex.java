@@ -0,0 +1,187 @@
+package org.matsim.contrib.josm.model;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.index.quadtree.Quadtree;
+import org.matsim.api.core.v01.Coord;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.Way;
+
+/**
+ * Spatial index over the links and nodes of a {@link NetworkModel}, in the
+ * projection of its {@link ConversionSettings}. Kept in sync by the model
+ * whenever it adds or removes links and nodes.
+ */
+class SpatialIndex {
+
+	private final ConversionSettings settings;
+	private final Quadtree links = new Quadtree();
+	private final Quadtree nodes = new Quadtree();
+	// The quadtree needs the envelope an item was inserted with to remove it.
+	private final Map<MLink, Envelope> linkEnvelopes = new HashMap<>();
+	private final Map<MNode, Envelope> nodeEnvelopes = new HashMap<>();
+	// Only grows, but is just used to bound the nearest neighbour search.
+	private final Envelope extent = new Envelope();
+
+	SpatialIndex(ConversionSettings settings) {
+		this.settings = settings;
+	}
+
+	// Returns the envelope the link was inserted with.
+	Envelope addLink(MLink link) {
+		Envelope envelope = new Envelope();
+		for (Coord point : getGeometry(link)) {
+			envelope.expandToInclude(point.getX(), point.getY());
+		}
+		linkEnvelopes.put(link, envelope);
+		links.insert(envelope, link);
+		extent.expandToInclude(envelope);
+		return envelope;
+	}
+
+	// Returns the envelope the link was inserted with, or null if it was not.
+	Envelope removeLink(MLink link) {
+		Envelope envelope = linkEnvelopes.remove(link);
+		if (envelope != null) {
+			links.remove(envelope, link);
+		}
+		return envelope;
+	}
+
+	void addNode(MNode node) {
+		Envelope envelope = new Envelope(node.getCoord().getX(), node.getCoord().getX(), node.getCoord().getY(), node.getCoord().getY());
+		nodeEnvelopes.put(node, envelope);
+		nodes.insert(envelope, node);
+		extent.expandToInclude(envelope);
+	}
+
+	void removeNode(MNode node) {
+		Envelope envelope = nodeEnvelopes.remove(node);
+		if (envelope != null) {
+			nodes.remove(envelope, node);
+		}
+	}
+
+	List<MLink> getLinks(Envelope envelope) {
+		List<MLink> result = new ArrayList<>();
+		for (Object candidate : links.query(envelope)) {
+			MLink link = (MLink) candidate;
+			// the quadtree only guarantees to return a superset
+			if (linkEnvelopes.get(link).intersects(envelope)) {
+				result.add(link);
+			}
+		}
+		return result;
+	}
+
+	List<MNode> getNodes(Envelope envelope) {
+		List<MNode> result = new ArrayList<>();
+		for (Object candidate : nodes.query(envelope)) {
+			MNode node = (MNode) candidate;
+			if (envelope.contains(node.getCoord().getX(), node.getCoord().getY())) {
+				result.add(node);
+			}
+		}
+		return result;
+	}
+
+	List<MLink> getLinksWithin(EastNorth point, double radius) {
+		List<MLink> result = new ArrayList<>();
+		for (MLink link : getLinks(around(point, radius))) {
+			if (distance(point, link) <= radius) {
+				result.add(link);
+			}
+		}
+		return result;
+	}
+
+	List<MNode> getNodesWithin(EastNorth point, double radius) {
+		List<MNode> result = new ArrayList<>();
+		for (MNode node : getNodes(around(point, radius))) {
+			if (distance(point, node.getCoord()) <= radius) {
+				result.add(node);
+			}
+		}
+		return result;
+	}
+
+	List<MLink> getNearestLinks(EastNorth point, int k) {
+		return nearest(point, k, linkEnvelopes.size(), this::getLinks, link -> distance(point, link));
+	}
+
+	List<MNode> getNearestNodes(EastNorth point, int k) {
+		return nearest(point, k, nodeEnvelopes.size(), this::getNodes, node -> distance(point, node.getCoord()));
+	}
+
+	// Searches squares of growing size around the point until they contain k
+	// items which are not farther away than half the side of the square.
+	private <T> List<T> nearest(EastNorth point, int k, int size, Function<Envelope, List<T>> query, ToDoubleFunction<T> distance) {
+		if (k <= 0 || size == 0) {
+			return new ArrayList<>();
+		}
+		double maxRadius = Math.max(extent.getWidth(), extent.getHeight()) + Math.max(extent.distance(around(point, 0)), 1);
+		double radius = Math.max(Math.max(extent.getWidth(), extent.getHeight()) / Math.sqrt(size), 1) * Math.sqrt(k);
+		while (true) {
+			List<T> candidates = query.apply(around(point, radius));
+			candidates.sort(Comparator.comparingDouble(distance));
+			if (radius >= maxRadius || (candidates.size() >= k && distance.applyAsDouble(candidates.get(k - 1)) <= radius)) {
+				return new ArrayList<>(candidates.subList(0, Math.min(k, candidates.size())));
+			}
+			radius *= 2;
+		}
+	}
+
+	private static Envelope around(EastNorth point, double radius) {
+		return new Envelope(point.getX() - radius, point.getX() + radius, point.getY() - radius, point.getY() + radius);
+	}
+
+	private static double distance(EastNorth point, Coord coord) {
+		return Math.hypot(point.getX() - coord.getX(), point.getY() - coord.getY());
+	}
+
+	private double distance(EastNorth point, MLink link) {
+		List<Coord> geometry = getGeometry(link);
+		double distance = Double.POSITIVE_INFINITY;
+		for (int i = 1; i < geometry.size(); i++) {
+			distance = Math.min(distance, distance(point, geometry.get(i - 1), geometry.get(i)));
+		}
+		return distance;
+	}
+
+	// distance of a point to the line segment between a and b
+	private static double distance(EastNorth point, Coord a, Coord b) {
+		double dx = b.getX() - a.getX();
+		double dy = b.getY() - a.getY();
+		double lengthSquared = dx * dx + dy * dy;
+		double t = lengthSquared == 0 ? 0 : ((point.getX() - a.getX()) * dx + (point.getY() - a.getY()) * dy) / lengthSquared;
+		t = Math.max(0, Math.min(1, t));
+		return Math.hypot(point.getX() - (a.getX() + t * dx), point.getY() - (a.getY() + t * dy));
+	}
+
+	// The nodes of the way are projected like the nodes of the model, which is
+	// not always the projection of the map.
+	private List<Coord> getGeometry(MLink link) {
+		List<Coord> geometry = new ArrayList<>();
+		Way way = link.getWay();
+		if (way == null || link.getSegmentCount() == 0) {
+			geometry.add(link.getFromNode().getCoord());
+			geometry.add(link.getToNode().getCoord());
+		} else {
+			for (int i = link.getFirstSegment(); i <= link.getFirstSegment() + link.getSegmentCount(); i++) {
+				Coord coord = settings.toCoord(way.getNode(i));
+				if (coord != null) {
+					geometry.add(coord);
+				}
+			}
+		}
+		return geometry;
+	}
+
+}
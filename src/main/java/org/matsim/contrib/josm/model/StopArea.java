@@ -14,13 +14,12 @@ import org.locationtech.jts.geom.Point;
 import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.Id;
 import org.matsim.pt.transitSchedule.api.TransitStopFacility;
-import org.openstreetmap.josm.data.coor.EastNorth;
 import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.Relation;
 import org.openstreetmap.josm.data.osm.RelationMember;
-import org.openstreetmap.josm.data.projection.ProjectionRegistry;
+import org.openstreetmap.josm.data.projection.Projection;
 import org.openstreetmap.josm.plugins.jts.JTSConverter;
 
 public class StopArea {
@@ -31,8 +30,15 @@ public class StopArea {
 
 	private MLink link;
 
-	public StopArea(Relation relation) {
+	// The network model creates a new stop area when the relation or one of
+	// its members changes, so the location only depends on the projection.
+	private Coord coord;
+	private String coordProjection;
+	private final ConversionSettings settings;
+
+	public StopArea(Relation relation, ConversionSettings settings) {
 		this.relation = relation;
+		this.settings = settings;
 		setIsBlockingLane(true);
 	}
 
@@ -44,12 +50,13 @@ public class StopArea {
 	}
 
 	public Coord getCoord() {
-		EastNorth eN = getPlatformLocation();
-		if (eN != null) {
-			return toCoord(eN);
-		} else {
-			return null;
+		Projection projection = settings.getProjection();
+		if (coordProjection == null || !coordProjection.equals(projection.getCacheKey())) {
+			LatLon location = getPlatformLocation();
+			coord = location != null ? CoordinateService.toCoord(location, projection) : null;
+			coordProjection = projection.getCacheKey();
 		}
+		return coord;
 	}
 
 	public List<Node> getStopPositionOsmNodes() {
@@ -67,11 +74,7 @@ public class StopArea {
 	}
 
 
-	private Coord toCoord(EastNorth eN) {
-		return new Coord(eN.getX(), eN.getY());
-	}
-
-	private EastNorth getPlatformLocation() {
+	private LatLon getPlatformLocation() {
 		List<OsmPrimitive> nodes = new ArrayList<>();
 		for (RelationMember member : relation.getMembers()) {
 			if(!member.getMember().isIncomplete()) {
@@ -92,7 +95,7 @@ public class StopArea {
 		if (centroid.isEmpty()) {
 			return null;
 		} else {
-			return ProjectionRegistry.getProjection().latlon2eastNorth(new LatLon(centroid.getY(), centroid.getX()));
+			return new LatLon(centroid.getY(), centroid.getX());
 		}
 	}
 
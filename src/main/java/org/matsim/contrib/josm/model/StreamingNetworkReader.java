@@ -0,0 +1,223 @@
+package org.matsim.contrib.josm.model;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Reads a MATSim network file (v1 or v2, optionally gzipped) in a single pass
+ * and writes its nodes and links directly into a {@link DataSet}, without
+ * building a MATSim network first.
+ */
+class StreamingNetworkReader extends DefaultHandler {
+
+	private final DataSet dataSet;
+	private final Map<Way, List<MLink>> way2Links;
+	// only filled if the caller needs to resolve link ids later on, e.g. for a
+	// transit schedule
+	private final Map<Id<Link>, Way> linkId2Way;
+
+	// MATSim node id -> converted node, only needed until all links are read
+	private Map<String, MNode> nodes = new HashMap<>();
+	// The nodes are collected and transformed in one batch when the nodes
+	// element is closed.
+	private List<String> nodeIds = new ArrayList<>();
+	private List<Coord> nodeCoords = new ArrayList<>();
+
+	// the link currently being read
+	private Way way;
+	private MLink link;
+	private String linkId;
+	private String linkType;
+	private StringBuilder typeAttribute;
+
+	StreamingNetworkReader(DataSet dataSet, Map<Way, List<MLink>> way2Links, Map<Id<Link>, Way> linkId2Way) {
+		this.dataSet = dataSet;
+		this.way2Links = way2Links;
+		this.linkId2Way = linkId2Way;
+	}
+
+	void read(File file) throws IOException, SAXException {
+		SAXParserFactory factory = SAXParserFactory.newInstance();
+		factory.setValidating(false);
+		try {
+			// network files point to their DTD on matsim.org, which we neither
+			// need nor want to download
+			factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+			SAXParser parser = factory.newSAXParser();
+			try (InputStream stream = open(file)) {
+				parser.parse(stream, this);
+			}
+		} catch (ParserConfigurationException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static InputStream open(File file) throws IOException {
+		InputStream stream = new BufferedInputStream(new FileInputStream(file));
+		if (file.getName().endsWith(".gz")) {
+			stream = new GZIPInputStream(stream);
+		}
+		return stream;
+	}
+
+	@Override
+	public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+		switch (qName) {
+		case "node":
+			startNode(attributes);
+			break;
+		case "link":
+			startLink(attributes);
+			break;
+		case "attribute":
+			if (way != null && "type".equals(attributes.getValue("name"))) {
+				typeAttribute = new StringBuilder();
+			}
+			break;
+		default:
+		}
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length) {
+		if (typeAttribute != null) {
+			typeAttribute.append(ch, start, length);
+		}
+	}
+
+	@Override
+	public void endElement(String uri, String localName, String qName) {
+		switch (qName) {
+		case "nodes":
+			endNodes();
+			break;
+		case "attribute":
+			if (typeAttribute != null) {
+				linkType = typeAttribute.toString().trim();
+				typeAttribute = null;
+			}
+			break;
+		case "link":
+			endLink();
+			break;
+		case "links":
+			// all links are resolved
+			nodes = null;
+			break;
+		default:
+		}
+	}
+
+	private void startNode(Attributes attributes) {
+		nodeIds.add(attributes.getValue("id"));
+		nodeCoords.add(new Coord(Double.parseDouble(attributes.getValue("x")), Double.parseDouble(attributes.getValue("y"))));
+	}
+
+	private void endNodes() {
+		List<LatLon> latLons = CoordinateService.toLatLons(nodeCoords);
+		for (int i = 0; i < nodeIds.size(); i++) {
+			String id = nodeIds.get(i);
+			Node nodeOsm = new Node(latLons.get(i));
+
+			// set id of MATSim node as tag, as actual id of new MATSim node is
+			// set as corresponding OSM node id
+			nodeOsm.put(NodeConversionRules.ID, id);
+			dataSet.addPrimitive(nodeOsm);
+			MNode newNode = new MNode(nodeOsm, nodeCoords.get(i));
+			newNode.setOrigId(id);
+			nodes.put(id, newNode);
+		}
+		nodeIds = null;
+		nodeCoords = null;
+	}
+
+	private void startLink(Attributes attributes) throws SAXException {
+		linkId = attributes.getValue("id");
+		MNode fromNode = nodes.get(attributes.getValue("from"));
+		MNode toNode = nodes.get(attributes.getValue("to"));
+		if (fromNode == null || toNode == null) {
+			throw new SAXException("Link " + linkId + " refers to an unknown node.");
+		}
+		double freespeed = Double.parseDouble(attributes.getValue("freespeed"));
+		double capacity = Double.parseDouble(attributes.getValue("capacity"));
+		double length = Double.parseDouble(attributes.getValue("length"));
+		double permlanes = Double.parseDouble(attributes.getValue("permlanes"));
+		Set<String> modes = new HashSet<>();
+		String modesValue = attributes.getValue("modes");
+		if (modesValue != null) {
+			for (String mode : modesValue.split(",")) {
+				if (!mode.trim().isEmpty()) {
+					modes.add(mode.trim().intern());
+				}
+			}
+		}
+		linkType = attributes.getValue("type");
+
+		way = new Way();
+		way.addNode(fromNode.getOsmNode());
+		way.addNode(toNode.getOsmNode());
+		// set id of link as tag, as actual id of new link is set as
+		// corresponding way id
+		way.put(LinkConversionRules.ID, linkId);
+		way.put(LinkConversionRules.FREESPEED, String.valueOf(freespeed));
+		way.put(LinkConversionRules.CAPACITY, String.valueOf(capacity));
+		way.put(LinkConversionRules.LENGTH, String.valueOf(length));
+		way.put(LinkConversionRules.PERMLANES, String.valueOf(permlanes));
+		// multiple values are separated by ";"
+		way.put(LinkConversionRules.MODES, String.join(";", modes));
+
+		link = new MLink(fromNode, toNode);
+		link.setFreespeed(freespeed);
+		link.setCapacity(capacity);
+		link.setLength(length);
+		link.setNumberOfLanes(permlanes);
+		link.setAllowedModes(modes);
+		link.setOrigId(linkId);
+	}
+
+	// the type may be given as a nested attribute, so the way is only added
+	// when the link element is closed
+	private void endLink() {
+		if (linkType != null) {
+			way.put(LinkConversionRules.TYPE, linkType);
+		}
+		link.setType(linkType);
+		dataSet.addPrimitive(way);
+		link.setSegments(way, 0, 1);
+		way2Links.put(way, Collections.singletonList(link));
+		if (linkId2Way != null) {
+			linkId2Way.put(Id.createLinkId(linkId), way);
+		}
+		way = null;
+		link = null;
+		linkId = null;
+		linkType = null;
+	}
+
+}
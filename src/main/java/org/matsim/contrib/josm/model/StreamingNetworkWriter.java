@@ -0,0 +1,155 @@
+package org.matsim.contrib.josm.model;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.matsim.contrib.josm.gui.Preferences;
+
+/**
+ * Writes the network of a {@link NetworkModel} as MATSim network file (v1 or
+ * v2) directly from the model, without building a MATSim network first. Files
+ * ending with <code>.gz</code> are compressed. Writing from a snapshot, which
+ * may be done on any thread, writes exactly the version of the snapshot.
+ */
+public class StreamingNetworkWriter {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final NetworkSnapshot network;
+
+	public StreamingNetworkWriter(NetworkModel networkModel) {
+		this(networkModel.getSnapshot());
+	}
+
+	public StreamingNetworkWriter(NetworkSnapshot network) {
+		this.network = network;
+	}
+
+	/**
+	 * @param version
+	 *            "v1" or "v2", as in {@link Preferences#getNetworkExportVersion()}
+	 */
+	public void write(File file, String version) throws IOException {
+		OutputStream stream = new FileOutputStream(file);
+		if (file.getName().endsWith(".gz")) {
+			stream = new GZIPOutputStream(stream, BUFFER_SIZE);
+		}
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+			write(out, "v1".equals(version));
+		}
+	}
+
+	void write(Writer out, boolean v1) throws IOException {
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		out.write("<!DOCTYPE network SYSTEM \"http://www.matsim.org/files/dtd/network_" + (v1 ? "v1" : "v2") + ".dtd\">\n\n");
+		out.write("<network>\n\n");
+
+		out.write("\t<nodes>\n");
+		for (MNode node : network.getNodes().values()) {
+			out.write("\t\t<node id=\"");
+			out.write(encode(node.getOrigId()));
+			out.write("\" x=\"");
+			out.write(Double.toString(node.getCoord().getX()));
+			out.write("\" y=\"");
+			out.write(Double.toString(node.getCoord().getY()));
+			out.write("\" />\n");
+		}
+		out.write("\t</nodes>\n\n");
+
+		// the capacities of the model are given per hour
+		out.write("\t<links capperiod=\"01:00:00\" effectivecellsize=\"7.5\" effectivelanewidth=\"3.75\">\n");
+		boolean includeRoadType = network.getSettings().isIncludeRoadType();
+		// The attributes are read from the columns of the link store. Mode sets
+		// and types are encoded once per distinct value.
+		LinkStore store = network.getLinkStore();
+		Map<Integer, String> encodedModes = new HashMap<>();
+		Map<Integer, String> encodedTypes = new HashMap<>();
+		for (List<MLink> links : network.getWay2Links().values()) {
+			for (MLink link : links) {
+				int index = link.getStoreIndex();
+				String type = includeRoadType ? encodedTypes.computeIfAbsent(store.getTypeCode(index), code -> code == LinkStore.NONE ? null : encode(store.getString(code))) : null;
+				out.write("\t\t<link id=\"");
+				out.write(encode(link.getOrigId()));
+				out.write("\" from=\"");
+				out.write(encode(link.getFromNode().getOrigId()));
+				out.write("\" to=\"");
+				out.write(encode(link.getToNode().getOrigId()));
+				out.write("\" length=\"");
+				out.write(Double.toString(store.getLength(index)));
+				out.write("\" freespeed=\"");
+				out.write(Double.toString(store.getFreespeed(index)));
+				out.write("\" capacity=\"");
+				out.write(Double.toString(store.getCapacity(index)));
+				out.write("\" permlanes=\"");
+				out.write(Double.toString(store.getLanes(index)));
+				out.write("\" oneway=\"1\" modes=\"");
+				out.write(encodedModes.computeIfAbsent(store.getModesCode(index), code -> code == LinkStore.NONE ? "" : encode(String.join(",", store.getModeSet(code)))));
+				out.write("\"");
+				if (type != null && v1) {
+					out.write(" type=\"");
+					out.write(type);
+					out.write("\"");
+				}
+				if (type != null && !v1) {
+					out.write(" >\n");
+					out.write("\t\t\t<attributes>\n");
+					out.write("\t\t\t\t<attribute name=\"type\" class=\"java.lang.String\" >");
+					out.write(type);
+					out.write("</attribute>\n");
+					out.write("\t\t\t</attributes>\n");
+					out.write("\t\t</link>\n");
+				} else {
+					out.write(" />\n");
+				}
+			}
+		}
+		out.write("\t</links>\n\n");
+		out.write("</network>\n");
+	}
+
+	private static String encode(String value) {
+		if (value == null) {
+			return "";
+		}
+		StringBuilder result = null;
+		for (int i = 0; i < value.length(); i++) {
+			String replacement;
+			switch (value.charAt(i)) {
+			case '&':
+				replacement = "&amp;";
+				break;
+			case '<':
+				replacement = "&lt;";
+				break;
+			case '>':
+				replacement = "&gt;";
+				break;
+			case '"':
+				replacement = "&quot;";
+				break;
+			default:
+				replacement = null;
+			}
+			if (replacement != null) {
+				if (result == null) {
+					result = new StringBuilder(value.substring(0, i));
+				}
+				result.append(replacement);
+			} else if (result != null) {
+				result.append(value.charAt(i));
+			}
+		}
+		return result == null ? value : result.toString();
+	}
+
+}
@@ -0,0 +1,132 @@
+package org.matsim.contrib.josm.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openstreetmap.josm.data.osm.Way;
+
+/**
+ * All link attributes that can be derived from the tags of a way, computed
+ * once.
+ *
+ * Profiles are shared between all ways with the same relevant tags and
+ * conversion settings. They are cached until the conversion defaults or the
+ * hierarchy filter change.
+ */
+public class WayProfile {
+
+	// all tags the conversion rules look at, except for the matsim:id which
+	// only affects the ids of the links
+	private static final String[] KEYS = { LinkConversionRules.FREESPEED, LinkConversionRules.PERMLANES, LinkConversionRules.CAPACITY,
+			LinkConversionRules.MODES, LinkConversionRules.LENGTH, LinkConversionRules.TYPE, LinkConversionRules.HBEFA,
+			NetworkModel.TAG_HIGHWAY, NetworkModel.TAG_RAILWAY, "oneway", "access", "lanes", "maxspeed" };
+
+	// guards against unbounded growth on data with many distinct tag values
+	private static final int MAX_CACHE_SIZE = 100000;
+
+	private static final Map<List<Object>, WayProfile> cache = new ConcurrentHashMap<>();
+	private static volatile int cachedGeneration = -1;
+
+	private final OsmConvertDefaults.OsmWayDefaults defaults;
+	private final boolean forward;
+	private final boolean backward;
+	private final Double freespeed;
+	private final Double lanesPerDirection;
+	private final Double capacity;
+	private final Set<String> modes;
+	private final String type;
+	private final String hbefaType;
+	private final Double taggedLength;
+
+	private WayProfile(Way way, ConversionSettings settings) {
+		defaults = LinkConversionRules.getWayDefaults(way, settings.getWayDefaults());
+		forward = LinkConversionRules.isForward(way, defaults, settings.getFilterHierarchy());
+		backward = LinkConversionRules.isBackward(way, defaults, settings.getFilterHierarchy());
+		freespeed = LinkConversionRules.getFreespeed(way, defaults);
+		lanesPerDirection = LinkConversionRules.getLanesPerDirection(way, defaults, forward, backward);
+		capacity = LinkConversionRules.getCapacity(way, defaults, lanesPerDirection);
+		Set<String> wayModes = LinkConversionRules.getModes(way, defaults);
+		// the set is shared by the links of all ways with this profile
+		modes = wayModes != null ? Collections.unmodifiableSet(wayModes) : null;
+		type = LinkConversionRules.getType(way, freespeed);
+		hbefaType = LinkConversionRules.getHbefaType(way, freespeed);
+		taggedLength = LinkConversionRules.getTaggedLength(way);
+	}
+
+	/**
+	 * Returns the profile of the way according to the preferences.
+	 */
+	public static WayProfile of(Way way) {
+		return of(way, ConversionSettings.PREFERENCES);
+	}
+
+	public static WayProfile of(Way way, ConversionSettings settings) {
+		int generation = OsmConvertDefaults.getGeneration();
+		if (generation != cachedGeneration || cache.size() > MAX_CACHE_SIZE) {
+			cache.clear();
+			cachedGeneration = generation;
+		}
+		Object[] key = new Object[KEYS.length + 1];
+		for (int i = 0; i < KEYS.length; i++) {
+			key[i] = way.get(KEYS[i]);
+		}
+		key[KEYS.length] = settings.getProfileKey();
+		return cache.computeIfAbsent(Arrays.asList(key), k -> new WayProfile(way, settings));
+	}
+
+	public boolean isMatsimWay() {
+		return capacity != null && freespeed != null && lanesPerDirection != null && modes != null;
+	}
+
+	/**
+	 * Whether the way has a highway type with conversion defaults.
+	 */
+	public boolean hasDefaults() {
+		return defaults != null;
+	}
+
+	public OsmConvertDefaults.OsmWayDefaults getDefaults() {
+		return defaults;
+	}
+
+	public boolean isForward() {
+		return forward;
+	}
+
+	public boolean isBackward() {
+		return backward;
+	}
+
+	public Double getFreespeed() {
+		return freespeed;
+	}
+
+	public Double getLanesPerDirection() {
+		return lanesPerDirection;
+	}
+
+	public Double getCapacity() {
+		return capacity;
+	}
+
+	public Set<String> getModes() {
+		return modes;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public String getHbefaType() {
+		return hbefaType;
+	}
+
+	public Double getTaggedLength() {
+		return taggedLength;
+	}
+
+}
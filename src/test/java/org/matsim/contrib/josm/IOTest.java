@@ -1,19 +1,36 @@
 package org.matsim.contrib.josm;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
 import org.matsim.contrib.josm.gui.Preferences;
+import org.matsim.contrib.josm.model.BatchConverter;
+import org.matsim.contrib.josm.model.ConversionSettings;
 import org.matsim.contrib.josm.model.Export;
 import org.matsim.contrib.josm.model.Importer;
+import org.matsim.contrib.josm.model.LayerSnapshot;
+import org.matsim.contrib.josm.model.LinkConversionRules;
 import org.matsim.contrib.josm.model.MATSimLayer;
+import org.matsim.contrib.josm.model.MLink;
+import org.matsim.contrib.josm.model.MNode;
+import org.matsim.contrib.josm.model.NetworkModel;
+import org.matsim.contrib.josm.model.NetworkSnapshot;
+import org.matsim.contrib.josm.model.StreamingNetworkWriter;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.network.io.MatsimNetworkReader;
 import org.matsim.core.population.routes.NetworkRoute;
@@ -23,8 +40,12 @@ import org.matsim.pt.transitSchedule.api.TransitLine;
 import org.matsim.pt.transitSchedule.api.TransitRoute;
 import org.matsim.pt.transitSchedule.api.TransitSchedule;
 import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.openstreetmap.josm.command.ChangePropertyCommand;
 import org.openstreetmap.josm.command.Command;
 import org.openstreetmap.josm.command.DeleteCommand;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.Relation;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.testutils.JOSMTestRules;
@@ -34,6 +55,9 @@ public class IOTest {
 	@Rule
 	public JOSMTestRules test = new JOSMTestRules().preferences().projection();
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	@Test
 	public void readNetworkWithoutTransit() {
 		URL url = getClass().getResource("/test-input/pt-tutorial/multimodalnetwork.xml");
@@ -46,6 +70,32 @@ public class IOTest {
 		deleteAndUndeleteEverything(scenario, layer);
 	}
 
+	@Test
+	public void readNetworkAttributes() {
+		URL url = getClass().getResource("/test-input/pt-tutorial/multimodalnetwork.xml");
+		Scenario scenario = ScenarioUtils.createScenario(ConfigUtils.createConfig());
+		new MatsimNetworkReader(scenario.getNetwork()).parse(url);
+		MATSimLayer layer = new Importer(new File(url.getFile()), null).createMatsimLayer();
+		Map<String, MLink> links = new HashMap<>();
+		for (List<MLink> wayLinks : layer.getNetworkModel().getWay2Links().values()) {
+			for (MLink link : wayLinks) {
+				links.put(link.getOrigId(), link);
+			}
+		}
+		Assert.assertEquals(scenario.getNetwork().getLinks().size(), links.size());
+		for (Link link : scenario.getNetwork().getLinks().values()) {
+			MLink mLink = links.get(link.getId().toString());
+			Assert.assertNotNull(mLink);
+			Assert.assertEquals(link.getFromNode().getId().toString(), mLink.getFromNode().getOrigId());
+			Assert.assertEquals(link.getToNode().getId().toString(), mLink.getToNode().getOrigId());
+			Assert.assertEquals(link.getFreespeed(), mLink.getFreespeed(), 0.);
+			Assert.assertEquals(link.getCapacity(), mLink.getCapacity(), 0.);
+			Assert.assertEquals(link.getLength(), mLink.getLength(), 0.);
+			Assert.assertEquals(link.getNumberOfLanes(), mLink.getNumberOfLanes(), 0.);
+			Assert.assertEquals(link.getAllowedModes(), mLink.getAllowedModes());
+		}
+	}
+
 	private void deleteAndUndeleteLinksOneByOne(Scenario scenario, MATSimLayer layer) {
 		int nLinks = scenario.getNetwork().getLinks().size();
 		List<Command> commands = new ArrayList<>();
@@ -142,6 +192,183 @@ public class IOTest {
 		checkAttributes(scenario, outputScenario);
 	}
 
+	@Test
+	public void writeNetworkAndScheduleFromModel() throws IOException {
+		Preferences.setSupportTransit(true);
+		Scenario scenario = PtTutorialScenario.scenario();
+		MATSimLayer layer = PtTutorialScenario.layer();
+
+		File file = folder.newFile("network.xml.gz");
+		new StreamingNetworkWriter(layer.getNetworkModel()).write(file, "v2");
+		Scenario outputScenario = ScenarioUtils.createScenario(ConfigUtils.createConfig());
+		new MatsimNetworkReader(outputScenario.getNetwork()).readFile(file.getPath());
+		Assert.assertEquals(scenario.getNetwork().getNodes().size(), outputScenario.getNetwork().getNodes().size());
+		Assert.assertEquals(scenario.getNetwork().getLinks().size(), outputScenario.getNetwork().getLinks().size());
+		for (Link link : scenario.getNetwork().getLinks().values()) {
+			Link outputLink = outputScenario.getNetwork().getLinks().get(link.getId());
+			Assert.assertEquals(link.getFromNode().getId(), outputLink.getFromNode().getId());
+			Assert.assertEquals(link.getToNode().getId(), outputLink.getToNode().getId());
+			Assert.assertEquals(link.getFreespeed(), outputLink.getFreespeed(), 0.);
+			Assert.assertEquals(link.getCapacity(), outputLink.getCapacity(), 0.);
+			Assert.assertEquals(link.getLength(), outputLink.getLength(), 0.);
+			Assert.assertEquals(link.getAllowedModes(), outputLink.getAllowedModes());
+		}
+
+		TransitSchedule schedule = Export.toTransitSchedule(layer.getNetworkModel());
+		Assert.assertEquals(scenario.getTransitSchedule().getFacilities().keySet(), schedule.getFacilities().keySet());
+		TransitSchedule scenarioSchedule = Export.toScenario(layer.getNetworkModel()).getTransitSchedule();
+		for (TransitStopFacility facility : schedule.getFacilities().values()) {
+			Assert.assertEquals(scenarioSchedule.getFacilities().get(facility.getId()).getLinkId(), facility.getLinkId());
+		}
+		Assert.assertEquals(countRoutes(scenario.getTransitSchedule()), countRoutes(schedule));
+		Assert.assertEquals(countLinksInRoutes(scenario.getTransitSchedule()), countLinksInRoutes(schedule));
+		Assert.assertEquals(countDepartures(scenario.getTransitSchedule()), countDepartures(schedule));
+	}
+
+	@Test
+	public void writeNetworkFromSnapshotWhileEditing() throws IOException {
+		Scenario scenario = PtTutorialScenario.scenario();
+		MATSimLayer layer = PtTutorialScenario.layer();
+
+		NetworkSnapshot snapshot = layer.getNetworkModel().takeSnapshot();
+		// converts all ways again, into links which must not take the places
+		// of the links of the snapshot
+		new ChangePropertyCommand(layer.data.getWays(), LinkConversionRules.FREESPEED, "1.0").executeCommand();
+		File file = folder.newFile("network.xml");
+		try {
+			new StreamingNetworkWriter(snapshot).write(file, "v2");
+		} finally {
+			snapshot.close();
+		}
+
+		Scenario outputScenario = ScenarioUtils.createScenario(ConfigUtils.createConfig());
+		new MatsimNetworkReader(outputScenario.getNetwork()).readFile(file.getPath());
+		Assert.assertEquals(scenario.getNetwork().getLinks().size(), outputScenario.getNetwork().getLinks().size());
+		for (Link link : scenario.getNetwork().getLinks().values()) {
+			Link outputLink = outputScenario.getNetwork().getLinks().get(link.getId());
+			Assert.assertEquals(link.getFreespeed(), outputLink.getFreespeed(), 0.);
+			Assert.assertEquals(link.getLength(), outputLink.getLength(), 0.);
+		}
+		for (List<MLink> links : layer.getNetworkModel().getWay2Links().values()) {
+			for (MLink link : links) {
+				Assert.assertEquals(1.0, link.getFreespeed(), 0.);
+			}
+		}
+	}
+
+	@Test
+	public void saveAndReopenSnapshot() throws IOException {
+		Preferences.setSupportTransit(true);
+		Scenario scenario = PtTutorialScenario.scenario();
+		MATSimLayer layer = PtTutorialScenario.layer();
+		File file = folder.newFile("pt-tutorial." + LayerSnapshot.EXTENSION);
+		LayerSnapshot.write(layer, file);
+		Assert.assertTrue(LayerSnapshot.isSnapshotFile(file));
+		MATSimLayer reopened = LayerSnapshot.read(file);
+		Assert.assertEquals(layer.data.getNodes().size(), reopened.data.getNodes().size());
+		Assert.assertEquals(layer.data.getWays().size(), reopened.data.getWays().size());
+		Assert.assertEquals(layer.data.getRelations().size(), reopened.data.getRelations().size());
+		Map<String, MLink> links = new HashMap<>();
+		for (List<MLink> wayLinks : reopened.getNetworkModel().getWay2Links().values()) {
+			for (MLink link : wayLinks) {
+				links.put(link.getOrigId(), link);
+			}
+		}
+		Assert.assertEquals(scenario.getNetwork().getLinks().size(), links.size());
+		for (Link link : scenario.getNetwork().getLinks().values()) {
+			MLink mLink = links.get(link.getId().toString());
+			Assert.assertNotNull(mLink);
+			Assert.assertEquals(link.getFromNode().getId().toString(), mLink.getFromNode().getOrigId());
+			Assert.assertEquals(link.getToNode().getId().toString(), mLink.getToNode().getOrigId());
+			Assert.assertEquals(link.getFreespeed(), mLink.getFreespeed(), 0.);
+			Assert.assertEquals(link.getCapacity(), mLink.getCapacity(), 0.);
+			Assert.assertEquals(link.getLength(), mLink.getLength(), 0.);
+			Assert.assertEquals(link.getAllowedModes(), mLink.getAllowedModes());
+		}
+		checkAttributes(scenario, Export.toScenario(reopened.getNetworkModel()));
+	}
+
+	@Test
+	public void saveAndReopenSnapshotWithNewWays() throws IOException {
+		DataSet dataSet = new DataSet();
+		List<Node> nodes = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			Node node = new Node(new LatLon(52.5, 13.4 + i * 0.001));
+			dataSet.addPrimitive(node);
+			nodes.add(node);
+		}
+		for (int i = 0; i < 2; i++) {
+			Way way = new Way();
+			way.setNodes(nodes.subList(i * 2, i * 2 + 2));
+			way.put("highway", "residential");
+			dataSet.addPrimitive(way);
+		}
+		NetworkModel networkModel = NetworkModel.createNetworkModel(dataSet);
+		networkModel.visitAll();
+		MATSimLayer layer = new MATSimLayer(dataSet, "new ways", null, networkModel);
+		File file = folder.newFile("new-ways." + LayerSnapshot.EXTENSION);
+		LayerSnapshot.write(layer, file);
+		MATSimLayer reopened = LayerSnapshot.read(file);
+
+		// a way created afterwards must not get the ids of a reopened one
+		Way created = new Way();
+		created.setNodes(new ArrayList<>(reopened.data.getWays().iterator().next().getNodes()));
+		created.put("highway", "residential");
+		reopened.data.addPrimitive(created);
+
+		NetworkModel reopenedModel = reopened.getNetworkModel();
+		Set<String> linkIds = new HashSet<>();
+		int linkCount = 0;
+		for (Map.Entry<Way, List<MLink>> entry : reopenedModel.getWay2Links().entrySet()) {
+			for (MLink link : entry.getValue()) {
+				Assert.assertTrue(link.getOrigId().startsWith(entry.getKey().getUniqueId() + "_"));
+				linkIds.add(link.getOrigId());
+				linkCount++;
+			}
+		}
+		Assert.assertEquals(3 * 2, linkCount);
+		Assert.assertEquals(linkCount, linkIds.size());
+		for (MNode node : reopenedModel.nodes().values()) {
+			Assert.assertEquals(String.valueOf(node.getOsmNode().getUniqueId()), node.getOrigId());
+		}
+	}
+
+	@Test
+	public void reopenTruncatedSnapshot() throws IOException {
+		MATSimLayer layer = PtTutorialScenario.layer();
+		File file = folder.newFile("truncated." + LayerSnapshot.EXTENSION);
+		LayerSnapshot.write(layer, file);
+		byte[] content = Files.readAllBytes(file.toPath());
+		Files.write(file.toPath(), Arrays.copyOf(content, content.length - 16));
+		try {
+			LayerSnapshot.read(file);
+			Assert.fail("Truncated snapshot was read");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void batchConvertRegions() throws Exception {
+		File osm = new File(getClass().getResource("/test-input/OSMData/unter_den_linden.osm").getFile());
+		File pbf = new File(getClass().getResource("/test-input/OSMData/unter_den_linden.osm.pbf").getFile());
+		File output = folder.newFolder("batch");
+		List<BatchConverter.Region> regions = Arrays.asList(new BatchConverter.Region("osm", osm, new ConversionSettings()),
+				new BatchConverter.Region("pbf", pbf, new ConversionSettings().withKeepPaths(true).withProjection("EPSG:32633")),
+				new BatchConverter.Region("missing", new File(folder.getRoot(), "missing.osm"), new ConversionSettings()));
+		List<BatchConverter.Result> results = new BatchConverter(output, 2).convert(regions);
+		Assert.assertEquals(3, results.size());
+		Assert.assertTrue(results.get(0).isSuccessful());
+		Assert.assertTrue(results.get(1).isSuccessful());
+		Assert.assertFalse(results.get(2).isSuccessful());
+		Assert.assertTrue(new File(new File(output, "osm"), BatchConverter.NETWORK_FILE).isFile());
+		Assert.assertTrue(new File(new File(output, "pbf"), BatchConverter.NETWORK_FILE).isFile());
+		Assert.assertTrue(results.get(0).getLinks() > 0);
+		Assert.assertTrue(results.get(1).getLinks() > results.get(0).getLinks());
+		// the preferences are untouched
+		Assert.assertFalse(Preferences.isKeepPaths());
+	}
+
 	@Test
 	public void deleteAndUndeleteStopRelations() {
 		Preferences.setSupportTransit(true);
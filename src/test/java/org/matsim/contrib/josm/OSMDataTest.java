@@ -4,8 +4,12 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
+import org.matsim.contrib.josm.actions.OverpassCache;
+import org.matsim.contrib.josm.actions.TiledOverpassDownloader;
 import org.matsim.contrib.josm.gui.Preferences;
 import org.matsim.contrib.josm.model.*;
 import org.matsim.core.config.Config;
@@ -17,23 +21,46 @@ import org.matsim.pt.transitSchedule.api.TransitStopFacility;
 import org.openstreetmap.josm.command.ChangeNodesCommand;
 import org.openstreetmap.josm.command.Command;
 import org.openstreetmap.josm.command.DeleteCommand;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.ProjectionBounds;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationMember;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
 import org.openstreetmap.josm.io.Compression;
 import org.openstreetmap.josm.io.IllegalDataException;
 import org.openstreetmap.josm.io.OsmReader;
 import org.openstreetmap.josm.testutils.JOSMTestRules;
+import org.openstreetmap.josm.tools.XmlWriter;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 
 
 public class OSMDataTest {
@@ -42,6 +69,9 @@ public class OSMDataTest {
 	@Rule
 	public JOSMTestRules test = new JOSMTestRules().preferences().projection();
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	private OsmDataLayer incompleteWayLayer;
 	private NetworkModel incompleteWayListener;
 	private OsmDataLayer busRouteLayer;
@@ -204,6 +234,497 @@ public class OSMDataTest {
 
 	}
 
+	@Test
+	public void testConvertDefaultsChanged() {
+		Assert.assertEquals(10,busRouteListener.getWay2Links().values().stream().mapToInt(List::size).sum());
+
+		// tertiary ways now lie above the hierarchy filter
+		org.openstreetmap.josm.spi.preferences.Config.getPref().put("matsim_convertDefaults_tertiary", "7;1;" + Double.toString(45. / 3.6) + ";1.0;600;false");
+		Assert.assertEquals(0,busRouteListener.getWay2Links().values().stream().mapToInt(List::size).sum());
+
+		org.openstreetmap.josm.spi.preferences.Config.getPref().put("matsim_convertDefaults_tertiary", null);
+		Assert.assertEquals(10,busRouteListener.getWay2Links().values().stream().mapToInt(List::size).sum());
+	}
+
+	@Test
+	public void testParallelConversion() throws IOException, IllegalDataException {
+		URL url = getClass().getResource("/test-input/OSMData/unter_den_linden.osm");
+		DataSet data = OsmReader.parseDataSet(Compression.getUncompressedFileInputStream(new File(url.getFile())), null);
+		NetworkModel serial = NetworkModel.createNetworkModel(data);
+		serial.visitAll();
+		NetworkModel parallel = NetworkModel.createNetworkModel(data);
+		parallel.visitAllParallel();
+
+		Assert.assertFalse(serial.getWay2Links().isEmpty());
+		Assert.assertEquals(serial.nodes().keySet(), parallel.nodes().keySet());
+		Assert.assertEquals(serial.getWay2Links().keySet(), parallel.getWay2Links().keySet());
+		for (Way way : serial.getWay2Links().keySet()) {
+			List<String> serialIds = new ArrayList<>();
+			for (MLink link : serial.getWay2Links().get(way)) {
+				serialIds.add(link.getOrigId());
+			}
+			List<String> parallelIds = new ArrayList<>();
+			for (MLink link : parallel.getWay2Links().get(way)) {
+				parallelIds.add(link.getOrigId());
+			}
+			Assert.assertEquals(serialIds, parallelIds);
+		}
+	}
+
+	@Test
+	public void testPbfImport() throws IOException, IllegalDataException {
+		URL url = getClass().getResource("/test-input/OSMData/unter_den_linden.osm");
+		DataSet osm = OsmReader.parseDataSet(Compression.getUncompressedFileInputStream(new File(url.getFile())), null);
+		URL pbfUrl = getClass().getResource("/test-input/OSMData/unter_den_linden.osm.pbf");
+		DataSet pbf = new PbfReader(OsmConvertDefaults.highwayTypes, OsmConvertDefaults.routeTypes).parseDataSet(new File(pbfUrl.getFile()), null);
+
+		for (Way way : osm.getWays()) {
+			if (way.hasTag("building")) {
+				Assert.assertNull(pbf.getPrimitiveById(way.getPrimitiveId()));
+			} else if (OsmConvertDefaults.highwayTypes.contains(way.get("highway"))) {
+				Way pbfWay = (Way) pbf.getPrimitiveById(way.getPrimitiveId());
+				Assert.assertEquals(way.getKeys(), pbfWay.getKeys());
+				Assert.assertEquals(way.getNodesCount(), pbfWay.getNodesCount());
+				for (int i = 0; i < way.getNodesCount(); i++) {
+					Assert.assertEquals(way.getNode(i).getId(), pbfWay.getNode(i).getId());
+					Assert.assertTrue(way.getNode(i).getCoor().equalsEpsilon(pbfWay.getNode(i).getCoor()));
+				}
+			}
+		}
+		for (Relation relation : osm.getRelations()) {
+			if (relation.hasTag("type", "route") && OsmConvertDefaults.routeTypes.contains(relation.get("route"))) {
+				Relation pbfRelation = (Relation) pbf.getPrimitiveById(relation.getPrimitiveId());
+				Assert.assertEquals(relation.getMembersCount(), pbfRelation.getMembersCount());
+			}
+		}
+
+		NetworkModel osmModel = NetworkModel.createNetworkModel(osm);
+		osmModel.visitAll();
+		NetworkModel pbfModel = NetworkModel.createNetworkModel(pbf);
+		pbfModel.visitAll();
+		// railways which are not part of a route are left out, so the links may be split differently
+		for (Way way : osmModel.getWay2Links().keySet()) {
+			if (OsmConvertDefaults.highwayTypes.contains(way.get("highway")) && !osmModel.getWay2Links().get(way).isEmpty()) {
+				Assert.assertFalse(pbfModel.getWay2Links().get(pbf.getPrimitiveById(way.getPrimitiveId())).isEmpty());
+			}
+		}
+	}
+
+	@Test
+	public void testTiledOverpassDownload() throws Exception {
+		URL url = getClass().getResource("/test-input/OSMData/unter_den_linden.osm");
+		DataSet osm = OsmReader.parseDataSet(Compression.getUncompressedFileInputStream(new File(url.getFile())), null);
+		Bounds area = osm.getDataSourceBounds().get(0);
+		AtomicInteger requests = new AtomicInteger();
+		HttpServer server = startOverpassStandIn(osm, requests);
+		try {
+			String endpoint = "http://localhost:" + server.getAddress().getPort();
+			// the area fits into two tiles, each of which the stand-in splits once more
+			DataSet downloaded = new TiledOverpassDownloader(area, bbox -> "way " + bbox + " [highway]; (._; >;); out meta;",
+					Arrays.asList(endpoint + "/a/interpreter", endpoint + "/b/interpreter"), 1, 0.004, null).parseOsm(NullProgressMonitor.INSTANCE);
+			Assert.assertEquals(1 + 2 + 8, requests.get());
+			Set<Long> expected = new HashSet<>();
+			for (Way way : osm.getWays()) {
+				if (way.hasKey("highway") && way.getNodes().stream().anyMatch(node -> area.contains(node.getCoor()))) {
+					expected.add(way.getId());
+				}
+			}
+			Set<Long> actual = new HashSet<>();
+			for (Way way : downloaded.getWays()) {
+				actual.add(way.getId());
+				Assert.assertFalse(way.isIncomplete());
+				Assert.assertEquals(((Way) osm.getPrimitiveById(way.getPrimitiveId())).getNodesCount(), way.getNodesCount());
+			}
+			Assert.assertFalse(expected.isEmpty());
+			Assert.assertEquals(expected, actual);
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void testOverpassCache() throws Exception {
+		URL url = getClass().getResource("/test-input/OSMData/unter_den_linden.osm");
+		DataSet osm = OsmReader.parseDataSet(Compression.getUncompressedFileInputStream(new File(url.getFile())), null);
+		Bounds area = osm.getDataSourceBounds().get(0);
+		File directory = folder.newFolder("overpass");
+		AtomicInteger requests = new AtomicInteger();
+		HttpServer server = startOverpassStandIn(osm, requests);
+		Function<String, String> query = bbox -> "way " + bbox + " [highway]; (._; >;); out meta;";
+		List<String> endpoints = Collections.singletonList("http://localhost:" + server.getAddress().getPort() + "/a/interpreter");
+		try {
+			DataSet downloaded = new TiledOverpassDownloader(area, query, endpoints, 2, 0.004,
+					new OverpassCache(directory, 1024 * 1024, 60 * 1000)).parseOsm(NullProgressMonitor.INSTANCE);
+			int downloadRequests = requests.get();
+			// a new instance reads what the first one stored, as after a restart; the tiles the server gave up
+			// on before are split right away
+			DataSet cached = new TiledOverpassDownloader(area, query, endpoints, 2, 0.004,
+					new OverpassCache(directory, 1024 * 1024, 60 * 1000)).parseOsm(NullProgressMonitor.INSTANCE);
+			Assert.assertEquals(downloadRequests, requests.get());
+			Assert.assertEquals(downloaded.getWays().size(), cached.getWays().size());
+			Assert.assertEquals(downloaded.getNodes().size(), cached.getNodes().size());
+		} finally {
+			server.stop(0);
+		}
+
+		OverpassCache cache = new OverpassCache(folder.newFolder("contained"), 1024 * 1024, 0);
+		byte[] content = "<osm version='0.6'/>".getBytes(StandardCharsets.UTF_8);
+		cache.put("[timeout:180];way {{bbox}};  out meta;", new Bounds(52.0, 13.0, 53.0, 14.0), content);
+		Thread.sleep(10);
+		// contained in the cached area, with a different timeout and white space; expired, though
+		Assert.assertNull(cache.get("way {{bbox}}; out meta;", new Bounds(52.2, 13.2, 52.4, 13.4), false));
+		Assert.assertArrayEquals(content, cache.get("way {{bbox}}; out meta;", new Bounds(52.2, 13.2, 52.4, 13.4), true));
+		Assert.assertNull(cache.get("way {{bbox}}; out meta;", new Bounds(52.2, 13.2, 53.4, 13.4), true));
+
+		cache = new OverpassCache(folder.newFolder("evicted"), 1, 60 * 1000);
+		cache.put("rel(1); out meta;", null, content);
+		Assert.assertNotNull(cache.get("rel(1); out meta;", null, false));
+		cache.put("rel(2); out meta;", null, content);
+		Assert.assertNull(cache.get("rel(1); out meta;", null, false));
+	}
+
+	@Test
+	public void testConvertWhileDownloading() throws Exception {
+		URL url = getClass().getResource("/test-input/OSMData/unter_den_linden.osm");
+		DataSet osm = OsmReader.parseDataSet(Compression.getUncompressedFileInputStream(new File(url.getFile())), null);
+		Bounds area = osm.getDataSourceBounds().get(0);
+		HttpServer server = startOverpassStandIn(osm, new AtomicInteger());
+		DataSet data = new DataSet();
+		NetworkModel model = NetworkModel.createNetworkModel(data);
+		List<Integer> linkCounts = new ArrayList<>();
+		try {
+			String endpoint = "http://localhost:" + server.getAddress().getPort() + "/a/interpreter";
+			Assert.assertTrue(new TiledOverpassDownloader(area, bbox -> "way " + bbox + " [highway]; (._; >;); out meta;",
+					Collections.singletonList(endpoint), 2, 0.004, null).download(NullProgressMonitor.INSTANCE, tile -> {
+						data.mergeFrom(tile);
+						linkCounts.add(model.getLinkCount());
+					}));
+		} finally {
+			server.stop(0);
+		}
+		// the network grew with each tile...
+		Assert.assertEquals(8, linkCounts.size());
+		Assert.assertTrue(linkCounts.get(0) < linkCounts.get(linkCounts.size() - 1));
+		// ...into the one converted after the download, including links split by later tiles
+		NetworkModel afterwards = NetworkModel.createNetworkModel(data);
+		afterwards.visitAll();
+		Assert.assertEquals(afterwards.getLinkCount(), model.getLinkCount());
+		for (Way way : data.getWays()) {
+			Assert.assertEquals(afterwards.getWay2Links().getOrDefault(way, Collections.emptyList()).size(),
+					model.getWay2Links().getOrDefault(way, Collections.emptyList()).size());
+		}
+		model.release();
+		afterwards.release();
+	}
+
+	/**
+	 * Answers Overpass queries with the highways of the data set which have a
+	 * node in the bounding box of the query. The first request is rejected as
+	 * too many, and bounding boxes higher than 0.001 degrees time out.
+	 */
+	private static HttpServer startOverpassStandIn(DataSet data, AtomicInteger requests) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		HttpHandler handler = exchange -> {
+			String query = URLDecoder.decode(exchange.getRequestURI().getRawQuery().substring("data=".length()), "UTF-8");
+			Matcher matcher = Pattern.compile("\\(([-\\d.]+),([-\\d.]+),([-\\d.]+),([-\\d.]+)\\)").matcher(query);
+			matcher.find();
+			Bounds bbox = new Bounds(Double.parseDouble(matcher.group(1)), Double.parseDouble(matcher.group(2)),
+					Double.parseDouble(matcher.group(3)), Double.parseDouble(matcher.group(4)));
+			StringBuilder sb = new StringBuilder("<?xml version='1.0' encoding='UTF-8'?><osm version='0.6' generator='stand-in'>");
+			int code = 200;
+			if (requests.getAndIncrement() == 0) {
+				code = 429;
+			} else if (bbox.getMaxLat() - bbox.getMinLat() > 0.001) {
+				sb.append("<remark> runtime error: Query timed out in \"query\" at line 1 after 180 seconds. </remark>");
+			} else {
+				StringBuilder ways = new StringBuilder();
+				Set<Node> nodes = new HashSet<>();
+				for (Way way : data.getWays()) {
+					if (way.hasKey("highway") && way.getNodes().stream().anyMatch(node -> bbox.contains(node.getCoor()))) {
+						nodes.addAll(way.getNodes());
+						ways.append(String.format("<way id='%d' version='%d'>", way.getId(), way.getVersion()));
+						for (Node node : way.getNodes()) {
+							ways.append(String.format("<nd ref='%d'/>", node.getId()));
+						}
+						way.getKeys().forEach((k, v) -> ways.append(String.format("<tag k='%s' v='%s'/>", XmlWriter.encode(k), XmlWriter.encode(v))));
+						ways.append("</way>");
+					}
+				}
+				for (Node node : nodes) {
+					sb.append(String.format(Locale.ROOT, "<node id='%d' version='%d' lat='%.7f' lon='%.7f'/>", node.getId(), node.getVersion(),
+							node.lat(), node.lon()));
+				}
+				sb.append(ways);
+			}
+			sb.append("</osm>");
+			byte[] response = sb.toString().getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(code, response.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(response);
+			}
+		};
+		server.createContext("/a/interpreter", handler);
+		server.createContext("/b/interpreter", handler);
+		server.start();
+		return server;
+	}
+
+	@Test
+	public void testWayProfileShared() {
+		Way way = new Way();
+		way.put("highway", "residential");
+		Way otherWay = new Way();
+		otherWay.put("highway", "residential");
+		otherWay.put("name", "Unter den Linden");
+		Assert.assertSame(WayProfile.of(way), WayProfile.of(otherWay));
+
+		otherWay.put("maxspeed", "50");
+		Assert.assertNotSame(WayProfile.of(way), WayProfile.of(otherWay));
+		Assert.assertEquals(50 / 3.6, WayProfile.of(otherWay).getFreespeed(), 1e-9);
+		Assert.assertEquals("residential_50", WayProfile.of(otherWay).getType());
+	}
+
+	@Test
+	public void testSpatialIndex() {
+		List<MLink> links = new ArrayList<>();
+		busRouteListener.getWay2Links().values().forEach(links::addAll);
+		ProjectionBounds bounds = null;
+		for (Node node : busRouteLayer.data.getNodes()) {
+			if (bounds == null) {
+				bounds = new ProjectionBounds(node.getEastNorth());
+			} else {
+				bounds.extend(node.getEastNorth());
+			}
+		}
+		Assert.assertEquals(new HashSet<>(links), new HashSet<>(busRouteListener.getLinks(bounds)));
+		Assert.assertEquals(new HashSet<>(busRouteListener.nodes().values()), new HashSet<>(busRouteListener.getNodes(bounds)));
+
+		MNode node = busRouteListener.nodes().values().iterator().next();
+		EastNorth point = new EastNorth(node.getCoord().getX(), node.getCoord().getY());
+		Assert.assertSame(node, busRouteListener.getNearestNodes(point, 1).get(0));
+		Assert.assertEquals(Collections.singletonList(node), busRouteListener.getNodesWithin(point, 0.01));
+		MLink nearestLink = busRouteListener.getNearestLinks(point, 1).get(0);
+		Assert.assertTrue(nearestLink.getFromNode() == node || nearestLink.getToNode() == node);
+		Assert.assertEquals(links.size(), busRouteListener.getNearestLinks(point, links.size() + 1).size());
+
+		Way way = busRouteLayer.data.getWays().iterator().next();
+		List<MLink> wayLinks = busRouteListener.getWay2Links().get(way);
+		Command delete = DeleteCommand.delete(Collections.singletonList(way), false, true);
+		delete.executeCommand();
+		Assert.assertFalse(busRouteListener.getLinks(bounds).stream().anyMatch(wayLinks::contains));
+		delete.undoCommand();
+		Assert.assertEquals(links.size(), busRouteListener.getLinks(bounds).size());
+	}
+
+	@Test
+	public void testChangeNotification() {
+		org.openstreetmap.josm.spi.preferences.Config.getPref().putInt("matsim_notificationDelay", 0);
+		List<NetworkChange> changes = new ArrayList<>();
+		busRouteListener.addListener(new NetworkModel.ScenarioDataChangedListener() {
+			@Override
+			public void notifyDataChanged() {
+				Assert.fail();
+			}
+
+			@Override
+			public void notifyDataChanged(NetworkChange change) {
+				changes.add(change);
+			}
+		});
+		Way way = busRouteLayer.data.getWays().iterator().next();
+		List<MLink> wayLinks = busRouteListener.getWay2Links().get(way);
+		Command delete = DeleteCommand.delete(Collections.singletonList(way), false, true);
+		delete.executeCommand();
+
+		Assert.assertFalse(changes.isEmpty());
+		Set<MLink> removedLinks = new HashSet<>();
+		changes.forEach(change -> removedLinks.addAll(change.getRemovedLinks()));
+		Assert.assertTrue(removedLinks.containsAll(wayLinks));
+		Assert.assertEquals(10 - wayLinks.size(), busRouteListener.getLinkCount());
+		List<ProjectionBounds> changedBounds = new ArrayList<>();
+		changes.forEach(change -> changedBounds.addAll(change.getChangedBounds()));
+		for (Node node : way.getNodes()) {
+			EastNorth point = node.getEastNorth();
+			Assert.assertTrue(changedBounds.stream().anyMatch(bounds -> bounds.minEast <= point.east() && point.east() <= bounds.maxEast
+					&& bounds.minNorth <= point.north() && point.north() <= bounds.maxNorth));
+		}
+
+		changes.clear();
+		busRouteListener.visitAll();
+		Assert.assertEquals(1, changes.size());
+		Assert.assertTrue(changes.get(0).isEverythingChanged());
+	}
+
+	@Test
+	public void testBackgroundConversion() {
+		org.openstreetmap.josm.spi.preferences.Config.getPref().putBoolean("matsim_backgroundConversion", true);
+		NetworkModel networkModel = NetworkModel.createNetworkModel(intersectionsLayer.data);
+		networkModel.visitAll();
+		NetworkSnapshot snapshot = networkModel.getSnapshot();
+		Assert.assertEquals(11, snapshot.getLinkCount());
+		Assert.assertEquals(12, snapshot.getNodes().size());
+
+		Command delete = DeleteCommand.delete(Collections.singleton(intersectionsLayer.data.getPrimitiveById(14, OsmPrimitiveType.NODE)), false, true);
+		delete.executeCommand();
+		networkModel.awaitConversion();
+		// published snapshots do not change anymore
+		Assert.assertEquals(11, snapshot.getWay2Links().values().stream().mapToInt(List::size).sum());
+		Assert.assertEquals(12, snapshot.getNodes().size());
+		NetworkSnapshot converted = networkModel.getSnapshot();
+		Assert.assertTrue(converted.getVersion() > snapshot.getVersion());
+		Assert.assertEquals(9, converted.getLinkCount());
+		Assert.assertEquals(11, converted.getNodes().size());
+
+		networkModel.release();
+		org.openstreetmap.josm.spi.preferences.Config.getPref().putBoolean("matsim_backgroundConversion", false);
+	}
+
+	@Test
+	public void testLinkAttributesKeptAfterRemoval() {
+		Way way = busRouteLayer.data.getWays().iterator().next();
+		List<MLink> wayLinks = busRouteListener.getWay2Links().get(way);
+		MLink link = wayLinks.get(0);
+		Double length = link.getLength();
+		Double freespeed = link.getFreespeed();
+		Set<String> modes = link.getAllowedModes();
+		Assert.assertNotNull(length);
+		// equal mode sets are only stored once
+		for (List<MLink> links : busRouteListener.getWay2Links().values()) {
+			for (MLink other : links) {
+				if (other.getAllowedModes().equals(modes)) {
+					Assert.assertSame(modes, other.getAllowedModes());
+				}
+			}
+		}
+
+		Command delete = DeleteCommand.delete(Collections.singletonList(way), false, true);
+		delete.executeCommand();
+		Assert.assertEquals(10 - wayLinks.size(), busRouteListener.getLinkCount());
+		Assert.assertEquals(length, link.getLength());
+		Assert.assertEquals(freespeed, link.getFreespeed());
+		Assert.assertEquals(modes, link.getAllowedModes());
+
+		delete.undoCommand();
+		Assert.assertEquals(10, busRouteListener.getLinkCount());
+		for (MLink other : busRouteListener.getWay2Links().get(way)) {
+			Assert.assertEquals(freespeed, other.getFreespeed());
+		}
+	}
+
+	@Test
+	public void testReleasedWithLayer() {
+		MATSimLayer matsimLayer = LayerConverter.convertWithFullTransit(busRouteLayer);
+		NetworkModel networkModel = matsimLayer.getNetworkModel();
+		int linkCount = networkModel.getLinkCount();
+		Way way = matsimLayer.data.getWays().iterator().next();
+		matsimLayer.destroy();
+
+		// the model of a removed layer does not follow its data anymore
+		Command delete = DeleteCommand.delete(Collections.singletonList(way), false, true);
+		delete.executeCommand();
+		Assert.assertEquals(linkCount, networkModel.getLinkCount());
+	}
+
+	@Test
+	public void testLongWaySplit() {
+		DataSet data = new DataSet();
+		Way way = new Way();
+		for (int i = 0; i < 100; i++) {
+			Node node = new Node(new LatLon(52.5, 13.4 + i * 0.0001));
+			data.addPrimitive(node);
+			way.addNode(node);
+		}
+		way.put("highway", "residential");
+		data.addPrimitive(way);
+		// a crossing way makes node 40 part of the network
+		Node other = new Node(new LatLon(52.501, 13.404));
+		data.addPrimitive(other);
+		Way crossing = new Way();
+		crossing.addNode(way.getNode(40));
+		crossing.addNode(other);
+		crossing.put("highway", "residential");
+		data.addPrimitive(crossing);
+
+		NetworkModel networkModel = NetworkModel.createNetworkModel(data);
+		networkModel.visitAll();
+		List<MLink> links = networkModel.getWay2Links().get(way);
+		// two parts, in both directions
+		Assert.assertEquals(4, links.size());
+		MLink first = links.get(0);
+		MLink second = links.get(2);
+		Assert.assertEquals(0, first.getFirstSegment());
+		Assert.assertEquals(40, first.getSegmentCount());
+		Assert.assertEquals(40, second.getFirstSegment());
+		Assert.assertEquals(59, second.getSegmentCount());
+		Assert.assertEquals(59, second.getSegments().size());
+		Assert.assertSame(way.getNode(99), second.getSegments().get(58).getSecondNode());
+		Assert.assertEquals(way.getLength(), first.getLength() + second.getLength(), 1e-6);
+		Assert.assertEquals(first.getLength(), links.get(1).getLength(), 0.);
+		networkModel.release();
+	}
+
+	@Test
+	public void testCoordinateServiceBatch() {
+		// large enough to be transformed in parallel
+		List<Node> nodes = new ArrayList<>();
+		for (int i = 0; i < 20000; i++) {
+			nodes.add(new Node(new LatLon(52.5 + (i % 100) * 0.001, 13.4 + (i / 100) * 0.001)));
+		}
+		List<Coord> coords = CoordinateService.toCoords(nodes);
+		List<LatLon> latLons = CoordinateService.toLatLons(coords);
+		for (int i = 0; i < nodes.size(); i += 97) {
+			Coord coord = CoordinateService.toCoord(nodes.get(i));
+			Assert.assertEquals(coord, coords.get(i));
+			Assert.assertEquals(CoordinateService.toLatLon(coord), latLons.get(i));
+			Assert.assertTrue(nodes.get(i).getCoor().equalsEpsilon(latLons.get(i)));
+		}
+	}
+
+	@Test
+	public void testRouteCacheInvalidated() {
+		Route route = busRouteListener.lines().values().iterator().next().getRoutes().get(0);
+		List<MLink> links = new ArrayList<>(route.getRoute());
+		Assert.assertEquals(5, links.size());
+		Assert.assertSame(route.getRoute(), route.getRoute());
+		Assert.assertEquals(links, route.getRoute());
+		Assert.assertEquals(4, route.getStops().size());
+
+		Way way = links.get(links.size() - 1).getSegments().get(0).getWay();
+		List<MLink> wayLinks = busRouteListener.getWay2Links().get(way);
+		Command delete = DeleteCommand.delete(Collections.singletonList(way), false, true);
+		delete.executeCommand();
+		Assert.assertTrue(Collections.disjoint(wayLinks, route.getRoute()));
+		Assert.assertTrue(route.getRoute().size() < links.size());
+
+		delete.undoCommand();
+		Assert.assertEquals(5, route.getRoute().size());
+		Assert.assertEquals(4, route.getStops().size());
+	}
+
+	@Test
+	public void testRouteMovedToOtherLine() {
+		Line oldLine = busRouteListener.lines().values().iterator().next();
+		Route route = oldLine.getRoutes().get(0);
+		Relation master = oldLine.getRelation();
+		Relation otherMaster = new Relation();
+		otherMaster.put("type", "route_master");
+		otherMaster.put("ref", "otherLine");
+		busRouteLayer.data.addPrimitive(otherMaster);
+
+		List<RelationMember> members = new ArrayList<>(master.getMembers());
+		members.removeIf(member -> member.getMember() == route.getRelation());
+		master.setMembers(members);
+		otherMaster.addMember(new RelationMember("", route.getRelation()));
+
+		Assert.assertEquals(2, busRouteListener.lines().size());
+		Line otherLine = busRouteListener.lines().get(otherMaster);
+		Assert.assertNotNull(otherLine);
+		Assert.assertEquals(Collections.singletonList(route), otherLine.getRoutes());
+		Assert.assertFalse(oldLine.getRoutes().contains(route));
+		Assert.assertSame(route, busRouteListener.findRoute(route.getRelation()));
+		Assert.assertEquals(2, countRoutes(busRouteListener));
+	}
+
 	@Test
 	public void testIntersections() {
 		 Assert.assertEquals(11,intersectionsListener.getWay2Links().values().stream().mapToInt(List::size).sum());
@@ -2,6 +2,7 @@ package org.matsim.contrib.josm;
 
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.Assert;
@@ -10,7 +11,10 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.matsim.api.core.v01.Coord;
 import org.matsim.contrib.josm.model.MATSimLayer;
+import org.matsim.contrib.josm.model.MLink;
 import org.matsim.contrib.josm.model.MNode;
+import org.matsim.contrib.josm.model.NetworkModel;
+import org.matsim.contrib.josm.model.NetworkSnapshot;
 import org.openstreetmap.josm.data.projection.ProjectionRegistry;
 import org.openstreetmap.josm.gui.MainApplication;
 import org.openstreetmap.josm.gui.preferences.projection.ProjectionPreference;
@@ -62,4 +66,24 @@ public class ProjectionHandlingTest {
 		
 	}
 
+	@Test
+	public void snapshotKeepsCoordinatesAcrossReprojection() {
+		MainApplication.getLayerManager().addLayer(matsimLayer);
+		NetworkModel networkModel = matsimLayer.getNetworkModel();
+		try (NetworkSnapshot snapshot = networkModel.getSnapshot()) {
+			ProjectionRegistry.setProjection(ProjectionPreference.wgs84.getProjection());
+
+			for (MNode node : snapshot.getNodes().values()) {
+				Assert.assertEquals(nodeCoords.get(node.getOrigId()).getX(), node.getCoord().getX(), DELTA);
+				Assert.assertEquals(nodeCoords.get(node.getOrigId()).getY(), node.getCoord().getY(), DELTA);
+			}
+			for (List<MLink> links : networkModel.getWay2Links().values()) {
+				for (MLink link : links) {
+					Assert.assertSame(networkModel.nodes().get(link.getFromNode().getOsmNode()), link.getFromNode());
+					Assert.assertSame(networkModel.nodes().get(link.getToNode().getOsmNode()), link.getToNode());
+				}
+			}
+		}
+	}
+
 }
@@ -0,0 +1,159 @@
+package org.matsim.contrib.josm.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PersistentMapTest {
+
+	@Test
+	public void collidingKeys() {
+		Key a = new Key("a", 42);
+		Key b = new Key("b", 42);
+		Key c = new Key("c", 42);
+		PersistentMap<Key, String> map = PersistentMap.<Key, String> empty().plus(a, "1").plus(b, "2").plus(c, "3");
+		Assert.assertEquals(3, map.size());
+		Assert.assertEquals("1", map.get(a));
+		Assert.assertEquals("2", map.get(b));
+		Assert.assertEquals("3", map.get(c));
+		Assert.assertNull(map.get(new Key("d", 42)));
+
+		PersistentMap<Key, String> replaced = map.plus(b, "4");
+		Assert.assertEquals(3, replaced.size());
+		Assert.assertEquals("4", replaced.get(b));
+
+		PersistentMap<Key, String> removed = map.minus(b);
+		Assert.assertEquals(2, removed.size());
+		Assert.assertFalse(removed.containsKey(b));
+		Assert.assertEquals("1", removed.get(a));
+		Assert.assertEquals("3", removed.get(c));
+		Assert.assertSame(removed, removed.minus(new Key("d", 42)));
+		Assert.assertEquals(0, removed.minus(a).minus(c).size());
+	}
+
+	@Test
+	public void removalMergesSingleEntryIntoParent() {
+		// a and b share the first five bits, so they go into a child of the
+		// root, while c is an entry of the root, which comes first
+		Key a = new Key("a", 1);
+		Key b = new Key("b", 1 + 32);
+		Key c = new Key("c", 2);
+		PersistentMap<Key, String> map = PersistentMap.<Key, String> empty().plus(a, "1").plus(b, "2").plus(c, "3");
+		Assert.assertEquals(keys(c, a, b), new ArrayList<>(map.asMap().keySet()));
+
+		PersistentMap<Key, String> removed = map.minus(b);
+		PersistentMap<Key, String> fresh = PersistentMap.<Key, String> empty().plus(a, "1").plus(c, "3");
+		Assert.assertEquals(keys(a, c), new ArrayList<>(removed.asMap().keySet()));
+		Assert.assertEquals(new ArrayList<>(fresh.asMap().entrySet()), new ArrayList<>(removed.asMap().entrySet()));
+	}
+
+	@Test
+	public void removalMergesCollisionsIntoParent() {
+		Key a = new Key("a", 7);
+		Key b = new Key("b", 7);
+		Key c = new Key("c", 8);
+		PersistentMap<Key, String> map = PersistentMap.<Key, String> empty().plus(a, "1").plus(b, "2").plus(c, "3");
+		Assert.assertEquals(keys(c, a, b), new ArrayList<>(map.asMap().keySet()));
+
+		PersistentMap<Key, String> removed = map.minus(a);
+		Assert.assertEquals(2, removed.size());
+		Assert.assertEquals(keys(b, c), new ArrayList<>(removed.asMap().keySet()));
+	}
+
+	@Test
+	public void manyPutsAndRemoves() {
+		Random random = new Random(4711);
+		Map<Integer, Integer> expected = new HashMap<>();
+		PersistentMap<Integer, Integer> map = PersistentMap.empty();
+		for (int i = 0; i < 20000; i++) {
+			// spread the keys over the whole range of hashes
+			Integer key = random.nextInt(2000) * 0x9E3779B9;
+			if (random.nextInt(3) == 0) {
+				expected.remove(key);
+				map = map.minus(key);
+			} else {
+				expected.put(key, i);
+				map = map.plus(key, i);
+			}
+			Assert.assertEquals(expected.size(), map.size());
+		}
+		Assert.assertEquals(expected, map.asMap());
+		Assert.assertEquals(expected.size(), map.asMap().entrySet().size());
+		int count = 0;
+		for (Map.Entry<Integer, Integer> entry : map.asMap().entrySet()) {
+			Assert.assertEquals(expected.get(entry.getKey()), entry.getValue());
+			count++;
+		}
+		Assert.assertEquals(expected.size(), count);
+		// the trie only depends on the keys, not on the order they came in
+		Assert.assertEquals(new ArrayList<>(PersistentMap.of(expected).asMap().entrySet()), new ArrayList<>(map.asMap().entrySet()));
+	}
+
+	@Test
+	public void olderVersionsDoNotChange() {
+		Random random = new Random(42);
+		List<PersistentMap<Integer, Integer>> versions = new ArrayList<>();
+		List<Map<Integer, Integer>> contents = new ArrayList<>();
+		Map<Integer, Integer> expected = new HashMap<>();
+		PersistentMap<Integer, Integer> map = PersistentMap.empty();
+		for (int i = 0; i < 2000; i++) {
+			Integer key = random.nextInt(300);
+			if (random.nextBoolean()) {
+				expected.remove(key);
+				map = map.minus(key);
+			} else {
+				expected.put(key, i);
+				map = map.plus(key, i);
+			}
+			if (i % 50 == 0) {
+				versions.add(map);
+				contents.add(new HashMap<>(expected));
+			}
+		}
+		for (int i = 0; i < versions.size(); i++) {
+			Assert.assertEquals(contents.get(i).size(), versions.get(i).size());
+			Assert.assertEquals(contents.get(i), versions.get(i).asMap());
+		}
+	}
+
+	private static List<Key> keys(Key... keys) {
+		List<Key> result = new ArrayList<>();
+		for (Key key : keys) {
+			result.add(key);
+		}
+		return result;
+	}
+
+	// A key with a given hash.
+	private static final class Key {
+
+		final String name;
+		final int hash;
+
+		Key(String name, int hash) {
+			this.name = name;
+			this.hash = hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key && ((Key) o).name.equals(name);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+}